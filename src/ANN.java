@@ -1,15 +1,44 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.lang.model.util.ElementScanner6;
 
 import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
 import org.jblas.util.Logger;
 
+import minet.BatchPrefetcher;
+import minet.DataParallel;
 import minet.Dataset;
+import minet.Hogwild;
+import minet.ModelBatch;
+import minet.SparseDataset;
+import minet.Standardizer;
+import minet.FloatDataset;
 import minet.layer.*;
 import minet.loss.CrossEntropy;
+import minet.loss.FloatLoss;
 import minet.loss.Loss;
+import minet.loss.SoftmaxCrossEntropy;
 import minet.optim.Optimizer;
 import minet.optim.SGD;
 import minet.util.Pair;
@@ -17,42 +46,357 @@ import minet.util.Pair;
 public class ANN {
 
 	Layer model;
+	FloatLayer floatModel; // the model if it was built in single precision
+	// the last dataset evaluated by the single-precision model, and its conversion
+	// (NOTE: a dataset changed in place after its conversion is not converted again)
+	Pair<Object> floatData;
+
+	// whether the output softmax is fused into the loss (see createLoss)
+	boolean fusedOutput = true;
+
+	// number of threads each minibatch is split across during training
+	int nThreads = 1;
+
+	// number of minibatches assembled ahead on a producer thread during training (0: none)
+	int prefetch = 0;
+
+	// evaluation streams the data in chunks, possibly in parallel
+	int evalChunkSize = 1024;
+	int evalThreads = 1;
+	Pair<DoubleMatrix>[] evalBuffers; // one per thread, plus one for the last (shorter) chunk
+	SparseDataset.Batch[] sparseEvalBuffers; // the same, for a sparse dataset
+
+	// random generator of the initial weights, jblas' global one if null
+	Random initRnd;
+
+	// where training progress is reported
+	PrintStream log = System.out;
+
+	// training state, kept from one call of resume to the next
+	int epochsTrained = 0; // the number of epochs trained since the model was built
+	double peakAcc = -1; // the best validation accuracy so far
+	int notAtPeak = 0; // the number of consecutive epochs not at peak
+	boolean stopped = false; // whether early stopping has ended the training
+
+	// where the training state is saved every few epochs (see setCheckpoint), null for nowhere
+	String checkpoint;
+	int checkpointEpochs = 1;
+	String checkpointId; // what the training is of, a checkpoint of anything else is refused
+
+	/**
+	 * the state of a training saved to disk: the weights of the model, the training state
+	 * kept by {@link ANN#resume}, the ordering and the standardisation of the training data
+	 * and the state of the random generator
+	 */
+	static class Checkpoint implements java.io.Serializable {
+		private static final long serialVersionUID = 3391502367457520871L;
+		double[][] weights;
+		int[][] shapes; // rows and columns of each weight matrix
+		int epochsTrained;
+		double peakAcc;
+		int notAtPeak;
+		boolean stopped;
+		long seed; // the random generator is reseeded with it when saving
+		int[] order;
+		Standardizer transform; // the standardisation of the inputs, null if none
+		String identity; // what the training is of (see setCheckpoint), may be null
+	}
 
 	public ANN() {
 		this.model = null;
 	}
 
+	/**
+	 * draw the initial weights of the models built by this ANN from the given random
+	 * generator instead of jblas' global one, e.g. when several ANNs are built and
+	 * trained concurrently
+	 * 
+	 * @param rnd a random generator, or null for jblas' global one
+	 */
+	public void setInitRandom(Random rnd) {
+		this.initRnd = rnd;
+	}
+
+	/**
+	 * choose whether building and training report their progress on standard output
+	 * (the default)
+	 * 
+	 * @param verbose false to train silently
+	 */
+	public void setVerbose(boolean verbose) {
+		this.log = verbose ? System.out : new PrintStream(OutputStream.nullOutputStream());
+	}
+
+	/**
+	 * choose whether {@link #build} ends the network with a softmax layer (false)
+	 * or leaves the logits to a fused {@link SoftmaxCrossEntropy} loss (true,
+	 * the default).
+	 * 
+	 * @param fusedOutput true to fuse the output softmax into the loss
+	 */
+	public void setFusedOutput(boolean fusedOutput) {
+		this.fusedOutput = fusedOutput;
+	}
+
+	/**
+	 * set the number of threads used by {@link #train}. With more than one thread,
+	 * each minibatch is split into shards that are processed in parallel (see
+	 * {@link DataParallel}).
+	 * 
+	 * @param nThreads the number of threads
+	 */
+	public void setThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * set how many minibatches {@link #train} assembles ahead of training, on a
+	 * producer thread (see {@link BatchPrefetcher}). 0 (the default) assembles each
+	 * minibatch on the training thread.
+	 * 
+	 * @param depth the number of minibatches assembled ahead
+	 */
+	public void setPrefetch(int depth) {
+		this.prefetch = depth;
+	}
+
+	/**
+	 * save the training state to a file every few epochs, so that an interrupted
+	 * training can be continued: {@link #train} then continues from the file, if it
+	 * exists, instead of from epoch 0. The file is replaced atomically, so it always
+	 * holds a complete checkpoint. It must be deleted to train the model afresh.
+	 * 
+	 * NOTE: to make the saved state of the random generator complete, it is reseeded
+	 * (from itself) at each checkpoint, so a training with checkpoints does not draw the
+	 * same numbers as one without.
+	 * 
+	 * @param path        the checkpoint file, or null for no checkpoints (the default)
+	 * @param everyEpochs the number of epochs between two checkpoints
+	 */
+	public void setCheckpoint(String path, int everyEpochs) {
+		this.setCheckpoint(path, everyEpochs, null);
+	}
+
+	/**
+	 * like {@link #setCheckpoint(String, int)}, for a training identified by a string
+	 * (e.g. its dataset, seed and settings), which is saved with the checkpoint: a
+	 * checkpoint of another training is refused instead of being continued
+	 * 
+	 * @param path        the checkpoint file, or null for no checkpoints
+	 * @param everyEpochs the number of epochs between two checkpoints
+	 * @param identity    what the training is of (may be null)
+	 */
+	public void setCheckpoint(String path, int everyEpochs, String identity) {
+		this.checkpoint = path;
+		this.checkpointEpochs = Math.max(1, everyEpochs);
+		this.checkpointId = identity;
+	}
+
+	/**
+	 * save the model and the training state to the checkpoint file
+	 */
+	void saveCheckpoint(Dataset traindata, Random rnd) throws IOException {
+		Checkpoint c = new Checkpoint();
+		List<DoubleMatrix> weights = this.model.getAllWeights(new ArrayList<DoubleMatrix>());
+		c.weights = new double[weights.size()][];
+		c.shapes = new int[weights.size()][];
+		for (int i = 0; i < weights.size(); i++) {
+			c.weights[i] = weights.get(i).data.clone();
+			c.shapes[i] = new int[] { weights.get(i).rows, weights.get(i).columns };
+		}
+		c.epochsTrained = this.epochsTrained;
+		c.peakAcc = this.peakAcc;
+		c.notAtPeak = this.notAtPeak;
+		c.stopped = this.stopped;
+		c.seed = rnd.nextLong();
+		rnd.setSeed(c.seed);
+		c.order = traindata.getOrder();
+		c.transform = traindata.getTransform();
+		c.identity = this.checkpointId;
+
+		// written next to the checkpoint and forced to disk first, then moved over it
+		File tmp = new File(this.checkpoint + ".tmp");
+		try (FileOutputStream fos = new FileOutputStream(tmp);
+				ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fos))) {
+			out.writeObject(c);
+			out.flush();
+			fos.getFD().sync();
+		}
+		Files.move(tmp.toPath(), Paths.get(this.checkpoint), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * restore the model and the training state from the checkpoint file, if it exists
+	 * 
+	 * @param traindata the training data, whose ordering and standardisation are
+	 *                  restored
+	 * @param rnd       the random generator of the training, which is reseeded
+	 * @return whether a checkpoint was restored
+	 */
+	public boolean restoreCheckpoint(Dataset traindata, Random rnd) throws Exception {
+		if (this.model == null) {
+			throw new Exception("ANN model must be built first");
+		}
+		File file = new File(this.checkpoint);
+		if (!file.exists())
+			return false;
+		Checkpoint c;
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			c = (Checkpoint) in.readObject();
+		}
+		if (!Objects.equals(c.identity, this.checkpointId))
+			throw new IOException(this.checkpoint + ": the checkpoint is of \"" + c.identity + "\", not of \""
+					+ this.checkpointId + "\"");
+		List<DoubleMatrix> weights = this.model.getAllWeights(new ArrayList<DoubleMatrix>());
+		if (weights.size() != c.weights.length)
+			throw new IOException(this.checkpoint + ": the checkpoint does not match the model");
+		for (int i = 0; i < weights.size(); i++) {
+			DoubleMatrix w = weights.get(i);
+			if (w.rows != c.shapes[i][0] || w.columns != c.shapes[i][1])
+				throw new IOException(this.checkpoint + ": the checkpoint does not match the model");
+		}
+		// the weights are copied in place, as the optimizer holds the model's matrices
+		for (int i = 0; i < weights.size(); i++)
+			System.arraycopy(c.weights[i], 0, weights.get(i).data, 0, c.weights[i].length);
+		this.epochsTrained = c.epochsTrained;
+		this.peakAcc = c.peakAcc;
+		this.notAtPeak = c.notAtPeak;
+		this.stopped = c.stopped;
+		rnd.setSeed(c.seed);
+		if (c.order != null)
+			traindata.setOrder(c.order);
+		// the model goes on seeing its inputs standardised as they were when it was saved
+		traindata.setTransform(c.transform);
+		return true;
+	}
+
+	/**
+	 * set how {@link #eval} streams over a dataset
+	 * 
+	 * @param chunkSize the number of instances evaluated at once
+	 * @param nThreads  the number of chunks evaluated in parallel
+	 */
+	public void setEvalChunks(int chunkSize, int nThreads) {
+		this.evalChunkSize = chunkSize;
+		this.evalThreads = nThreads;
+		this.evalBuffers = null;
+		this.sparseEvalBuffers = null;
+	}
+
+	/**
+	 * create the loss function matching the output of the built network
+	 * 
+	 * @return a {@link SoftmaxCrossEntropy} if the network outputs logits, a
+	 *         {@link CrossEntropy} if it ends with a softmax layer
+	 */
+	public Loss createLoss() {
+		if (this.fusedOutput)
+			return new SoftmaxCrossEntropy();
+		return new CrossEntropy();
+	}
+
 	/**
 	 * calculate classification accuracy of a trained ANN on a given dataset.
+	 * <p>
+	 * NOTE: the chunk buffers (and the float copy of the dataset, for a float model)
+	 * are kept in the ANN and reused from one call to the next, so eval must not be
+	 * called concurrently on the same ANN (as the concurrent experiments use one ANN
+	 * per task). A single evaluation can be spread over threads with
+	 * {@link #setEvalChunks}.
 	 * 
 	 * @param data a dataset
 	 * @return the classification accuracy value (float, in the range of [0,1])
 	 */
 	public double eval(Dataset data) throws Exception {
+		if (this.floatModel != null) {
+			// converted once, and reused as long as the same dataset is evaluated
+			if (this.floatData == null || this.floatData.first != data)
+				this.floatData = new Pair<Object>(data, new FloatDataset(data));
+			return this.evalFloat((FloatDataset) this.floatData.second);
+		}
 		if (this.model == null) {
 			throw new Exception("ANN model must be built first");
 		}
 
-		double correct = 0; // for counting how many predictions are correct
-
-		// get X and Y from the dataset
-		Pair<DoubleMatrix> d = data.getAllData();
-
-		// perform forward to compute Yhat, each row of whom is a distribution over the
-		// number of classes
-		DoubleMatrix Yhat = this.model.forward(d.first);
+		// the data are streamed in chunks, the chunk buffers are reused from one call
+		// to the next
+		int size = data.getSize();
+		int nFull = size / this.evalChunkSize; // number of full chunks
+		if (this.evalBuffers == null) {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			Pair<DoubleMatrix>[] bufs = new Pair[this.evalThreads + 1];
+			this.evalBuffers = bufs;
+			this.sparseEvalBuffers = new SparseDataset.Batch[this.evalThreads + 1];
+		}
 
-		// count how many predictions are correct
-		int[] predictedLabels = Yhat.rowArgmaxs();
-		for (int i = 0; i < predictedLabels.length; i++)
-			if (predictedLabels[i] == (int) d.second.get(i, 0))
-				correct++;
+		long correct = 0; // for counting how many predictions are correct
+		if (this.evalThreads > 1 && nFull > 1) {
+			// thread t evaluates the full chunks t, t + nThreads, ...
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for (int t = 0; t < this.evalThreads; t++) {
+				final int first = t;
+				tasks.add(() -> {
+					long c = 0;
+					for (int k = first; k < nFull; k += this.evalThreads)
+						c += this.evalChunk(data, k * this.evalChunkSize, (k + 1) * this.evalChunkSize, first);
+					return c;
+				});
+			}
+			for (Future<Long> f : ForkJoinPool.commonPool().invokeAll(tasks))
+				correct += f.get();
+		} else {
+			for (int k = 0; k < nFull; k++)
+				correct += this.evalChunk(data, k * this.evalChunkSize, (k + 1) * this.evalChunkSize, 0);
+		}
+		if (nFull * this.evalChunkSize < size)
+			correct += this.evalChunk(data, nFull * this.evalChunkSize, size, this.evalThreads);
 
 		// compute accuracy
-		double acc = correct / data.getSize();
+		double acc = (double) correct / size;
 		return acc;
 	}
 
+	/**
+	 * count the correct predictions on the instances [start, end) of a dataset
+	 * 
+	 * @param slot index of the chunk buffer to use
+	 */
+	long evalChunk(Dataset data, int start, int end, int slot) {
+		DoubleMatrix Yhat, Y;
+		if (data instanceof SparseDataset && ((SparseDataset) data).hasSparseMiniBatches()
+				&& this.model instanceof Sequential) {
+			// the sparse inputs are multiplied directly by the first layer
+			SparseDataset.Batch d = ((SparseDataset) data).getSparseMiniBatch(start, end,
+					this.sparseEvalBuffers[slot]);
+			this.sparseEvalBuffers[slot] = d;
+			Yhat = ((Sequential) this.model).predict(d.X);
+			Y = d.Y;
+		} else {
+			Pair<DoubleMatrix> d = data.getMiniBatch(start, end, this.evalBuffers[slot]);
+			this.evalBuffers[slot] = d;
+
+			// perform a (stateless) forward to compute Yhat, each row of whom is a
+			// distribution (or the logits of a distribution) over the number of classes
+			Yhat = this.model.predict(d.first, true, null);
+			Y = d.second;
+		}
+
+		// count how many predictions are correct (Yhat is column-major)
+		long correct = 0;
+		int n = Yhat.rows;
+		for (int i = 0; i < n; i++) {
+			int best = 0;
+			for (int j = 1; j < Yhat.columns; j++) {
+				if (Yhat.data[j * n + i] > Yhat.data[best * n + i])
+					best = j;
+			}
+			if (best == (int) Y.data[i])
+				correct++;
+		}
+		return correct;
+	}
+
 	/**
 	 * train an ANN
 	 * 
@@ -71,60 +415,356 @@ public class ANN {
 	 */
 	public Layer train(Loss loss, Optimizer optimizer, Dataset traindata, Dataset devdata, int batchsize, int nEpochs,
 			int patience, Random rnd) throws Exception {
+		this.resetTraining();
+		if (this.checkpoint != null && this.restoreCheckpoint(traindata, rnd)) {
+			// continue an interrupted training, validating with the restored standardisation
+			devdata.setTransform(traindata.getTransform());
+			this.log.printf("continuing from epoch %d (%s)\n", this.epochsTrained, this.checkpoint);
+			nEpochs = Math.max(0, nEpochs - this.epochsTrained);
+		}
+		return this.resume(loss, optimizer, traindata, devdata, batchsize, nEpochs, patience, rnd);
+	}
+
+	/**
+	 * forget the training state (number of epochs, peak accuracy, early stopping)
+	 * kept by {@link #resume}, without touching the model's weights
+	 */
+	public void resetTraining() {
+		this.epochsTrained = 0;
+		this.peakAcc = -1;
+		this.notAtPeak = 0;
+		this.stopped = false;
+	}
+
+	/**
+	 * @return the number of epochs trained by {@link #train} and {@link #resume}
+	 */
+	public int getEpochsTrained() {
+		return this.epochsTrained;
+	}
+
+	/**
+	 * @return the best validation accuracy reached by {@link #train} and
+	 *         {@link #resume}, -1 before the first epoch
+	 */
+	public double getPeakAccuracy() {
+		return this.peakAcc;
+	}
+
+	/**
+	 * @return whether early stopping has ended the training
+	 */
+	public boolean isStopped() {
+		return this.stopped;
+	}
+
+	/**
+	 * continue training an ANN for up to nEpochs more epochs, from where the previous
+	 * call of {@link #train} or resume stopped: the number of epochs trained, the peak
+	 * validation accuracy and the count of epochs not at peak carry over, so that
+	 * training in several calls behaves like a single longer call (given the same
+	 * random generator). Does nothing once early stopping has ended the training.
+	 * 
+	 * @param nEpochs the maximum number of epochs trained by this call
+	 * @see #train
+	 */
+	public Layer resume(Loss loss, Optimizer optimizer, Dataset traindata, Dataset devdata, int batchsize,
+			int nEpochs, int patience, Random rnd) throws Exception {
 		if (this.model == null) {
 			throw new Exception("ANN model must be built first");
 		}
+		if (this.stopped) {
+			return this.model;
+		}
 
-		int notAtPeak = 0; // the number of times not at peak
-		double peakAcc = -1; // the best accuracy of the previous epochs
-		double totalLoss = 0; // the total loss of the current epoch
+		// sparse inputs are fed to the first layer as they are, on the calling thread (unless
+		// standardised, which fills in the zeros)
+		SparseDataset sparse = traindata instanceof SparseDataset && ((SparseDataset) traindata).hasSparseMiniBatches()
+				&& this.model instanceof Sequential ? (SparseDataset) traindata : null;
+		// split minibatches across threads if asked to
+		DataParallel parallel = this.nThreads > 1 && sparse == null
+				? new DataParallel(this.model, loss, this.nThreads) : null;
+		// assemble minibatches in the background if asked to
+		BatchPrefetcher prefetcher = this.prefetch > 0 && sparse == null ? new BatchPrefetcher(this.prefetch) : null;
 
-		for (int e = 0; e < nEpochs; e++) {
-			System.out.printf("epoch %4d\t", e);
-			traindata.shuffle(rnd); // always shuffle the data before each epoch.
-			totalLoss = 0;
-			while (true) {
-				Pair<DoubleMatrix> batch = traindata.getNextMiniBatch(batchsize); // get the next mini-batch
-				if (batch == null) // finish this epoch if there are no items left
-					break;
+		double throughput;
+		try {
+			throughput = this.runEpochs(nEpochs, patience, new EpochRunner() {
+				@Override
+				public double[] trainEpoch() throws Exception {
+					traindata.shuffle(rnd); // always shuffle the data before each epoch.
+					if (prefetcher != null)
+						prefetcher.startEpoch(traindata, batchsize);
+					double totalLoss = 0; // the total loss of the epoch
+					long nSamples = 0;
+					while (true) {
+						// get the next mini-batch
+						Pair<DoubleMatrix> batch = null;
+						SparseDataset.Batch sparseBatch = null;
+						if (sparse != null)
+							sparseBatch = sparse.getNextSparseMiniBatch(batchsize);
+						else
+							batch = prefetcher != null ? prefetcher.next() : traindata.getNextMiniBatch(batchsize);
+						if (batch == null && sparseBatch == null) // finish this epoch if there are no items left
+							break;
 
-				optimizer.resetGradients(); // always reset the gradients before performing backward
+						optimizer.resetGradients(); // always reset the gradients before performing backward
 
-				// calculate the loss value
-				DoubleMatrix probs = model.forward(batch.first);
-				double lossVal = loss.forward(batch.second, probs);
+						double lossVal;
+						if (sparseBatch != null) {
+							DoubleMatrix probs = ((Sequential) model).forward(sparseBatch.X);
+							lossVal = loss.forward(sparseBatch.Y, probs);
+							model.backward(loss.backward());
+						} else if (parallel != null) {
+							// forward and backward on the shards, gradients are reduced into the model
+							lossVal = parallel.step(batch);
+						} else {
+							// calculate the loss value
+							DoubleMatrix probs = model.forward(batch.first);
+							lossVal = loss.forward(batch.second, probs);
 
-				// calculate network weights' gradients using backprop
-				this.model.backward(loss.backward());
+							// calculate network weights' gradients using backprop
+							model.backward(loss.backward());
+						}
 
-				// update network weights using the calculated gradients
-				optimizer.updateWeights();
+						// update network weights using the calculated gradients
+						optimizer.updateWeights();
 
-				// System.out.printf("loss: %f\r", lossVal);
-				totalLoss += lossVal;
-			}
-			System.out.printf("total loss: %5.3f\t", totalLoss);
+						// System.out.printf("loss: %f\r", lossVal);
+						totalLoss += lossVal;
+						nSamples += sparseBatch != null ? sparseBatch.X.rows : batch.first.rows;
+					}
+					return new double[] { totalLoss, nSamples };
+				}
+
+				@Override
+				public double validate() throws Exception {
+					return eval(devdata);
+				}
+
+				@Override
+				public void afterEpoch() throws Exception {
+					if (checkpoint != null && (stopped || epochsTrained % checkpointEpochs == 0))
+						saveCheckpoint(traindata, rnd);
+				}
+			});
+		} finally {
+			if (parallel != null)
+				parallel.shutdown();
+			if (prefetcher != null)
+				prefetcher.shutdown();
+		}
+		if (prefetcher != null)
+			this.log.printf("\nprefetch queue depth: %.2f, waited for %.1f%% of minibatches",
+					prefetcher.getMeanQueueDepth(), 100 * prefetcher.getStarvedRatio());
+
+		this.log.println("\ntraining is finished");
+		this.log.printf("throughput: %.0f samples/sec\n", throughput);
+
+		return this.model;
+	}
+
+	/**
+	 * one epoch of training, for the training loop shared by {@link #resume},
+	 * {@link #trainFloat} and {@link #trainAsync} (see {@link #runEpochs})
+	 */
+	interface EpochRunner {
+		/**
+		 * shuffle the training data and train the model on it once
+		 * 
+		 * @return the total loss of the epoch and the number of instances trained on
+		 */
+		double[] trainEpoch() throws Exception;
+
+		/**
+		 * @return the validation accuracy of the model
+		 */
+		double validate() throws Exception;
+
+		/**
+		 * called at the end of each epoch, once the early stopping criteria are checked
+		 */
+		default void afterEpoch() throws Exception {
+		}
+	}
+
+	/**
+	 * train for up to nEpochs epochs, checking the early stopping criteria after each
+	 * one, and keep the training state (see {@link #resume}) up to date
+	 * 
+	 * @return the training throughput, in instances per second
+	 */
+	double runEpochs(int nEpochs, int patience, EpochRunner runner) throws Exception {
+		long nSamples = 0; // for reporting throughput
+		long trainNanos = 0;
+		for (int e = 0; e < nEpochs && !this.stopped; e++) {
+			this.log.printf("epoch %4d\t", this.epochsTrained);
+			long start = System.nanoTime();
+			double[] epoch = runner.trainEpoch();
+			trainNanos += System.nanoTime() - start;
+			nSamples += (long) epoch[1];
+			this.log.printf("total loss: %5.3f\t", epoch[0]);
+
+			this.epochsTrained++;
 
 			// check early stopping criteria
-			double acc = this.eval(devdata);
-			System.out.printf("accuracy: %3.3f \t", acc);
-			if (acc <= peakAcc) {
-				notAtPeak++;
-				System.out.printf("Not at peak " + notAtPeak + " times consecutively");
+			double acc = runner.validate();
+			this.log.printf("accuracy: %3.3f \t", acc);
+			if (acc <= this.peakAcc) {
+				this.notAtPeak++;
+				this.log.printf("Not at peak " + this.notAtPeak + " times consecutively");
 			} else {
-				notAtPeak = 0;
-				peakAcc = acc;
+				this.notAtPeak = 0;
+				this.peakAcc = acc;
 			}
-			if (notAtPeak >= patience)
-				break;
-			System.out.print('\r');
+			if (this.notAtPeak >= patience)
+				this.stopped = true;
+			runner.afterEpoch();
+			if (!this.stopped)
+				this.log.print('\r');
 		}
+		return nSamples / (trainNanos / 1e9);
+	}
 
-		System.out.println("\ntraining is finished");
+	/**
+	 * train an ANN with lock-free asynchronous SGD (see {@link Hogwild}): nWorkers
+	 * threads pull minibatches from the training set and update the shared weights
+	 * without locks. Apart from the optimizer, which is always SGD here, the
+	 * parameters are the same as {@link #train}'s.
+	 * 
+	 * @param learningRate the learning rate of SGD
+	 * @param nWorkers     the number of worker threads
+	 */
+	public Layer trainAsync(Loss loss, double learningRate, Dataset traindata, Dataset devdata, int batchsize,
+			int nEpochs, int patience, Random rnd, int nWorkers) throws Exception {
+		if (this.model == null) {
+			throw new Exception("ANN model must be built first");
+		}
+
+		this.resetTraining();
+		Hogwild hogwild = new Hogwild(this.model, loss, learningRate, nWorkers);
+		double throughput;
+		try {
+			throughput = this.runEpochs(nEpochs, patience, new EpochRunner() {
+				@Override
+				public double[] trainEpoch() throws Exception {
+					traindata.shuffle(rnd); // always shuffle the data before each epoch.
+					return hogwild.runEpoch(traindata, batchsize);
+				}
+
+				@Override
+				public double validate() throws Exception {
+					return eval(devdata);
+				}
+			});
+		} finally {
+			hogwild.shutdown();
+		}
+
+		this.log.println("\ntraining is finished");
+		this.log.printf("throughput: %.0f samples/sec (%d workers)\n", throughput, nWorkers);
 
 		return this.model;
 	}
 
+	/**
+	 * train several networks of the same structure at once, as one wide network (see
+	 * {@link ModelBatch}): all the models see the same minibatches, each with its own
+	 * learning rate and its own early stopping, as if each was trained alone by
+	 * {@link #train} with plain SGD, a {@link SoftmaxCrossEntropy} loss and the same
+	 * random generator. A model that stops early is taken out of the batch, so that it
+	 * no longer costs anything. The trained weights are copied back into the models.
+	 *
+	 * @param models        networks built by {@link #build} with the same
+	 *                      structure (e.g. with different random generators)
+	 * @param learningRates the learning rate of each model
+	 * @param rnd           a random generator, for the order of the training data
+	 * @return the best validation accuracy of each model
+	 * @see #train
+	 */
+	public double[] trainBatch(Sequential[] models, double[] learningRates, Dataset traindata, Dataset devdata,
+			int batchsize, int nEpochs, int patience, Random rnd) throws Exception {
+		ModelBatch batch = new ModelBatch(models);
+		int M = models.length;
+		double[] lr = learningRates.clone(); // 0 once a model has stopped
+		double[] peakAcc = new double[M];
+		int[] notAtPeak = new int[M];
+		Arrays.fill(peakAcc, -1);
+		int running = M;
+		double[] losses = new double[M];
+		double[] totalLoss = new double[M];
+
+		long nSamples = 0; // for reporting throughput
+		long trainNanos = 0;
+
+		for (int e = 0; e < nEpochs && running > 0; e++) {
+			this.log.printf("epoch %4d\t", e);
+			traindata.shuffle(rnd); // always shuffle the data before each epoch.
+			Arrays.fill(totalLoss, 0);
+			long start = System.nanoTime();
+			Pair<DoubleMatrix> d;
+			while ((d = traindata.getNextMiniBatch(batchsize)) != null) {
+				batch.step(d.first, d.second, lr, losses);
+				for (int m = 0; m < M; m++) {
+					if (lr[m] != 0)
+						totalLoss[m] += losses[m];
+				}
+				nSamples += d.first.rows;
+			}
+			trainNanos += System.nanoTime() - start;
+			this.log.printf("mean total loss: %5.3f\t", Arrays.stream(totalLoss).sum() / running);
+
+			// check the early stopping criteria of each model
+			double[] acc = this.evalBatch(batch, devdata);
+			double best = -1;
+			for (int m = 0; m < M; m++) {
+				if (lr[m] == 0)
+					continue;
+				if (acc[m] <= peakAcc[m]) {
+					notAtPeak[m]++;
+				} else {
+					notAtPeak[m] = 0;
+					peakAcc[m] = acc[m];
+				}
+				if (notAtPeak[m] >= patience) {
+					lr[m] = 0;
+					batch.stop(m);
+					running--;
+				}
+				best = Math.max(best, acc[m]);
+			}
+			this.log.printf("best accuracy: %3.3f \tmodels still training: %d/%d\r", best, running, M);
+		}
+		batch.unfuse();
+
+		this.log.println("\ntraining is finished");
+		for (int m = 0; m < M; m++)
+			this.log.printf("model %d (learning rate %.3f): peak accuracy %.3f\n", m, learningRates[m], peakAcc[m]);
+		this.log.printf("throughput: %.0f samples/sec (%d models, %.0f model-samples/sec)\n",
+				nSamples / (trainNanos / 1e9), M, M * nSamples / (trainNanos / 1e9));
+		return peakAcc;
+	}
+
+	/**
+	 * calculate the classification accuracy of each model of a {@link ModelBatch} on
+	 * a given dataset
+	 *
+	 * @return the accuracy of each model (0 for the models taken out of the batch)
+	 */
+	public double[] evalBatch(ModelBatch batch, Dataset data) {
+		long[] correct = new long[batch.size()];
+		Pair<DoubleMatrix> buf = null;
+		int size = data.getSize();
+		for (int start = 0; start < size; start += this.evalChunkSize) {
+			buf = data.getMiniBatch(start, Math.min(size, start + this.evalChunkSize), buf);
+			batch.countCorrect(buf.first, buf.second, correct);
+		}
+		double[] acc = new double[correct.length];
+		for (int m = 0; m < acc.length; m++)
+			acc[m] = (double) correct[m] / size;
+		return acc;
+	}
+
 	/**
 	 * build an (untrained) ANN for a classification task
 	 * 
@@ -135,47 +775,199 @@ public class ANN {
 	 * @param n_nodes_per_hidden_layers number of nodes per hidden layer
 	 * @param activation_function       name of the activation function used in the
 	 *                                  hidden layers (ReLU/Sigmoid/Tanh)
+	 * @return the network, which outputs logits if the output softmax is fused
+	 *         into the loss (see {@link #createLoss()})
 	 */
 	public Layer build(int input_dims, int output_dims, int n_hidden_layers, int n_nodes_per_hidden_layer,
 			String activation_function) {
 		Layer model = null;
 
 		//// YOUR CODE HERE
-		Layer[] modelLayers = new Layer[2 + 2 * n_hidden_layers];
+		// the output softmax is left to the loss when it is fused
+		Layer[] modelLayers = new Layer[(this.fusedOutput ? 1 : 2) + 2 * n_hidden_layers];
 
 		if (n_hidden_layers == 0) {
-			modelLayers[0] = new Linear(input_dims, output_dims, new Linear.WeightInitXavier());
+			modelLayers[0] = new Linear(input_dims, output_dims, new Linear.WeightInitXavier(this.initRnd));
 		} else {
-			modelLayers[0] = new Linear(input_dims, n_nodes_per_hidden_layer, new Linear.WeightInitXavier());
+			modelLayers[0] = new Linear(input_dims, n_nodes_per_hidden_layer, new Linear.WeightInitXavier(this.initRnd));
 		}
 
 		for (int i = 1; i < 2 * n_hidden_layers; i += 2) {
 			// Selects the activation Function
 			if (activation_function.equals("Softmax")) {
-				modelLayers[i] = new Softmax();
+				modelLayers[i] = new Softmax(true);
 			} else if (activation_function.equals("Tanh")) {
-				modelLayers[i] = new Tanh();
+				modelLayers[i] = new Tanh(true);
 			} else if (activation_function.equals("Sigmoid")) {
-				modelLayers[i] = new Sigmoid();
+				modelLayers[i] = new Sigmoid(true);
 			} else {
-				modelLayers[i] = new ReLU();
+				modelLayers[i] = new ReLU(true);
 			}
 
 			// Checks if it is the last hidden layer
 			if (2 * n_hidden_layers - 1 == i) {
-				modelLayers[i + 1] = new Linear(n_nodes_per_hidden_layer, output_dims, new Linear.WeightInitXavier());
+				modelLayers[i + 1] = new Linear(n_nodes_per_hidden_layer, output_dims, new Linear.WeightInitXavier(this.initRnd));
 			} else {
 				modelLayers[i + 1] = new Linear(n_nodes_per_hidden_layer, n_nodes_per_hidden_layer,
-						new Linear.WeightInitXavier());
+						new Linear.WeightInitXavier(this.initRnd));
 			}
 		}
-		modelLayers[1 + 2 * n_hidden_layers] = new Softmax();
+		if (!this.fusedOutput)
+			modelLayers[1 + 2 * n_hidden_layers] = new Softmax(true);
+
+		// reuse the linear layers' buffers across minibatches, the activations
+		// then work in place over these buffers
+		for (int i = 0; i < modelLayers.length; i++) {
+			if (modelLayers[i] instanceof Linear)
+				((Linear) modelLayers[i]).setWorkspace(true);
+		}
 		model = new Sequential(modelLayers);
 		// print out the built model
-		System.out.println("Built model: ");
-		System.out.println(model);
+		this.log.println("Built model: ");
+		this.log.println(model);
 
 		this.model = model;
+		this.floatModel = null;
+		this.resetTraining();
+		return model;
+	}
+
+	/**
+	 * initialise the (built, untrained) model from the trained model of a related ANN,
+	 * e.g. one trained without some features or with a different number of hidden
+	 * nodes, instead of training it from its random initial weights (see
+	 * {@link Sequential#warmStart})
+	 * 
+	 * @param source the trained model, built by {@link #build} with the same number of
+	 *               hidden layers and the same activation function
+	 * @param inputs the input of source that feeds each input of the model, -1 for a
+	 *               new input (null: the same inputs)
+	 */
+	public void warmStart(Layer source, int[] inputs) throws Exception {
+		if (this.model == null) {
+			throw new Exception("ANN model must be built first");
+		}
+		if (!(this.model instanceof Sequential) || !(source instanceof Sequential)) {
+			throw new Exception("warm starts need sequential models");
+		}
+		((Sequential) this.model).warmStart((Sequential) source, inputs);
+	}
+
+	/**
+	 * calculate classification accuracy of a trained single-precision ANN on a
+	 * given dataset.
+	 * 
+	 * @param data a single-precision dataset
+	 * @return the classification accuracy value (float, in the range of [0,1])
+	 */
+	public double evalFloat(FloatDataset data) throws Exception {
+		if (this.floatModel == null) {
+			throw new Exception("single-precision ANN model must be built first");
+		}
+
+		// streamed in chunks, as eval does
+		double correct = 0;
+		Pair<FloatMatrix> d = null;
+		for (int start = 0; start < data.getSize(); start += this.evalChunkSize) {
+			d = data.getMiniBatch(start, Math.min(data.getSize(), start + this.evalChunkSize), d);
+			FloatMatrix Yhat = this.floatModel.forward(d.first);
+			int[] predictedLabels = Yhat.rowArgmaxs();
+			for (int i = 0; i < predictedLabels.length; i++)
+				if (predictedLabels[i] == (int) d.second.get(i, 0))
+					correct++;
+		}
+
+		return correct / data.getSize();
+	}
+
+	/**
+	 * train a single-precision ANN, see {@link #train} for the parameters
+	 */
+	public FloatLayer trainFloat(FloatLoss loss, Optimizer optimizer, FloatDataset traindata, FloatDataset devdata,
+			int batchsize, int nEpochs, int patience, Random rnd) throws Exception {
+		if (this.floatModel == null) {
+			throw new Exception("single-precision ANN model must be built first");
+		}
+
+		this.resetTraining();
+		double throughput = this.runEpochs(nEpochs, patience, new EpochRunner() {
+			@Override
+			public double[] trainEpoch() throws Exception {
+				traindata.shuffle(rnd);
+				double totalLoss = 0;
+				long nSamples = 0;
+				while (true) {
+					Pair<FloatMatrix> batch = traindata.getNextMiniBatch(batchsize);
+					if (batch == null)
+						break;
+
+					optimizer.resetGradients();
+					FloatMatrix logits = floatModel.forward(batch.first);
+					totalLoss += loss.forward(batch.second, logits);
+					floatModel.backward(loss.backward());
+					optimizer.updateWeights();
+					nSamples += batch.first.rows;
+				}
+				return new double[] { totalLoss, nSamples };
+			}
+
+			@Override
+			public double validate() throws Exception {
+				return evalFloat(devdata);
+			}
+		});
+
+		this.log.println("\ntraining is finished");
+		this.log.printf("throughput: %.0f samples/sec\n", throughput);
+
+		return this.floatModel;
+	}
+
+	/**
+	 * build an (untrained) single-precision ANN for a classification task, see
+	 * {@link #build} for the parameters. The network always outputs logits, to be
+	 * used with a {@link minet.loss.FloatSoftmaxCrossEntropy} loss, and its
+	 * weights are drawn from the same random stream as {@link #build} does.
+	 */
+	public FloatLayer buildFloat(int input_dims, int output_dims, int n_hidden_layers, int n_nodes_per_hidden_layer,
+			String activation_function) {
+		FloatLayer[] modelLayers = new FloatLayer[1 + 2 * n_hidden_layers];
+
+		if (n_hidden_layers == 0) {
+			modelLayers[0] = new FloatLinear(input_dims, output_dims, new Linear.WeightInitXavier(this.initRnd));
+		} else {
+			modelLayers[0] = new FloatLinear(input_dims, n_nodes_per_hidden_layer, new Linear.WeightInitXavier(this.initRnd));
+		}
+
+		for (int i = 1; i < 2 * n_hidden_layers; i += 2) {
+			// Selects the activation Function
+			if (activation_function.equals("Softmax")) {
+				modelLayers[i] = new FloatSoftmax();
+			} else if (activation_function.equals("Tanh")) {
+				modelLayers[i] = new FloatTanh();
+			} else if (activation_function.equals("Sigmoid")) {
+				modelLayers[i] = new FloatSigmoid();
+			} else {
+				modelLayers[i] = new FloatReLU();
+			}
+
+			// Checks if it is the last hidden layer
+			if (2 * n_hidden_layers - 1 == i) {
+				modelLayers[i + 1] = new FloatLinear(n_nodes_per_hidden_layer, output_dims,
+						new Linear.WeightInitXavier(this.initRnd));
+			} else {
+				modelLayers[i + 1] = new FloatLinear(n_nodes_per_hidden_layer, n_nodes_per_hidden_layer,
+						new Linear.WeightInitXavier(this.initRnd));
+			}
+		}
+		FloatLayer model = new FloatSequential(modelLayers);
+		this.log.println("Built model: ");
+		this.log.println(model);
+
+		this.model = null;
+		this.floatModel = model;
+		this.floatData = null;
+		this.resetTraining();
 		return model;
 	}
 
@@ -4,20 +4,43 @@ import java.util.Random;
 import org.jblas.DoubleMatrix;
 import org.jblas.util.Logger;
 
+import minet.CrossValidation;
+import minet.HyperparameterSearch;
+import minet.RandomSampler;
+import minet.ResultStore;
+import minet.SearchSpace;
+import minet.SuccessiveHalving;
+import minet.TPESampler;
 import minet.Dataset;
+import minet.FeatureSelection;
+import minet.FloatDataset;
+import minet.ModelBatch;
+import minet.Standardizer;
 import minet.layer.*;
 import minet.loss.CrossEntropy;
+import minet.loss.FloatSoftmaxCrossEntropy;
 import minet.loss.Loss;
+import minet.loss.SoftmaxCrossEntropy;
+import minet.optim.FloatSGD;
 import minet.optim.Optimizer;
 import minet.optim.SGD;
 import minet.util.Pair;
 
 import java.util.TreeMap;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 import java.util.Arrays;
 // For file import
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.InputStream;
+import java.util.zip.CRC32;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Scanner;
@@ -32,6 +55,64 @@ public class P2Main {
     static Dataset trainset;
     static Dataset devset;
     static Dataset testset;
+    // the file trainset was loaded from, to tell apart the results of different datasets
+    static String trainPath;
+
+    /**
+     * The settings of a network, as read from a json setting file (see settings/example.json)
+     */
+    static class Settings {
+        int hiddenLayers;
+        int hiddenLayerNodes;
+        String activationFunction;
+        double learningRate;
+        int batchSize;
+        int epochs;
+        int patience;
+        // the whole setting file, for the optional settings
+        JSONObject json = new JSONObject();
+
+        Settings(int hiddenLayers, int hiddenLayerNodes, String activationFunction, double learningRate,
+                int batchSize, int epochs, int patience) {
+            this.hiddenLayers = hiddenLayers;
+            this.hiddenLayerNodes = hiddenLayerNodes;
+            this.activationFunction = activationFunction;
+            this.learningRate = learningRate;
+            this.batchSize = batchSize;
+            this.epochs = epochs;
+            this.patience = patience;
+        }
+
+        /**
+         * Read the settings from a json setting file
+         * @param file the file of all the setting for the neural network
+         * @throws Exception for any file reading or parsing errors thrown
+         */
+        static Settings load(String file) throws Exception {
+            JSONParser parser = new JSONParser();
+            JSONObject jsonObject;
+            try (FileReader reader = new FileReader(file)) {
+                jsonObject = (JSONObject) parser.parse(reader);
+            }
+            Settings settings = new Settings(((Long) jsonObject.get("n_hidden_layers")).intValue(),
+                    ((Long) jsonObject.get("n_nodes_per_hidden_layer")).intValue(),
+                    (String) jsonObject.get("activation_function"),
+                    ((Number) jsonObject.get("learning_rate")).doubleValue(),
+                    ((Long) jsonObject.get("batchsize")).intValue(),
+                    ((Long) jsonObject.get("nEpochs")).intValue(),
+                    ((Long) jsonObject.get("patience")).intValue());
+            settings.json = jsonObject;
+            return settings;
+        }
+
+        /**
+         * The hyperparameters as comma-separated values (layers, nodes, activation, learning rate)
+         */
+        @Override
+        public String toString() {
+            return hiddenLayers + "," + hiddenLayerNodes + "," + activationFunction + "," + learningRate;
+        }
+    }
 
     public static void printUsage() {
         System.out.println("Input not recognised. Usage is:");
@@ -56,96 +137,132 @@ public class P2Main {
      * @throws Exception an exceptions thrown
      */
     public static void featureImportance(Random rnd, String file) throws Exception {
-        // So data is not contained with results from test set
-        double[][] standard = preprocess_trainset();
-        preprocess_testset(standard, devset);
-        // extracts new devset for experiment
-        int length = trainset.getSize();
-        int devLength = (int) Math.floor(length * 0.2);
-        double[][] exSetX = Arrays.copyOfRange(trainset.getX(), 1, devLength);
-        double[][] exSetY = Arrays.copyOfRange(trainset.getY(), 1, devLength);
-
-        double[][] trainingSetX = Arrays.copyOfRange(trainset.getX(), devLength, length);
-        double[][] trainingSetY = Arrays.copyOfRange(trainset.getY(), devLength, length);
-        Dataset experimentset = new Dataset(exSetX, exSetY);
-        trainset = new Dataset(trainingSetX, trainingSetY);
+        Pair<Dataset> split = experimentSplit();
+        Dataset experimentset = split.second;
+        trainset = split.first;
         
         String[] FEATURES = {"1", "2", "3", "4", "5", "6", "7"};
 
+        // every combination of features, the ones already evaluated by a previous run are
+        // read from the cache
+        // keyed by the features and their validation accuracy, the value is the test accuracy
         TreeMap<String, Double> data = new TreeMap<String, Double>();
-        testFeaures(trainset, experimentset, devset, FEATURES, rnd, data, file);
-        print_results(data, "Features in Use, accuracy", "data/features/features.csv");
+        try (ResultStore cache = new ResultStore(FEATURE_CACHE)) {
+            FeatureSelection selection = featureSelection(trainset, experimentset, devset, rnd, file, cache);
+            for (Map.Entry<Long, Double> e : selection.exhaustive(1).entrySet())
+                data.put(featureNames(FEATURES, e.getKey()) + "," + e.getValue(),
+                        cache.get(testKey(selection.key(e.getKey()))));
+            System.out.println(selection.getTrained() + " combinations of features trained, "
+                    + (data.size() - selection.getTrained()) + " read from " + FEATURE_CACHE);
+        }
+        print_results(data, "Features in Use, validation accuracy, accuracy", "data/features/features.csv");
         
     }
 
     /**
-     * Evaluates the model for the current features and recursively removes features
+     * A experiment removing the features one at a time, each time the one whose removal
+     * results in the highest evaulation
+     * 
+     * @param rnd for reproducibility
+     * @throws Exception an exceptions thrown
+     */
+    public static void featureElimination(Random rnd, String file) throws Exception {
+        Pair<Dataset> split = experimentSplit();
+        Dataset experimentset = split.second;
+        trainset = split.first;
+
+        String[] FEATURES = {"1", "2", "3", "4", "5", "6", "7"};
+
+        // each step is chosen on the validation accuracy, the test accuracy is only reported
+        TreeMap<String, Double> data = new TreeMap<String, Double>();
+        try (ResultStore cache = new ResultStore(FEATURE_CACHE)) {
+            FeatureSelection selection = featureSelection(trainset, experimentset, devset, rnd, file, cache);
+            for (Map.Entry<Long, Double> e : selection.backward(1).entrySet()) {
+                double testAcc = cache.get(testKey(selection.key(e.getKey())));
+                data.put(featureNames(FEATURES, e.getKey()) + "," + e.getValue(), testAcc);
+                System.out.println(featureNames(FEATURES, e.getKey()) + " validation accuracy: " + e.getValue()
+                        + ", test accuracy: " + testAcc);
+            }
+            System.out.println(selection.getTrained() + " combinations of features trained");
+        }
+        print_results(data, "Features in Use, validation accuracy, accuracy", "data/features/elimination.csv");
+    }
+
+    // the accuracies of the combinations of features evaluated so far
+    static final String FEATURE_CACHE = "data/features/cache.csv";
+
+    /**
+     * Builds the feature selection of the feature experiments: each combination of features is
+     * trained on its own view of the data, with the settings of a setting file, and scored on
+     * the validation data. Its accuracy on the test data is stored in the cache as well, under
+     * {@link #testKey}, to be reported
      * @param trainset the training data
-     * @param devset the development data
+     * @param devset the validation data, for early stopping and for scoring the combinations
      * @param testset the test data for evaulation | doesn't use test.txt is subset of trainset
-     * @param features features being evaulated
      * @param rnd for reproducibility
-     * @param data stores the results of the experiments
-     * @throws Exception
+     * @param file the setting file
+     * @param cache the accuracies already known, the new ones are added to it
+     * @return the feature selection
+     * @throws Exception for any file reading errors thrown
      */
-    public static void testFeaures(Dataset trainset, Dataset devset, Dataset testset, String[] features, Random rnd, TreeMap<String, Double> data, String file) throws Exception {
-        // Run neural network add output to
-        // Ignores values which have already been computed befores
-        if (!data.containsKey(Arrays.toString(features).replaceAll(",", ""))) {
+    public static FeatureSelection featureSelection(Dataset trainset, Dataset devset, Dataset testset, Random rnd,
+            String file, ResultStore cache) throws Exception {
+        Settings settings = Settings.load(file);
+        long seed = rnd.nextLong();
+        // the results depend on the dataset, the settings and the seed
+        String prefix = datasetId(trainPath) + "," + settings + "," + settings.batchSize + "," + settings.epochs + ","
+                + settings.patience + "," + seed + ",";
+        int nFeatures = trainset.getInputDims();
+        return new FeatureSelection(nFeatures, (features, subsetRnd) -> {
             ANN ann = new ANN();
-            buildTrainNetwork(ann, file, rnd, trainset, devset);
-            double eval = ann.eval(testset);
-            data.put(Arrays.toString(features).replaceAll(",", ""), eval);
-            if (features.length > 1) {
-                for (int i = 0; i < features.length; i++) {
-                    Dataset newTrainset = extract(trainset, i);
-                    Dataset newDevset = extract(devset, i);
-                    Dataset newTestset = extract(testset, i);
-                    String[] newFeatures = removeIndex(features, i);
-                    testFeaures(newTrainset, newDevset, newTestset, newFeatures, rnd, data, file);
-                }
-            }
-        }
+            ann.setVerbose(false);
+            ann.setInitRandom(subsetRnd);
+            // views exposing only the selected features, nothing is copied
+            buildTrainNetwork(ann, settings, subsetRnd, trainset.select(features), devset.select(features), null);
+            // stored before the score, so a combination in the cache always has its test accuracy
+            long mask = FeatureSelection.mask(features);
+            cache.put(testKey(FeatureSelection.key(prefix, nFeatures, mask)), ann.eval(testset.select(features)));
+            return ann.eval(devset.select(features));
+        }, cache, prefix, seed, Runtime.getRuntime().availableProcessors());
+    }
 
+    /**
+     * The key of the test accuracy of a combination of features in the cache, from the key
+     * of its score (its validation accuracy, see {@link FeatureSelection#key(long)})
+     */
+    static String testKey(String key) {
+        return "test," + key;
     }
-    
+
     /**
-     * Removes a feature from the dataset
-     * @param dataset the dataset being manipulated
-     * @param index the feature being removed
-     * @return a new dataset without removed feature
+     * The identity of a dataset file, its path and a checksum of its content, e.g. to key
+     * the results computed on it
+     * @param path the file
+     * @return the identity
+     * @throws IOException for any file reading errors thrown
      */
-    public static Dataset extract(Dataset dataset, int index) {
-        double[][] x = dataset.getX();
-        double[][] newX = new double[dataset.getSize()][dataset.getInputDims() - 1];
-        for (int i = 0; i < dataset.getSize(); i++) {
-            int offset = 0;
-            for (int j = 0; j < dataset.getInputDims() - 1; j++) {
-                if (j == index) {
-                    offset++;
-                }
-                newX[i][j] = x[i][j + offset];
-            }
+    public static String datasetId(String path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+            byte[] buf = new byte[1 << 16];
+            for (int n; (n = in.read(buf)) > 0; )
+                crc.update(buf, 0, n);
         }
-        return new Dataset(newX, dataset.getY());
+        return path + "#" + Long.toHexString(crc.getValue());
     }
 
     /**
-     * Removes an index from an array
-     * @param array the array being manipulated
-     * @param index the index being removed
-     * @return a new array without the removed index
+     * The names of the features of a combination, e.g. [1 2 4]
+     * @param names the names of all the features
+     * @param mask the combination of features (bit j set if feature j is used)
+     * @return the names of the used features
      */
-    public static String[] removeIndex(String[] array, int index) {
-        String[] newArray = new String[array.length - 1];
-        int offset = 0;
-        for (int i = 0; i < newArray.length; i++) {
-            if (i == index) {
-                offset++;
-            }
-            newArray[i] = array[i + offset];
-        }
-        return newArray;
+    public static String featureNames(String[] names, long mask) {
+        int[] features = FeatureSelection.features(mask);
+        String[] used = new String[features.length];
+        for (int i = 0; i < features.length; i++)
+            used[i] = names[features[i]];
+        return Arrays.toString(used).replaceAll(",", "");
     }
 
 
@@ -157,19 +274,21 @@ public class P2Main {
      * @throws Exception for any exceptions thrown
      */
     public static void randomHyperParameters(Random rnd) throws Exception{
-        // So data is not contained with results from test set
-        double[][] standard = preprocess_trainset();
-        preprocess_testset(standard, devset);
-        // extracts new devset for experiment
-        int length = trainset.getSize();
-        int devLength = (int) Math.floor(length * 0.2);
-        double[][] exSetX = Arrays.copyOfRange(trainset.getX(), 1, devLength);
-        double[][] exSetY = Arrays.copyOfRange(trainset.getY(), 1, devLength);
-
-        double[][] trainingSetX = Arrays.copyOfRange(trainset.getX(), devLength, length);
-        double[][] trainingSetY = Arrays.copyOfRange(trainset.getY(), devLength, length);
-        Dataset experimentset = new Dataset(exSetX, exSetY);
-        trainset = new Dataset(trainingSetX, trainingSetY);
+        Pair<Dataset> split = experimentSplit();
+        Dataset experimentset = split.second;
+        trainset = split.first;
+        List<Settings> grid = hyperParameterGrid();
+
+        // the trials run concurrently, each result is written out as soon as its trial finishes
+        searchHyperParameters(grid, rnd.nextLong(), trainset, experimentset, devset,
+                "data/experiments/hyperparameters.csv");
+    }
+
+    /**
+     * The search space of the hyperparameter experiments, as a grid
+     * @return the settings of each point of the grid
+     */
+    public static List<Settings> hyperParameterGrid() {
         // Search Space for Hidden Layers
         int MAX_HIDDEN_LAYERS = 3;
         // Search Spaces for Nodes Per Hidden Layer
@@ -180,17 +299,12 @@ public class P2Main {
         double learningRate;
         // The maximum increments of learning rate by 0.01
         double MAX_INCREMENT = 4;
-        // output dimensions
-        int OUTPUT_DIMS = 3;
         // default values
         int batchSize = 128;
         int epochs = 2000;
         int patience = 100;
 
-        //Stores all the data Generated
-        TreeMap<String, Double> data = new TreeMap<String, Double>();
-
-        ANN ann = new ANN();
+        List<Settings> grid = new ArrayList<Settings>();
         for (int i = 1; i < MAX_HIDDEN_LAYERS; i++) {
             for (int j = 22; j < MAX_HIDDEN_LAYER_NODES; j++) {
                 // resonable starting value
@@ -198,103 +312,601 @@ public class P2Main {
                 for (int k = 0; k < activationFunction.length; k++) {
                     for (int l = 0; l < MAX_INCREMENT; l++) {
                         learningRate += 0.05;
-                        Layer network = ann.build(trainset.getInputDims(), OUTPUT_DIMS, i, j, activationFunction[k]);
-                        Loss crossEntropy = new CrossEntropy();
-                        Optimizer sGradientDescent = new SGD(network, learningRate);
-                        ann.train(crossEntropy, sGradientDescent, 
-                                trainset, experimentset, batchSize, epochs, patience, rnd);
-                        double testAcc = ann.eval(devset);
-                        data.put(i+","+j+","+activationFunction[k]+","+learningRate,testAcc);
+                        grid.add(new Settings(i, j, activationFunction[k], learningRate, batchSize, epochs, patience));
                     }
                 }
             }
         }
-        print_results(data, "Number of Hidden Layers, Number of Nodes per Hidden Layer, Activation function, learning rate, accuracy", "data/experiments/hyperparameters.csv");
+        return grid;
     }
-    
+
     /**
-     * Prints the results of the experiments to a file
-     * @param data the results being printed
-     * @throws Exception for any filewrting errors thrown
+     * A network being trained, which can be resumed for more epochs
      */
-    public static void print_results(TreeMap<String, Double> data, String head, String filePath) throws Exception {
-        FileWriter myWriter = new FileWriter(filePath);
-        myWriter.write(head + "\n");
-        for (String key : data.keySet()) {
-            myWriter.write(key + "," + data.get(key) + "\n");
+    static class NetworkTrial implements SuccessiveHalving.Trial {
+        ANN ann;
+        Loss loss;
+        Optimizer optimizer;
+        Settings settings;
+        Dataset train;
+        Dataset dev;
+        Random rnd;
+
+        /**
+         * Builds an isolated network, with its own ordering of the training data
+         */
+        NetworkTrial(Settings settings, Dataset train, Dataset dev, Random rnd) {
+            int OUTPUT_DIMENSIONS = 3;
+            this.ann = new ANN();
+            this.ann.setVerbose(false);
+            this.ann.setInitRandom(rnd);
+            Layer network = this.ann.build(train.getInputDims(), OUTPUT_DIMENSIONS, settings.hiddenLayers,
+                    settings.hiddenLayerNodes, settings.activationFunction);
+            this.loss = this.ann.createLoss();
+            this.optimizer = new SGD(network, settings.learningRate);
+            this.settings = settings;
+            this.train = train.subset(0, train.getSize());
+            this.dev = dev;
+            this.rnd = rnd;
+        }
+
+        @Override
+        public double train(int epochs) throws Exception {
+            this.ann.resume(this.loss, this.optimizer, this.train, this.dev, this.settings.batchSize, epochs,
+                    this.settings.patience, this.rnd);
+            return this.ann.getPeakAccuracy();
+        }
+
+        @Override
+        public int getEpochs() {
+            return this.ann.getEpochsTrained();
         }
-        myWriter.close();
     }
-    
-    public static double[][] preprocess_trainset() {
-        //// YOUR CODE HERE (PART 3 ONLY)
-        double[][] xValues = trainset.getX();
-        double[] mean = new double[xValues[0].length];
-        double[] sd = new double[xValues[0].length];
-        // Computes the mean excluding missing entries
-        for (int i = 0; i < xValues.length; i++) {
-            for (int j = 0; j < xValues[i].length; j++) {
-                    if (xValues[i][j] != 99999) {
-                        mean[j] += xValues[i][j];
-                    }
-            }
+
+    /**
+     * A experiment searching the hyperparameter grid with Hyperband: many settings are
+     * trained for a few epochs and only the best ones are trained further, up to the
+     * number of epochs of the setting file
+     * @param rnd for reproducibility
+     * @param file the setting file, for the batch size, number of epochs and patience
+     * @throws Exception for any exceptions thrown
+     */
+    public static void hyperband(Random rnd, String file) throws Exception {
+        int MIN_EPOCHS = 25;
+        int ETA = 3;
+        Pair<Dataset> split = experimentSplit();
+        Dataset experimentset = split.second;
+        Dataset train = split.first;
+
+        Settings defaults = Settings.load(file);
+        List<Settings> grid = hyperParameterGrid();
+        for (Settings settings : grid) {
+            settings.batchSize = defaults.batchSize;
+            settings.epochs = defaults.epochs;
+            settings.patience = defaults.patience;
         }
 
-        // subdivides the means
-        for (int i = 0; i < mean.length; i++) {
-            mean[i] /= xValues.length;
+        SuccessiveHalving<Settings> scheduler = new SuccessiveHalving<Settings>(
+                (trial, settings, trialRnd) -> new NetworkTrial(settings, train, experimentset, trialRnd), ETA,
+                rnd.nextLong(), Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        List<SuccessiveHalving.Result<Settings>> best;
+        try (FileWriter myWriter = new FileWriter("data/experiments/hyperband.csv")) {
+            myWriter.write("Trial, Epochs, Number of Hidden Layers, Number of Nodes per Hidden Layer, Activation function, learning rate, accuracy\n");
+            scheduler.setListener((trial, settings, epochs, acc) -> {
+                myWriter.write(trial + "," + epochs + "," + settings + "," + acc + "\n");
+                myWriter.flush();
+            });
+            // the settings are drawn without replacement, in a random order of the grid (which
+            // is far larger than the few dozen settings Hyperband draws)
+            List<Settings> order = new ArrayList<Settings>(grid);
+            Collections.shuffle(order, rnd);
+            Iterator<Settings> draws = order.iterator();
+            best = scheduler.hyperband(r -> draws.next(), rnd, MIN_EPOCHS, defaults.epochs);
         }
 
-        // Calculates the standard deviation using non-empty values
-        for (int i = 0; i < xValues.length; i++) {
-            for (int j = 0; j < xValues[i].length; j++) {
-                    if (xValues[i][j] != 99999) {
-                        sd[j] += Math.pow(xValues[i][j] - mean[j],  2);
-                    }
+        SuccessiveHalving.Result<Settings> winner = best.get(0);
+        double testAcc = ((NetworkTrial) winner.getTrial()).ann.eval(devset);
+        System.out.println("best settings: " + winner.config + " (validation accuracy " + winner.score
+                + " after " + winner.epochs + " epochs)");
+        System.out.println("accuracy on held-out set: " + testAcc);
+        System.out.printf("%d trials, %d epochs in total (%.1f s)\n", scheduler.getTrials(), scheduler.getEpochsUsed(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * A experiment training the network of the setting file with each learning rate of the
+     * hyperparameter grid and several initialisations, all at once as one wide network
+     * (see {@link ModelBatch}), and reporting the accuracy of each model
+     * @param rnd for reproducibility
+     * @param file the setting file, "batch_seeds" (default 4) is the number of
+     *             initialisations per learning rate
+     * @throws Exception for any exceptions thrown
+     */
+    public static void modelBatch(Random rnd, String file) throws Exception {
+        Pair<Dataset> split = experimentSplit();
+        Dataset experimentset = split.second;
+        Dataset train = split.first;
+
+        Settings settings = Settings.load(file);
+        int seeds = settings.json.containsKey("batch_seeds") ? ((Long) settings.json.get("batch_seeds")).intValue() : 4;
+        // the learning rates of the grid
+        List<Double> rates = new ArrayList<Double>();
+        for (Settings s : hyperParameterGrid()) {
+            if (!rates.contains(s.learningRate))
+                rates.add(s.learningRate);
+        }
+
+        int M = rates.size() * seeds;
+        int OUTPUT_DIMENSIONS = 3;
+        long seed = rnd.nextLong();
+        Sequential[] models = new Sequential[M];
+        double[] learningRates = new double[M];
+        ANN ann = new ANN();
+        ann.setVerbose(false);
+        for (int m = 0; m < M; m++) {
+            ann.setInitRandom(new Random(HyperparameterSearch.trialSeed(seed, m % seeds)));
+            models[m] = (Sequential) ann.build(train.getInputDims(), OUTPUT_DIMENSIONS, settings.hiddenLayers,
+                    settings.hiddenLayerNodes, settings.activationFunction);
+            learningRates[m] = rates.get(m / seeds);
+        }
+        ann.setVerbose(true);
+        long start = System.nanoTime();
+        double[] devAcc = ann.trainBatch(models, learningRates, train, experimentset, settings.batchSize,
+                settings.epochs, settings.patience, rnd);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double[] testAcc = ann.evalBatch(new ModelBatch(models), devset);
+
+        try (FileWriter myWriter = new FileWriter("data/experiments/modelbatch.csv")) {
+            myWriter.write("Model, Initialisation, learning rate, validation accuracy, accuracy\n");
+            for (int m = 0; m < M; m++)
+                myWriter.write(m + "," + m % seeds + "," + learningRates[m] + "," + devAcc[m] + "," + testAcc[m] + "\n");
+        }
+        System.out.printf("%d models (%s) trained together in %.1f s\n", M, settings, seconds);
+    }
+
+    /**
+     * A check that a {@link ModelBatch} trains each of its models as it would be trained
+     * alone: the learning rates of the hyperparameter grid (two initialisations each) are
+     * trained for a few epochs as one batch, then one by one with {@link SGD} on the same
+     * minibatches, and the weights of each pair must agree up to rounding
+     * @param seed the random seed of the initialisations and of the minibatches
+     * @param file the setting file
+     * @throws Exception for any exceptions thrown
+     */
+    public static void batchParity(long seed, String file) throws Exception {
+        double TOLERANCE = 1e-12;
+        int EPOCHS = 5;
+        int SEEDS = 2;
+        int OUTPUT_DIMENSIONS = 3;
+        Standardizer standard = preprocess_trainset();
+        preprocess_testset(standard, devset);
+        Settings settings = Settings.load(file);
+        List<Double> rates = new ArrayList<Double>();
+        for (Settings s : hyperParameterGrid()) {
+            if (!rates.contains(s.learningRate))
+                rates.add(s.learningRate);
+        }
+
+        int M = rates.size() * SEEDS;
+        Sequential[] batched = new Sequential[M];
+        Sequential[] alone = new Sequential[M];
+        double[] learningRates = new double[M];
+        ANN ann = new ANN();
+        ann.setVerbose(false);
+        for (int m = 0; m < M; m++) {
+            ann.setInitRandom(new Random(HyperparameterSearch.trialSeed(seed, m % SEEDS)));
+            batched[m] = (Sequential) ann.build(trainset.getInputDims(), OUTPUT_DIMENSIONS, settings.hiddenLayers,
+                    settings.hiddenLayerNodes, settings.activationFunction);
+            ann.setInitRandom(new Random(HyperparameterSearch.trialSeed(seed, m % SEEDS)));
+            alone[m] = (Sequential) ann.build(trainset.getInputDims(), OUTPUT_DIMENSIONS, settings.hiddenLayers,
+                    settings.hiddenLayerNodes, settings.activationFunction);
+            learningRates[m] = rates.get(m / SEEDS);
+        }
+
+        // the minibatches of all the epochs, so that every model sees the same ones
+        List<Pair<DoubleMatrix>> minibatches = new ArrayList<Pair<DoubleMatrix>>();
+        Random rnd = new Random(seed);
+        Pair<DoubleMatrix> d;
+        for (int e = 0; e < EPOCHS; e++) {
+            trainset.shuffle(rnd);
+            while ((d = trainset.getNextMiniBatch(settings.batchSize)) != null)
+                minibatches.add(new Pair<DoubleMatrix>(d.first.dup(), d.second.dup()));
+        }
+
+        ModelBatch batch = new ModelBatch(batched);
+        double[] losses = new double[M];
+        for (Pair<DoubleMatrix> minibatch : minibatches)
+            batch.step(minibatch.first, minibatch.second, learningRates, losses);
+        batch.unfuse();
+
+        for (int m = 0; m < M; m++) {
+            SGD optimizer = new SGD(alone[m], learningRates[m]);
+            SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+            for (Pair<DoubleMatrix> minibatch : minibatches) {
+                optimizer.resetGradients();
+                loss.forward(minibatch.second, alone[m].forward(minibatch.first));
+                alone[m].backward(loss.backward());
+                optimizer.updateWeights();
             }
         }
-        // adjusting standard deviation
-        for (int i = 0; i < sd.length; i++) {
-            sd[i] /= xValues.length - 1;
+
+        double[] batchedAcc = ann.evalBatch(new ModelBatch(batched), devset);
+        double[] aloneAcc = ann.evalBatch(new ModelBatch(alone), devset);
+        double diff = 0;
+        for (int m = 0; m < M; m++) {
+            List<DoubleMatrix> w = batched[m].getAllWeights(new ArrayList<DoubleMatrix>());
+            List<DoubleMatrix> v = alone[m].getAllWeights(new ArrayList<DoubleMatrix>());
+            for (int i = 0; i < w.size(); i++)
+                diff = Math.max(diff, w.get(i).sub(v.get(i)).normmax());
+            System.out.println("model " + m + " (learning rate " + learningRates[m] + "): accuracy " + batchedAcc[m]
+                    + " (batched), " + aloneAcc[m] + " (alone)");
+        }
+        System.out.println((diff <= TOLERANCE ? "PASS" : "FAIL") + ": largest weight difference " + diff
+                + " (tolerance " + TOLERANCE + ")");
+    }
+
+    /**
+     * A experiment comparing warm and cold starts: a network is trained with the setting
+     * file, then each of its neighbours (the same network without one of the features, or
+     * with one hidden node more or less) is trained from random weights (cold) and from the
+     * trained network's weights (warm, see {@link ANN#warmStart}), and the number of epochs
+     * and the time each takes to reach a target accuracy are reported
+     * @param rnd for reproducibility
+     * @param file the setting file, "warm_target" (default 0.97) is the target as a
+     *             fraction of the validation accuracy of the first network
+     * @throws Exception for any exceptions thrown
+     */
+    public static void warmStart(Random rnd, String file) throws Exception {
+        Pair<Dataset> split = experimentSplit();
+        Dataset experimentset = split.second;
+        Dataset train = split.first;
+
+        Settings settings = Settings.load(file);
+        double fraction = settings.json.containsKey("warm_target")
+                ? ((Number) settings.json.get("warm_target")).doubleValue() : 0.97;
+        String[] FEATURES = {"1", "2", "3", "4", "5", "6", "7"};
+        int OUTPUT_DIMENSIONS = 3;
+        long seed = rnd.nextLong();
+
+        // the network the others start from, with its weights at its best validation accuracy
+        ANN parent = new ANN();
+        parent.setVerbose(false);
+        parent.setInitRandom(new Random(seed));
+        parent.build(train.getInputDims(), OUTPUT_DIMENSIONS, settings.hiddenLayers, settings.hiddenLayerNodes,
+                settings.activationFunction);
+        ANN snapshot = new ANN();
+        snapshot.setVerbose(false);
+        Sequential best = (Sequential) snapshot.build(train.getInputDims(), OUTPUT_DIMENSIONS, settings.hiddenLayers,
+                settings.hiddenLayerNodes, settings.activationFunction);
+        timeToTarget(parent, settings, train, experimentset, 1, new Random(seed), best);
+        double target = fraction * parent.getPeakAccuracy();
+        System.out.printf("first network: validation accuracy %.4f after %d epochs, target %.4f\n",
+                parent.getPeakAccuracy(), parent.getEpochsTrained(), target);
+
+        // the neighbours: one hidden node more or less, or one feature less
+        List<String> names = new ArrayList<String>();
+        List<int[]> inputs = new ArrayList<int[]>();
+        List<Integer> nodes = new ArrayList<Integer>();
+        int[] allFeatures = new int[FEATURES.length];
+        for (int k = 0; k < FEATURES.length; k++)
+            allFeatures[k] = k;
+        for (int delta : new int[] {1, -1}) {
+            names.add((settings.hiddenLayerNodes + delta) + " nodes");
+            inputs.add(allFeatures);
+            nodes.add(settings.hiddenLayerNodes + delta);
+        }
+        for (int k = 0; k < FEATURES.length; k++) {
+            long mask = ((1L << FEATURES.length) - 1) & ~(1L << k);
+            names.add("without feature " + FEATURES[k]);
+            inputs.add(FeatureSelection.features(mask));
+            nodes.add(settings.hiddenLayerNodes);
         }
 
-        // Standardising data
-        // mean of empty values is zero since centred around zero
-        for (int i = 0; i < xValues.length; i++) {
-            for (int j = 0; j < xValues[i].length; j++) {
-                if (xValues[i][j] == 99999) {
-                    xValues[i][j] = 0;
+        int[] reached = new int[2]; // cold and warm
+        double[] total = new double[4]; // epochs and seconds to target, cold and warm
+        int both = 0;
+        try (FileWriter myWriter = new FileWriter("data/experiments/warmstart.csv")) {
+            myWriter.write("Neighbour, start, epochs to target, seconds to target, epochs, accuracy\n");
+            for (int i = 0; i < names.size(); i++) {
+                int[] features = inputs.get(i);
+                Dataset neighbourTrain = train.select(features);
+                Dataset neighbourDev = experimentset.select(features);
+                long neighbourSeed = HyperparameterSearch.trialSeed(seed, i);
+                double[][] run = new double[2][];
+                for (int warm = 0; warm < 2; warm++) {
+                    // the same initial weights and the same ordering of the data for both starts
+                    ANN ann = new ANN();
+                    ann.setVerbose(false);
+                    ann.setInitRandom(new Random(neighbourSeed));
+                    ann.build(features.length, OUTPUT_DIMENSIONS, settings.hiddenLayers, nodes.get(i),
+                            settings.activationFunction);
+                    if (warm == 1)
+                        ann.warmStart(best, features);
+                    run[warm] = timeToTarget(ann, settings, neighbourTrain, neighbourDev, target,
+                            new Random(neighbourSeed), null);
+                    String start = warm == 1 ? "warm" : "cold";
+                    myWriter.write(names.get(i) + "," + start + "," + (int) run[warm][0] + "," + run[warm][1] + ","
+                            + ann.getEpochsTrained() + "," + ann.getPeakAccuracy() + "\n");
+                    myWriter.flush();
+                    System.out.printf("%s, %s start: %s, validation accuracy %.4f after %d epochs\n", names.get(i),
+                            start, run[warm][0] < 0 ? "target not reached"
+                                    : String.format("target reached after %d epochs (%.2f s)", (int) run[warm][0],
+                                            run[warm][1]),
+                            ann.getPeakAccuracy(), ann.getEpochsTrained());
+                    if (run[warm][0] >= 0)
+                        reached[warm]++;
                 }
-                else {
-                    xValues[i][j] = (xValues[i][j] - mean[j]) / sd[j];
+                // compared on the neighbours both starts bring to the target
+                if (run[0][0] >= 0 && run[1][0] >= 0) {
+                    for (int k = 0; k < 4; k++)
+                        total[k] += run[k / 2][k % 2];
+                    both++;
                 }
             }
         }
-        trainset = new Dataset(xValues, trainset.getY());
-        double[][] standard = {mean, sd};
-        return standard;
+        System.out.printf("target reached by %d of %d neighbours from a cold start, %d from a warm start\n",
+                reached[0], names.size(), reached[1]);
+        System.out.printf("when both reach it: %.1f epochs (%.2f s) cold, %.1f epochs (%.2f s) warm on average\n",
+                total[0] / Math.max(1, both), total[1] / Math.max(1, both), total[2] / Math.max(1, both),
+                total[3] / Math.max(1, both));
     }
 
     /**
-     * apply data preprocessing (imputation of missing values and standardisation)
-     * on testset (Part 3 only)
+     * Trains a built network one epoch at a time, until early stopping, and records when its
+     * validation accuracy first reaches a target
+     * @param ann the built network
+     * @param settings the settings of the training
+     * @param target the target validation accuracy
+     * @param best a network of the same shape, which gets the weights of the best epoch (may be null)
+     * @return the number of epochs and the seconds it took to reach the target (-1 if it was not)
+     * @throws Exception for any exceptions thrown
      */
-    public static void preprocess_testset(double[][] standardisations, Dataset dataset) {
-        //// YOUR CODE HERE (PART 3 ONLY)
-        double[][] xValues = dataset.getX();
-        for (int i = 0; i < xValues.length; i++) {
-            for (int j = 0; j < xValues[i].length; j++) {
-                if (xValues[i][j] == 99999) {
-                    xValues[i][j] = 0;
-                }
-                else {
-                    xValues[i][j] = (xValues[i][j] - standardisations[0][j]) / standardisations[1][j];
+    static double[] timeToTarget(ANN ann, Settings settings, Dataset train, Dataset dev, double target, Random rnd,
+            Sequential best) throws Exception {
+        Loss loss = ann.createLoss();
+        Optimizer optimizer = new SGD(ann.getModel(), settings.learningRate);
+        double[] result = {-1, -1};
+        long start = System.nanoTime();
+        // the network may already reach it before training, when warm started
+        if (ann.eval(dev) >= target)
+            result = new double[] {0, 0};
+        while (!ann.isStopped() && ann.getEpochsTrained() < settings.epochs) {
+            double peak = ann.getPeakAccuracy();
+            // one epoch at a time, as one call to train would
+            ann.resume(loss, optimizer, train, dev, settings.batchSize, 1, settings.patience, rnd);
+            if (best != null && ann.getPeakAccuracy() > peak)
+                best.warmStart((Sequential) ann.getModel(), null);
+            if (result[0] < 0 && ann.getPeakAccuracy() >= target)
+                result = new double[] {ann.getEpochsTrained(), (System.nanoTime() - start) / 1e9};
+        }
+        return result;
+    }
+
+    /**
+     * Trains a network for each of the given settings, concurrently on all processors, and
+     * writes the accuracy of each to a csv file as soon as it is known.
+     * <p>
+     * The csv file is the journal of the search: each accuracy is on disk once written,
+     * and the settings already in the file are not trained again, so an interrupted
+     * search is continued by running it again. The networks being trained are also
+     * checkpointed every few epochs (in the directory [filePath].checkpoints), so an
+     * interrupted training continues from its last checkpoint. Delete the csv file (and
+     * the checkpoints) to run the search afresh.
+     * <p>
+     * The dataset (see {@link #datasetId}) and the seed are recorded in the first line of the
+     * csv file and in the checkpoints, and a file of another dataset or seed is refused
+     * rather than continued. (The other experiments rewrite their csv file at each run: it
+     * logs the run, whose trials cannot be resumed one by one.)
+     * @param trials the settings to try
+     * @param seed the seed the trials' random generators are derived from
+     * @param train the training data
+     * @param dev the development data, used for early stopping
+     * @param test the data the trained networks are evaluated on
+     * @param filePath the csv file the results are written to
+     * @return the accuracy of each trial
+     * @throws Exception for any exceptions thrown
+     */
+    public static double[] searchHyperParameters(List<Settings> trials, long seed, Dataset train, Dataset dev,
+            Dataset test, String filePath) throws Exception {
+        int CHECKPOINT_EPOCHS = 10;
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        File checkpoints = new File(filePath + ".checkpoints");
+        checkpoints.mkdirs();
+        String identity = "dataset " + datasetId(trainPath) + ", seed " + seed;
+        try (ResultStore journal = new ResultStore(filePath,
+                "Number of Hidden Layers, Number of Nodes per Hidden Layer, Activation function, learning rate, accuracy",
+                identity)) {
+            if (journal.size() > 0)
+                System.out.println(journal.size() + " trials already in " + filePath);
+            double[] accs = HyperparameterSearch.run(trials, (trial, settings, trialRnd) -> {
+                // an isolated network, with its own ordering of the training data
+                ANN ann = new ANN();
+                ann.setVerbose(false);
+                ann.setInitRandom(trialRnd);
+                ann.setCheckpoint(new File(checkpoints, "trial" + trial + ".ckpt").getPath(), CHECKPOINT_EPOCHS,
+                        identity + ", " + settings);
+                buildTrainNetwork(ann, settings, trialRnd, train.subset(0, train.getSize()), dev, null);
+                return ann.eval(test);
+            }, (trial, settings, acc) -> {
+                journal.put(settings.toString(), acc);
+                // the result is safe, the checkpoint is no longer needed
+                new File(checkpoints, "trial" + trial + ".ckpt").delete();
+                System.out.printf("trial %d/%d: %s,%.4f\n", trial + 1, trials.size(), settings, acc);
+            }, seed, nThreads, trial -> journal.contains(trials.get(trial).toString()));
+            for (int i = 0; i < accs.length; i++) {
+                if (Double.isNaN(accs[i]))
+                    accs[i] = journal.get(trials.get(i).toString());
+            }
+            return accs;
+        } finally {
+            checkpoints.delete(); // if empty
+        }
+    }
+    
+    /**
+     * The search space of the budgeted hyperparameter searches, over the settings of the
+     * json setting files
+     */
+    public static SearchSpace hyperParameterSpace() {
+        return new SearchSpace()
+                .addInt("n_hidden_layers", 1, 3, false)
+                .addInt("n_nodes_per_hidden_layer", 8, 64, true)
+                .addChoice("activation_function", "ReLU", "Sigmoid", "Tanh", "Softmax")
+                .addReal("learning_rate", 0.01, 3, true)
+                .addInt("batchsize", 16, 512, true);
+    }
+
+    /**
+     * A experiment searching the hyperparameters with a budget of trainings (or of time),
+     * either at random or with a Tree-structured Parzen Estimator. The setting file gives
+     * the number of epochs and the patience, and optionally the budget: "search_trials"
+     * (default 60) and "search_seconds" (default none)
+     * @param rnd for reproducibility
+     * @param file the setting file
+     * @param method "random" or "tpe"
+     * @throws Exception for any exceptions thrown
+     */
+    public static void budgetedSearch(Random rnd, String file, String method) throws Exception {
+        Pair<Dataset> split = experimentSplit();
+        Dataset experimentset = split.second;
+        Dataset train = split.first;
+
+        Settings defaults = Settings.load(file);
+        int maxTrials = defaults.json.containsKey("search_trials")
+                ? ((Long) defaults.json.get("search_trials")).intValue() : 60;
+        long maxMillis = defaults.json.containsKey("search_seconds")
+                ? (long) (((Number) defaults.json.get("search_seconds")).doubleValue() * 1000) : 0;
+        SearchSpace space = hyperParameterSpace();
+        HyperparameterSearch.Sampler<double[]> sampler = method.equals("tpe") ? new TPESampler(space)
+                : new RandomSampler(space);
+
+        long start = System.nanoTime();
+        double[] best = {-1, -1}; // accuracy, trial
+        ANN[] winner = {null};
+        // the trained networks, until their trial is scored
+        Map<Integer, ANN> trained = new ConcurrentHashMap<Integer, ANN>();
+        double[] accs;
+        try (FileWriter myWriter = new FileWriter("data/experiments/" + method + ".csv")) {
+            myWriter.write("Trial, Number of Hidden Layers, Number of Nodes per Hidden Layer, Activation function, learning rate, batch size, accuracy\n");
+            myWriter.flush();
+            accs = HyperparameterSearch.run(sampler, (trial, point, trialRnd) -> {
+                Settings settings = new Settings(space.getInt(point, "n_hidden_layers"),
+                        space.getInt(point, "n_nodes_per_hidden_layer"), space.getChoice(point, "activation_function"),
+                        space.getReal(point, "learning_rate"), space.getInt(point, "batchsize"), defaults.epochs,
+                        defaults.patience);
+                // an isolated network, with its own ordering of the training data
+                ANN ann = new ANN();
+                ann.setVerbose(false);
+                ann.setInitRandom(trialRnd);
+                buildTrainNetwork(ann, settings, trialRnd, train.subset(0, train.getSize()), experimentset, null);
+                // scored on the validation set, as in hyperband: the held-out set is only used
+                // once, for the winner
+                trained.put(trial, ann);
+                return ann.eval(experimentset);
+            }, (trial, point, acc) -> {
+                myWriter.write(trial + "," + space.toString(point) + "," + acc + "\n");
+                myWriter.flush();
+                ANN ann = trained.remove(trial);
+                if (acc > best[0]) {
+                    best[0] = acc;
+                    best[1] = trial;
+                    winner[0] = ann;
                 }
+                System.out.printf("trial %d: %s,%.4f (best %.4f)\n", trial, space.toString(point), acc, best[0]);
+            }, rnd.nextLong(), Runtime.getRuntime().availableProcessors(), maxTrials, maxMillis);
+        }
+        System.out.printf("%s search: best validation accuracy %.4f at trial %d of %d (%.1f s)\n", method, best[0],
+                (int) best[1], accs.length, (System.nanoTime() - start) / 1e9);
+        System.out.println("accuracy on held-out set: " + winner[0].eval(devset));
+    }
+
+    /**
+     * A check of the samplers of {@link #budgetedSearch}: both search the hyperparameter
+     * space for the optimum (0) of a synthetic objective, shaped like an accuracy surface
+     * with a best learning rate, size, activation function, ..., and TPE must find better
+     * points than random search with the same number of trials
+     * @param seed the first of the seeds the searches are repeated with
+     * @throws Exception for any exceptions thrown
+     */
+    public static void samplerComparison(long seed) throws Exception {
+        int TRIALS = 40;
+        int SEEDS = 20;
+        SearchSpace space = hyperParameterSpace();
+        HyperparameterSearch.Trainer<double[]> objective = (trial, point, trialRnd) -> {
+            double lr = Math.log(space.getReal(point, "learning_rate") / 0.7);
+            double nodes = Math.log(space.getInt(point, "n_nodes_per_hidden_layer") / 30.0);
+            double batch = Math.log(space.getInt(point, "batchsize") / 128.0);
+            return -lr * lr - nodes * nodes - 0.5 * batch * batch
+                    - (space.getChoice(point, "activation_function").equals("Tanh") ? 0 : 0.5)
+                    - 0.3 * Math.abs(space.getInt(point, "n_hidden_layers") - 2);
+        };
+        double[] meanBest = new double[2];
+        String[] methods = {"random", "tpe"};
+        for (int s = 0; s < SEEDS; s++) {
+            for (int m = 0; m < methods.length; m++) {
+                HyperparameterSearch.Sampler<double[]> sampler = m == 1 ? new TPESampler(space)
+                        : new RandomSampler(space);
+                // one thread, so that each search is reproducible
+                double[] scores = HyperparameterSearch.run(sampler, objective, null, seed + s, 1, TRIALS, 0);
+                meanBest[m] += Arrays.stream(scores).max().getAsDouble() / SEEDS;
             }
         }
+        for (int m = 0; m < methods.length; m++)
+            System.out.printf("%s search: mean best of %d trials over %d seeds %.3f (optimum 0)\n", methods[m], TRIALS,
+                    SEEDS, meanBest[m]);
+        System.out.println((meanBest[1] > meanBest[0] ? "PASS" : "FAIL") + ": tpe - random = "
+                + (meanBest[1] - meanBest[0]));
+    }
 
-        testset = new Dataset(xValues, dataset.getY());
-        
+    /**
+     * Prints the results of the experiments to a file
+     * @param data the results being printed
+     * @throws Exception for any filewrting errors thrown
+     */
+    public static void print_results(TreeMap<String, Double> data, String head, String filePath) throws Exception {
+        FileWriter myWriter = new FileWriter(filePath);
+        myWriter.write(head + "\n");
+        for (String key : data.keySet()) {
+            myWriter.write(key + "," + data.get(key) + "\n");
+        }
+        myWriter.close();
+    }
+    
+    /**
+     * apply data preprocessing (imputation of missing values and standardisation)
+     * on trainset (Part 3 only)
+     * 
+     * @return the standardizer fitted on trainset, to be applied on the other sets
+     */
+    public static Standardizer preprocess_trainset() {
+        //// YOUR CODE HERE (PART 3 ONLY)
+        // mean and standard deviation of each feature over its non-missing entries,
+        // missing entries are replaced by the mean (zero once centred)
+        Standardizer standardizer = Standardizer.fit(trainset);
+        trainset.setTransform(standardizer);
+        return standardizer;
+    }
+
+    /**
+     * apply data preprocessing (imputation of missing values and standardisation)
+     * on testset (Part 3 only)
+     */
+    public static void preprocess_testset(Standardizer standardizer, Dataset dataset) {
+        //// YOUR CODE HERE (PART 3 ONLY)
+        dataset.setTransform(standardizer);
+    }
+
+    /**
+     * Standardises trainset and devset with the statistics of trainset, then holds out a
+     * fifth of trainset as the experiment's own validation set, so that the experiments
+     * choose their settings without looking at devset
+     * @return the rest of trainset and the experiment's validation set
+     */
+    public static Pair<Dataset> experimentSplit() {
+        Standardizer standard = preprocess_trainset();
+        preprocess_testset(standard, devset);
+        return trainset.holdout(0.2);
     }
 
     /**
@@ -305,36 +917,142 @@ public class P2Main {
      * @throws Exception for any exceptions thrown
      */
     public static void buildTrainNetwork(ANN ann, String file, Random rnd, Dataset train, Dataset dev) throws Exception {
-        JSONParser parser = new JSONParser();
-        int hiddenLayers;
-        int hiddenLayerNodes;
-        String activationFunction;
-        double learningRate;
-        int batchSize;
-        int epochs;
-        int patience;
-        //// YOUR CODE HERE
-        Object obj = parser.parse(new FileReader(file));
-        JSONObject jsonObject = (JSONObject) obj;
-        hiddenLayers = ((Long) jsonObject.get("n_hidden_layers")).intValue();
-        hiddenLayerNodes = ((Long) jsonObject.get("n_nodes_per_hidden_layer")).intValue();
-        activationFunction = (String) jsonObject.get("activation_function");
-        learningRate = ((Double) jsonObject.get("learning_rate")).doubleValue();
-        batchSize = ((Long) jsonObject.get("batchsize")).intValue();
-        epochs = ((Long) jsonObject.get("nEpochs")).intValue();
-        patience = ((Long) jsonObject.get("patience")).intValue();
+        buildTrainNetwork(ann, file, rnd, train, dev, null);
+    }
+
+    /**
+     * Builds and trains an artificial neural network
+     * @param ann the neural network being built and trained
+     * @param file the file of all the setting for the neural network
+     * @param rnd random number for reproducibility
+     * @param precision "float32" or "float64", overrides the optional "precision" setting if not null
+     * @throws Exception for any exceptions thrown
+     */
+    public static void buildTrainNetwork(ANN ann, String file, Random rnd, Dataset train, Dataset dev, String precision) throws Exception {
+        buildTrainNetwork(ann, Settings.load(file), rnd, train, dev, precision);
+    }
+
+    /**
+     * Builds and trains an artificial neural network
+     * @param ann the neural network being built and trained
+     * @param settings the setting for the neural network
+     * @param rnd random number for reproducibility
+     * @param precision "float32" or "float64", overrides the optional "precision" setting if not null
+     * @throws Exception for any exceptions thrown
+     */
+    public static void buildTrainNetwork(ANN ann, Settings settings, Random rnd, Dataset train, Dataset dev, String precision) throws Exception {
+        JSONObject jsonObject = settings.json;
+        int hiddenLayers = settings.hiddenLayers;
+        int hiddenLayerNodes = settings.hiddenLayerNodes;
+        String activationFunction = settings.activationFunction;
+        double learningRate = settings.learningRate;
+        int batchSize = settings.batchSize;
+        int epochs = settings.epochs;
+        int patience = settings.patience;
+        if (jsonObject.containsKey("n_threads")) {
+            ann.setThreads(((Long) jsonObject.get("n_threads")).intValue());
+        }
+        if (jsonObject.containsKey("prefetch")) {
+            ann.setPrefetch(((Long) jsonObject.get("prefetch")).intValue());
+        }
+        if (jsonObject.containsKey("eval_chunk_size") || jsonObject.containsKey("eval_threads")) {
+            int chunkSize = jsonObject.containsKey("eval_chunk_size")
+                    ? ((Long) jsonObject.get("eval_chunk_size")).intValue() : 1024;
+            int evalThreads = jsonObject.containsKey("eval_threads")
+                    ? ((Long) jsonObject.get("eval_threads")).intValue() : 1;
+            ann.setEvalChunks(chunkSize, evalThreads);
+        }
+        if (precision == null) {
+            precision = jsonObject.containsKey("precision") ? (String) jsonObject.get("precision") : "float64";
+        }
 
         // build and train an ANN with the given data and parameters
 
         int OUTPUT_DIMENSIONS = 3;
+        if (precision.equals("float32")) {
+            // single-precision network, trained on single-precision copies of the data
+            FloatDataset floatTrain = new FloatDataset(train);
+            FloatDataset floatDev = new FloatDataset(dev);
+            FloatLayer network = ann.buildFloat(train.getInputDims(), OUTPUT_DIMENSIONS, hiddenLayers,
+                    hiddenLayerNodes, activationFunction);
+            Optimizer sGradientDescent = new FloatSGD(network, learningRate);
+            ann.trainFloat(new FloatSoftmaxCrossEntropy(), sGradientDescent, floatTrain, floatDev, batchSize, epochs,
+                    patience, rnd);
+            return;
+        } else if (!precision.equals("float64")) {
+            throw new Exception("precision must be either float32 or float64, got " + precision);
+        }
         // building the network
         Layer network = ann.build(train.getInputDims(), OUTPUT_DIMENSIONS, hiddenLayers, hiddenLayerNodes,
                 activationFunction);
-        Loss crossEntropy = new CrossEntropy();
+        Loss crossEntropy = ann.createLoss();
         Optimizer sGradientDescent = new SGD(network, learningRate);
-        // training the network
-        ann.train(crossEntropy, sGradientDescent, train, dev, batchSize, epochs, patience, rnd);
+        // training the network, asynchronously (Hogwild) if asked for
+        if (jsonObject.containsKey("async_workers")) {
+            int workers = ((Long) jsonObject.get("async_workers")).intValue();
+            ann.trainAsync(crossEntropy, learningRate, train, dev, batchSize, epochs, patience, rnd, workers);
+        } else {
+            ann.train(crossEntropy, sGradientDescent, train, dev, batchSize, epochs, patience, rnd);
+        }
+    }
+    /**
+     * Checks that training in single precision reaches (within a tolerance) the same test accuracy
+     * as training in double precision, with the same settings and the same random seed
+     * @param seed the random seed used for both runs
+     * @param file the file of all the setting for the neural network
+     * @throws Exception for any exceptions thrown
+     */
+    public static void precisionParity(int seed, String file) throws Exception {
+        double TOLERANCE = 0.02;
+        double[] testAcc = new double[2];
+        String[] precisions = {"float64", "float32"};
+        for (int i = 0; i < precisions.length; i++) {
+            org.jblas.util.Random.seed(seed);
+            ANN ann = new ANN();
+            buildTrainNetwork(ann, file, new Random(seed), trainset, devset, precisions[i]);
+            testAcc[i] = ann.eval(testset);
+        }
+        double diff = Math.abs(testAcc[0] - testAcc[1]);
+        System.out.println("accuracy on test set (float64): " + testAcc[0]);
+        System.out.println("accuracy on test set (float32): " + testAcc[1]);
+        System.out.println((diff <= TOLERANCE ? "PASS" : "FAIL") + ": difference " + diff
+                + " (tolerance " + TOLERANCE + ")");
     }
+
+    /**
+     * Estimates the accuracy of the network described by a settings file with stratified
+     * k-fold cross-validation, training the folds concurrently
+     * @param data the dataset to cross-validate on
+     * @param seed the random seed the folds' seeds are derived from
+     * @param file the file of all the setting for the neural network
+     * @param preprocess whether to standardise each fold, with the statistics of its training split
+     * @throws Exception for any exceptions thrown
+     */
+    public static void crossValidate(Dataset data, long seed, String file, boolean preprocess) throws Exception {
+        int K = 5;
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        double[] accs = CrossValidation.run(data.stratifiedKFold(K), (fold, train, dev, rnd) -> {
+            ANN ann = new ANN();
+            ann.setVerbose(false);
+            ann.setInitRandom(rnd);
+            if (preprocess) {
+                // fitted on the training split only, so that the dev fold stays unseen
+                Standardizer standard = Standardizer.fit(train);
+                train.setTransform(standard);
+                dev.setTransform(standard);
+            }
+            // each fold keeps a fifth of its training set for early stopping
+            Pair<Dataset> split = train.holdout(0.2);
+            buildTrainNetwork(ann, file, rnd, split.first, split.second, null);
+            return ann.eval(dev);
+        }, seed, nThreads);
+        for (int f = 0; f < K; f++)
+            System.out.println("fold " + f + " accuracy: " + accs[f]);
+        System.out.printf("%d-fold accuracy: %.3f +- %.3f (%d threads, %.1f s)\n", K, CrossValidation.mean(accs),
+                CrossValidation.std(accs), nThreads, (System.nanoTime() - start) / 1e9);
+    }
+
     public static void main(String[] args) {
         if (args.length < 4) {
             printUsage();
@@ -352,12 +1070,13 @@ public class P2Main {
             System.out.println("Loading data...");
             //// YOUR CODE HERE
             System.out.println(Arrays.toString(args));
-            trainset = Dataset.loadTxt(args[0]);
-            testset = Dataset.loadTxt(args[1]);
+            trainset = Dataset.load(args[0]);
+            testset = Dataset.load(args[1]);
+            trainPath = args[0];
 
             // check whether data-preprocessing is applied (Part 3)
             boolean preprocess = false;
-            if (args.length == 5) {
+            if (args.length >= 5) {
                 if (!args[4].equals("0") && !args[4].equals("1")) {
                     System.out.println("HERE" + args[4]);
                     printUsage();
@@ -371,7 +1090,7 @@ public class P2Main {
 
             // apply data-processing on trainset
             if (preprocess) {
-                double[][] standardisation = preprocess_trainset();
+                Standardizer standardisation = preprocess_trainset();
                 preprocess_testset(standardisation, testset);
             }
 
@@ -381,15 +1100,10 @@ public class P2Main {
             trainset.shuffle(rnd); // shuffle the train data before we split. NOTE: this line was updated on Nov
                                    // 11th.
             //// YOUR CODE HERE
-            int length = trainset.getSize();
-            int devLength = (int) Math.floor(length * 0.2);
-            double[][] devSetX = Arrays.copyOfRange(trainset.getX(), 1, devLength);
-            double[][] devSetY = Arrays.copyOfRange(trainset.getY(), 1, devLength);
-
-            double[][] trainingSetX = Arrays.copyOfRange(trainset.getX(), devLength, length);
-            double[][] trainingSetY = Arrays.copyOfRange(trainset.getY(), devLength, length);
-            devset = new Dataset(devSetX, devSetY);
-            trainset = new Dataset(trainingSetX, trainingSetY);
+            Dataset fullset = trainset;
+            Pair<Dataset> split = trainset.holdout(0.2);
+            devset = split.second;
+            trainset = split.first;
 
             // Determins which experiment is being performed
             if (args.length == 6) {
@@ -399,6 +1113,36 @@ public class P2Main {
                 else if (args[5].equals("2")) {
                     featureImportance(rnd, args[3]);
                 }
+                else if (args[5].equals("3")) {
+                    precisionParity(Integer.parseInt(args[2]), args[3]);
+                }
+                else if (args[5].equals("4")) {
+                    crossValidate(fullset, Integer.parseInt(args[2]), args[3], preprocess);
+                }
+                else if (args[5].equals("5")) {
+                    hyperband(rnd, args[3]);
+                }
+                else if (args[5].equals("6")) {
+                    budgetedSearch(rnd, args[3], "random");
+                }
+                else if (args[5].equals("7")) {
+                    budgetedSearch(rnd, args[3], "tpe");
+                }
+                else if (args[5].equals("8")) {
+                    featureElimination(rnd, args[3]);
+                }
+                else if (args[5].equals("9")) {
+                    modelBatch(rnd, args[3]);
+                }
+                else if (args[5].equals("10")) {
+                    warmStart(rnd, args[3]);
+                }
+                else if (args[5].equals("11")) {
+                    samplerComparison(Integer.parseInt(args[2]));
+                }
+                else if (args[5].equals("12")) {
+                    batchParity(Integer.parseInt(args[2]), args[3]);
+                }
                 return;
             }
             // read all parameters from the provided json setting file (see
@@ -3,5 +3,5 @@ rm *.class minet/*.class minet/*/*.class
 
 # compile all .java files
 echo "Compiling..."
-javac -cp lib/*:minet:. minet/*.java minet/*/*.java *.java
+javac --add-modules jdk.incubator.vector -cp lib/*:minet:. minet/*.java minet/*/*.java *.java
 
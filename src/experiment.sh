@@ -1,2 +1,23 @@
 echo "------------- Running Part 2 Experiments ------------"
-java -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 1
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 1
+echo "------------- Running float32/float64 parity check (Part 1) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part1/train.txt data/Part1/test.txt 123 settings/Part2.json 0 3
+echo "------------- Running float32/float64 parity check (Part 3) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 3
+echo "------------- Running 5-fold cross-validation (Part 1) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part1/train.txt data/Part1/test.txt 123 settings/Part2.json 0 4
+echo "------------- Running 5-fold cross-validation (Part 3) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 4
+echo "------------- Running Hyperband hyperparameter search (Part 3) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 5
+echo "------------- Running random and TPE hyperparameter searches (Part 3) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 6
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 7
+echo "------------- Comparing TPE with random search on a synthetic objective ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 11
+echo "------------- Training the learning rates of the grid as one batch of networks (Part 3) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 9
+echo "------------- Checking batched training against training each network alone (Part 3) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 12
+echo "------------- Warm starts of neighbouring networks from a trained network (Part 3) ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 10
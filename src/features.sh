@@ -1,2 +1,4 @@
 echo "------------- Running Part 4 Experiment ------------"
-java -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 2
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 2
+echo "------------- Running greedy feature elimination ------------"
+java --add-modules jdk.incubator.vector -cp lib/*:minet:. P2Main data/Part3/train.txt data/Part3/test.txt 123 settings/Part2.json 1 8
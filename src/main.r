@@ -1,4 +1,4 @@
-data <- read.csv("src/data/experiments/hyperparameters.csv")
+data <- read.csv("src/data/experiments/hyperparameters.csv", comment.char = "#")
 experiment <- data.frame(data)
 # Gets the point with the highest accuracy
 maximum_accuracy <- experiment[which.max(experiment$accuracy), ]
@@ -0,0 +1,157 @@
+// File: BatchPrefetcher.java
+// BatchPrefetcher class
+package minet;
+
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Assembles the minibatches of an epoch on a producer thread into a ring of
+ * depth + 1 reused buffers: while training on one minibatch, up to depth more
+ * are assembled ahead.
+ * <p>
+ * The producer walks the dataset's minibatch cursor (see
+ * {@link Dataset#nextMiniBatch(int, Pair)}) from where the last
+ * {@link Dataset#shuffle(java.util.Random)} left it, so for a given seed training sees
+ * the same minibatches as with {@link Dataset#getNextMiniBatch(int)}.
+ * <p>
+ * Usage:
+ * <pre>
+ *   data.shuffle(rnd);
+ *   prefetcher.startEpoch(data, batchsize);
+ *   while ((batch = prefetcher.next()) != null) { ... }
+ * </pre>
+ */
+public class BatchPrefetcher {
+
+    // marks the end of an epoch in the ready queue
+    static final Pair<DoubleMatrix> END = new Pair<DoubleMatrix>(null, null);
+
+    int depth;
+    Consumer<Pair<DoubleMatrix>> transform;
+    BlockingQueue<Pair<DoubleMatrix>> free;  // buffers the producer may fill
+    BlockingQueue<Pair<DoubleMatrix>> ready; // assembled minibatches, in order
+    Pair<DoubleMatrix> current;              // the buffer held by the consumer
+    ExecutorService producer;
+    Future<?> epoch;
+
+    // metrics
+    long takes;      // minibatches taken by the consumer
+    long depthSum;   // sum over takes of the number of minibatches ready
+    long starved;    // takes where no minibatch was ready
+
+    /**
+     * @param depth the number of minibatches assembled ahead
+     * @param transform an optional preprocessing applied in place to each minibatch on the
+     *                  producer thread (may be null)
+     */
+    public BatchPrefetcher(int depth, Consumer<Pair<DoubleMatrix>> transform) {
+        this.depth = depth;
+        this.transform = transform;
+        this.free = new ArrayBlockingQueue<Pair<DoubleMatrix>>(depth + 1);
+        this.ready = new ArrayBlockingQueue<Pair<DoubleMatrix>>(depth + 1);
+        for (int i = 0; i <= depth; i++)
+            this.free.add(new Pair<DoubleMatrix>(null, null));
+        this.producer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "minet-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public BatchPrefetcher(int depth) {
+        this(depth, null);
+    }
+
+    /**
+     * Start assembling the remaining minibatches of one pass over data (all of them right
+     * after a shuffle or reset). The previous epoch must have been consumed up to the end.
+     * @param data a dataset, which must not be used elsewhere until {@link #next()} returns null
+     * @param batchsize size of each minibatch
+     */
+    public void startEpoch(Dataset data, int batchsize) {
+        this.epoch = this.producer.submit(() -> {
+            try {
+                while (true) {
+                    Pair<DoubleMatrix> buf = this.free.take();
+                    Pair<DoubleMatrix> batch = data.nextMiniBatch(batchsize, buf.first == null ? null : buf);
+                    if (batch == null) {
+                        this.free.put(buf);
+                        break;
+                    }
+                    if (this.transform != null)
+                        this.transform.accept(batch);
+                    this.ready.put(batch);
+                }
+            } finally {
+                // also on failure, so that the consumer does not wait forever
+                this.ready.put(END);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Get the next minibatch of the epoch, waiting for the producer if needed. The
+     * minibatch returned by the previous call is recycled, so it must no longer be used.
+     * @return the next minibatch, or null at the end of the epoch
+     */
+    public Pair<DoubleMatrix> next() throws InterruptedException, ExecutionException {
+        if (this.current != null) {
+            this.free.put(this.current);
+            this.current = null;
+        }
+
+        int available = this.ready.size();
+        Pair<DoubleMatrix> batch = this.ready.take();
+        if (batch == END) {
+            this.epoch.get(); // rethrow the producer's exception, if any
+            return null;
+        }
+        this.takes++;
+        this.depthSum += available;
+        if (available == 0)
+            this.starved++;
+        this.current = batch;
+        return batch;
+    }
+
+    /**
+     * The average number of assembled minibatches waiting in the queue when one was taken.
+     */
+    public double getMeanQueueDepth() {
+        return this.takes == 0 ? 0 : (double) this.depthSum / this.takes;
+    }
+
+    /**
+     * The fraction of minibatches training had to wait for.
+     */
+    public double getStarvedRatio() {
+        return this.takes == 0 ? 0 : (double) this.starved / this.takes;
+    }
+
+    public long getTakes() {
+        return this.takes;
+    }
+
+    public void resetMetrics() {
+        this.takes = 0;
+        this.depthSum = 0;
+        this.starved = 0;
+    }
+
+    /**
+     * Stop the producer thread.
+     */
+    public void shutdown() {
+        this.producer.shutdownNow();
+    }
+}
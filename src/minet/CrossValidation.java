@@ -0,0 +1,95 @@
+// File: CrossValidation.java
+// CrossValidation class
+package minet;
+
+import minet.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the folds of a cross-validation (see {@link Dataset#kFold(int)}) concurrently,
+ * one fold per thread.
+ * <p>
+ * Each fold gets its own random generator, seeded from the given seed and the fold
+ * number only, so the results do not depend on the number of threads or on the
+ * order in which the folds are run. The folds' datasets are views sharing the stored
+ * values, which are only read.
+ */
+public class CrossValidation {
+
+    /**
+     * Trains a model on one fold.
+     */
+    public interface FoldTrainer {
+        /**
+         * @param fold the fold number
+         * @param train the training set of the fold
+         * @param dev the development set of the fold
+         * @param rnd the random generator of the fold, for weight initialisation and shuffling
+         * @return the score of the trained model on dev (e.g. its accuracy)
+         */
+        double run(int fold, Dataset train, Dataset dev, Random rnd) throws Exception;
+    }
+
+    /**
+     * The seed of the random generator of a fold.
+     */
+    public static long foldSeed(long seed, int fold) {
+        return new Random(seed + 0x9E3779B97F4A7C15L * (fold + 1)).nextLong();
+    }
+
+    /**
+     * Train on all folds, nThreads folds at a time.
+     * @param folds the (training set, development set) pairs
+     * @param trainer trains and scores a model on one fold
+     * @param seed the seed the folds' random generators are derived from
+     * @param nThreads the number of folds run concurrently
+     * @return the score of each fold
+     */
+    public static double[] run(List<Pair<Dataset>> folds, FoldTrainer trainer, long seed, int nThreads)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, folds.size())), r -> {
+            Thread t = new Thread(r, "minet-fold");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+            for (int f = 0; f < folds.size(); f++) {
+                int fold = f;
+                Pair<Dataset> split = folds.get(f);
+                tasks.add(() -> trainer.run(fold, split.first, split.second, new Random(foldSeed(seed, fold))));
+            }
+            double[] scores = new double[folds.size()];
+            List<Future<Double>> results = pool.invokeAll(tasks);
+            for (int f = 0; f < scores.length; f++)
+                scores[f] = results.get(f).get();
+            return scores;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static double mean(double[] scores) {
+        double sum = 0;
+        for (double s : scores)
+            sum += s;
+        return sum / scores.length;
+    }
+
+    /**
+     * The sample standard deviation of the scores.
+     */
+    public static double std(double[] scores) {
+        double m = mean(scores), sum = 0;
+        for (double s : scores)
+            sum += (s - m) * (s - m);
+        return scores.length > 1 ? Math.sqrt(sum / (scores.length - 1)) : 0;
+    }
+}
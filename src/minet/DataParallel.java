@@ -0,0 +1,140 @@
+// File: DataParallel.java
+// DataParallel class
+package minet;
+
+import minet.layer.Layer;
+import minet.loss.Loss;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+import org.jblas.SimpleBlas;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Data-parallel forward/backward for a model: each minibatch is split into
+ * shards that run on per-thread replicas of the model (see {@link Layer#replicate()}).
+ * The replicas share the model's weights, and their gradients are reduced, in a
+ * fixed order, into the model's own gradients, so that any {@link minet.optim.Optimizer}
+ * built on the model can then update the weights as usual.
+ * <p>
+ * Since each shard's loss is averaged over the shard, shard gradients are weighted
+ * by shard_size / minibatch_size: the result matches a single-threaded step up to
+ * the floating-point reduction order.
+ */
+public class DataParallel {
+
+    Layer model;
+    List<DoubleMatrix> grads;  // the model's gradients
+    Shard[] shards;
+    ExecutorService pool;
+
+    /**
+     * A replica of the model working on one shard of each minibatch.
+     */
+    static class Shard implements Callable<Double> {
+        Layer replica;
+        Loss loss;
+        List<DoubleMatrix> grads;
+        DoubleMatrix X, Y;  // shard buffers, reused across minibatches of the same size
+
+        Shard(Layer model, Loss loss) {
+            this.replica = model.replicate();
+            this.loss = loss.replicate();
+            this.grads = this.replica.getAllGradients(new ArrayList<DoubleMatrix>());
+        }
+
+        /**
+         * Copy rows [start, end) of the minibatch into the shard buffers.
+         */
+        void load(Pair<DoubleMatrix> batch, int start, int end) {
+            this.X = copyRows(batch.first, start, end, this.X);
+            this.Y = copyRows(batch.second, start, end, this.Y);
+        }
+
+        @Override
+        public Double call() {
+            for (DoubleMatrix g : this.grads)
+                g.fill(0);
+            double lossVal = this.loss.forward(this.Y, this.replica.forward(this.X));
+            this.replica.backward(this.loss.backward());
+            return lossVal;
+        }
+    }
+
+    /**
+     * @param model the model to train
+     * @param loss a loss function, replicated for each thread
+     * @param nThreads the number of threads (and of shards per minibatch)
+     */
+    public DataParallel(Layer model, Loss loss, int nThreads) {
+        this.model = model;
+        this.grads = model.getAllGradients(new ArrayList<DoubleMatrix>());
+        this.shards = new Shard[nThreads];
+        for (int i = 0; i < nThreads; i++)
+            this.shards[i] = new Shard(model, loss);
+        this.pool = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "minet-data-parallel");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Copy rows [start, end) of the column-major matrix A into buf, (re)allocating
+     * buf if it does not have the right shape.
+     */
+    static DoubleMatrix copyRows(DoubleMatrix A, int start, int end, DoubleMatrix buf) {
+        int n = end - start;
+        if (buf == null || buf.rows != n || buf.columns != A.columns)
+            buf = new DoubleMatrix(n, A.columns);
+        for (int j = 0; j < A.columns; j++)
+            System.arraycopy(A.data, j * A.rows + start, buf.data, j * n, n);
+        return buf;
+    }
+
+    /**
+     * Run forward and backward over a minibatch and store the gradients in the model.
+     * @param batch a minibatch (X, Y)
+     * @return the loss value of the minibatch
+     */
+    public double step(Pair<DoubleMatrix> batch) throws Exception {
+        int n = batch.first.rows;
+        int nShards = Math.min(this.shards.length, n);
+
+        // split the minibatch as evenly as possible
+        List<Shard> tasks = new ArrayList<Shard>(nShards);
+        int[] sizes = new int[nShards];
+        for (int s = 0, start = 0; s < nShards; s++) {
+            int end = start + n / nShards + (s < n % nShards ? 1 : 0);
+            this.shards[s].load(batch, start, end);
+            sizes[s] = end - start;
+            tasks.add(this.shards[s]);
+            start = end;
+        }
+        List<Future<Double>> results = this.pool.invokeAll(tasks);
+
+        // reduce: g = sum_s (n_s / n) * g_s, always in shard order
+        for (DoubleMatrix g : this.grads)
+            g.fill(0);
+        double lossVal = 0;
+        for (int s = 0; s < nShards; s++) {
+            double w = (double) sizes[s] / n;
+            lossVal += w * results.get(s).get();
+            for (int i = 0; i < this.grads.size(); i++)
+                SimpleBlas.axpy(w, this.shards[s].grads.get(i), this.grads.get(i));
+        }
+        return lossVal;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+}
@@ -8,24 +8,99 @@ import org.jblas.DoubleMatrix;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 /**
  * Dataset class for holding a set of (x, y) instances.
+ * <p>
+ * Feature values are stored in one contiguous row-major array. Labels of a
+ * classification task (a single integer-valued output) are stored as an int
+ * array, other outputs as a second row-major array. Shuffling permutes an index
+ * array, and minibatches are gathered into reused matrices.
  * @author Phong Le
  */
-public class Dataset {
+public class Dataset implements Cloneable {
 
     int currIndex;
-    double[][] X;
-    double[][] Y;
+    int size, xDims, yDims;
+    int xStride;     // number of stored features of each instance
+    int[] columns;   // the stored features exposed by a view (see select), null for all of them
+    double[] X;      // X[i * xStride + j] is stored feature j of instance i
+    int[] labels;    // labels[i] is the label of instance i, if the output is a single integer
+    double[] Y;      // Y[i * yDims + j] is output j of instance i, otherwise
+    int[] index;     // index[p] is the instance at position p of the current ordering
+
+    // minibatch buffers of getNextMiniBatch: full-size minibatches, and the last one of an epoch
+    Pair<DoubleMatrix> batchBuf, tailBuf;
+
+    // applied to the feature values while assembling minibatches (may be null)
+    Standardizer transform;
 
     public Dataset(double[][] X, double[][] Y) {
+        this(X.length, X.length == 0 ? 0 : X[0].length, Y.length == 0 ? 0 : Y[0].length,
+                flatten(X), flatten(Y));
+    }
+
+    /**
+     * @param size number of instances
+     * @param xDims number of input features
+     * @param yDims number of output variables
+     * @param X feature values, row-major (size * xDims)
+     * @param Y output values, row-major (size * yDims)
+     */
+    Dataset(int size, int xDims, int yDims, double[] X, double[] Y) {
+        this(size, xDims, yDims);
         this.X = X;
-        this.Y = Y;
+        if (yDims == 1 && isIntegral(Y)) {
+            this.labels = new int[size];
+            for (int i = 0; i < size; i++)
+                this.labels[i] = (int) Y[i];
+        } else {
+            this.Y = Y;
+        }
+    }
+
+    /**
+     * For subclasses that store their instances elsewhere (e.g. {@link MappedDataset}).
+     */
+    protected Dataset(int size, int xDims, int yDims) {
+        this(size, xDims, yDims, true);
+    }
+
+    /**
+     * @param indexed false for subclasses that keep no index array (e.g. {@link StreamingDataset})
+     */
+    Dataset(int size, int xDims, int yDims, boolean indexed) {
+        this.size = size;
+        this.xDims = xDims;
+        this.xStride = xDims;
+        this.yDims = yDims;
+        if (indexed) {
+            this.index = new int[size];
+            for (int i = 0; i < size; i++)
+                this.index[i] = i;
+        }
         this.currIndex = 0;
     }
 
+    static double[] flatten(double[][] A) {
+        int cols = A.length == 0 ? 0 : A[0].length;
+        double[] a = new double[A.length * cols];
+        for (int i = 0; i < A.length; i++)
+            System.arraycopy(A[i], 0, a, i * cols, cols);
+        return a;
+    }
+
+    static boolean isIntegral(double[] a) {
+        for (double v : a)
+            if (v != (int) v)
+                return false;
+        return true;
+    }
+
     /**
      * Loading instances stored in a txt file.
      * <p>
@@ -41,6 +116,14 @@ public class Dataset {
      * @throws IOException
      */
     public static Dataset loadTxt(String path) throws IOException {
+        return TxtLoader.load(path);
+    }
+
+    /**
+     * Load a txt file line by line on the calling thread. Kept as the reference for
+     * {@link TxtLoader}, which gives bit-identical results.
+     */
+    static Dataset loadTxtSequential(String path) throws IOException {
         // first line: [number of samples] [xDims] [yDims]
         // each line of file : [entries of X] ; [entries of Y]
         BufferedReader br = new BufferedReader(new FileReader(path));
@@ -69,6 +152,265 @@ public class Dataset {
         return new Dataset(X, Y);
     }
 
+    /**
+     * Load a dataset stored in the minet binary format by memory-mapping it (see
+     * {@link MappedDataset}); the file is neither parsed nor copied into the heap.
+     * 
+     * @param path a string, the path of the binary file.
+     * @return a Dataset
+     * @throws IOException
+     */
+    public static Dataset loadBinary(String path) throws IOException {
+        return new MappedDataset(path);
+    }
+
+    /**
+     * Open a dataset stored in the minet binary format for streaming it from disk during
+     * training (see {@link StreamingDataset}), for datasets larger than the memory.
+     * 
+     * @param path a string, the path of the binary file.
+     * @return a Dataset
+     * @throws IOException
+     */
+    public static Dataset loadStreaming(String path) throws IOException {
+        return new StreamingDataset(path);
+    }
+
+    /**
+     * Load a dataset in any format: the binary format if the path ends with ".bin" (streamed
+     * from disk if the system property {@code minet.stream} is "true", memory-mapped
+     * otherwise), the sparse txt format (see {@link SparseDataset#loadTxt(String)}) if it
+     * ends with ".sparse", the txt format otherwise.
+     * 
+     * @param path a string, the path of the file.
+     * @return a Dataset
+     * @throws IOException
+     */
+    public static Dataset load(String path) throws IOException {
+        if (path.endsWith(".bin"))
+            return Boolean.getBoolean("minet.stream") ? loadStreaming(path) : loadBinary(path);
+        if (path.endsWith(".sparse"))
+            return SparseDataset.loadTxt(path);
+        return loadTxt(path);
+    }
+
+
+    /**
+     * Standardise the feature values of this dataset while assembling minibatches, instead
+     * of rewriting the stored values.
+     * @param transform a fitted standardizer, or null to serve the stored values
+     */
+    public void setTransform(Standardizer transform) {
+        this.transform = transform;
+    }
+
+    public Standardizer getTransform() {
+        return this.transform;
+    }
+
+    /**
+     * Get a view of this dataset exposing only some of its features, without copying the
+     * stored values. The view has its own ordering of the instances (initially the current
+     * ordering of this dataset) and its own minibatch iteration. A transform set on this
+     * dataset is carried over to the selected features.
+     * @param features indices of the features to keep, in the order they are exposed
+     * @return a dataset whose feature j is feature features[j] of this dataset
+     */
+    public Dataset select(int... features) {
+        Dataset view = view();
+        view.columns = new int[features.length];
+        for (int j = 0; j < features.length; j++)
+            view.columns[j] = column(features[j]);
+        view.xDims = features.length;
+        view.index = this.index == null ? null : this.index.clone();
+        view.transform = this.transform == null ? null : this.transform.select(features);
+        return view;
+    }
+
+    /**
+     * A copy of this dataset sharing its stored values, with its own minibatch iteration.
+     */
+    Dataset view() {
+        Dataset view;
+        try {
+            view = (Dataset) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        view.currIndex = 0;
+        view.batchBuf = null;
+        view.tailBuf = null;
+        return view;
+    }
+
+    /**
+     * Get a view of some of the instances of this dataset, without copying the stored values.
+     * @param positions positions of the instances in the current ordering, which become the
+     *                  ordering of the view
+     */
+    public Dataset subset(int[] positions) {
+        Dataset view = view();
+        view.index = new int[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            view.index[i] = this.index[positions[i]];
+        view.size = positions.length;
+        return view;
+    }
+
+    /**
+     * Get a view of the instances at positions [from, to) of the current ordering.
+     */
+    public Dataset subset(int from, int to) {
+        int[] positions = new int[to - from];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = from + i;
+        return subset(positions);
+    }
+
+    /**
+     * Split this dataset, in its current ordering, into a training set and a development
+     * (validation) set. Shuffle first for a random split.
+     * @param devFraction the fraction of instances in the development set, taken from the start
+     * @return a Pair<Dataset> object <code>split</code>, where <code>split.first</code> is the
+     *         training set and <code>split.second</code> the development set (both views)
+     */
+    public Pair<Dataset> holdout(double devFraction) {
+        int devLength = (int) Math.floor(this.getSize() * devFraction);
+        return new Pair<Dataset>(subset(devLength, this.getSize()), subset(0, devLength));
+    }
+
+    /**
+     * Like {@link #holdout(double)}, but the development set takes the same fraction of the
+     * instances of each class (the first ones of each class in the current ordering).
+     * Requires a single integer-valued output.
+     */
+    public Pair<Dataset> stratifiedHoldout(double devFraction) {
+        int[][] byClass = positionsByClass();
+        int[] fold = new int[this.getSize()]; // 1 for the development set
+        for (int[] positions : byClass) {
+            int devLength = (int) Math.round(positions.length * devFraction);
+            for (int i = 0; i < devLength; i++)
+                fold[positions[i]] = 1;
+        }
+        return split(fold, 1);
+    }
+
+    /**
+     * Split this dataset, in its current ordering, into k folds of consecutive instances.
+     * @return k pairs (training set, development set), where the development set of pair f
+     *         is fold f and the training set the other folds (all views)
+     */
+    public List<Pair<Dataset>> kFold(int k) {
+        int[] fold = new int[this.getSize()];
+        for (int f = 0; f < k; f++) {
+            int from = (int) ((long) this.getSize() * f / k);
+            int to = (int) ((long) this.getSize() * (f + 1) / k);
+            Arrays.fill(fold, from, to, f);
+        }
+        List<Pair<Dataset>> folds = new ArrayList<Pair<Dataset>>();
+        for (int f = 0; f < k; f++)
+            folds.add(split(fold, f));
+        return folds;
+    }
+
+    /**
+     * Like {@link #kFold(int)}, but the instances of each class are dealt to the folds in
+     * turn, so every fold has (up to one instance) the class proportions of the dataset.
+     * Requires a single integer-valued output.
+     */
+    public List<Pair<Dataset>> stratifiedKFold(int k) {
+        int[] fold = new int[this.getSize()];
+        int next = 0;
+        for (int[] positions : positionsByClass()) {
+            for (int p : positions)
+                fold[p] = next++ % k;
+        }
+        List<Pair<Dataset>> folds = new ArrayList<Pair<Dataset>>();
+        for (int f = 0; f < k; f++)
+            folds.add(split(fold, f));
+        return folds;
+    }
+
+    /**
+     * @return (the instances not in fold f, the instances in fold f)
+     */
+    Pair<Dataset> split(int[] fold, int f) {
+        int n = 0;
+        for (int g : fold)
+            if (g == f)
+                n++;
+        int[] in = new int[n];
+        int[] out = new int[fold.length - n];
+        for (int p = 0, i = 0, o = 0; p < fold.length; p++) {
+            if (fold[p] == f)
+                in[i++] = p;
+            else
+                out[o++] = p;
+        }
+        return new Pair<Dataset>(subset(out), subset(in));
+    }
+
+    /**
+     * @return for each class c, the positions of its instances in the current ordering
+     */
+    int[][] positionsByClass() {
+        if (this.yDims != 1)
+            throw new IllegalStateException("stratified splits require a single output, got " + this.yDims);
+        int[] label = positionLabels();
+        int nClasses = 0;
+        for (int p = 0; p < label.length; p++) {
+            if (label[p] < 0)
+                throw new IllegalStateException("stratified splits require non-negative integer labels");
+            nClasses = Math.max(nClasses, label[p] + 1);
+        }
+        int[] count = new int[nClasses];
+        for (int c : label)
+            count[c]++;
+        int[][] byClass = new int[nClasses][];
+        for (int c = 0; c < nClasses; c++)
+            byClass[c] = new int[count[c]];
+        Arrays.fill(count, 0);
+        for (int p = 0; p < label.length; p++)
+            byClass[label[p]][count[label[p]]++] = p;
+        return byClass;
+    }
+
+    /**
+     * @return the label of the instance at each position of the current ordering
+     */
+    int[] positionLabels() {
+        int[] label = new int[this.getSize()];
+        for (int p = 0; p < label.length; p++)
+            label[p] = label(this.index[p]);
+        return label;
+    }
+
+    /**
+     * The label of stored instance row.
+     */
+    int label(int row) {
+        return this.labels != null ? this.labels[row] : (int) this.Y[row * this.yDims];
+    }
+
+    /**
+     * Get a view of this dataset without one of its features (see {@link #select(int...)}).
+     * @param feature index of the feature to drop
+     */
+    public Dataset drop(int feature) {
+        int[] features = new int[this.xDims - 1];
+        for (int j = 0, k = 0; j < this.xDims; j++) {
+            if (j != feature)
+                features[k++] = j;
+        }
+        return select(features);
+    }
+
+    /**
+     * The stored feature behind feature j of this dataset.
+     */
+    int column(int j) {
+        return this.columns == null ? j : this.columns[j];
+    }
 
     /**
      * Must be called before each epoch to reset the minibatch iteration.
@@ -81,14 +423,14 @@ public class Dataset {
      * Get the number of the instances stored.
      */
     public int getSize() {
-        return X.length;
+        return this.size;
     }
 
     /**
      * Get the number of input features
      */
     public int getInputDims() {
-        return X[0].length;
+        return this.xDims;
     }
 
     /**
@@ -99,26 +441,42 @@ public class Dataset {
      *      For classification tasks in our module, this will always return 1. For classification tasks where this number is larger than 1, see multi-label classification.
      */
     public int getOutDims() {
-        return Y[0].length;
-    }    
+        return this.yDims;
+    }
+
+    /**
+     * Get the current ordering of the instances, e.g. to save it with a training checkpoint.
+     * @return a copy of the ordering, or null if this dataset keeps none (e.g. a
+     *         {@link StreamingDataset})
+     */
+    public int[] getOrder() {
+        return this.index == null ? null : this.index.clone();
+    }
+
+    /**
+     * Restore an ordering returned by {@link #getOrder()}, and reset the minibatch iteration.
+     * @param order the ordering
+     */
+    public void setOrder(int[] order) {
+        if (this.index == null || order == null || order.length != this.index.length)
+            throw new IllegalArgumentException("the ordering does not match this dataset");
+        System.arraycopy(order, 0, this.index, 0, order.length);
+        this.currIndex = 0;
+    }
 
     /**
      * Shuffle the ordering of instances in the dataset (given a random generator, so the behaviour is reproducible). 
      * Should be called before each epoch during training.
      * @param rnd a random generator
      */
-    public void shuffle(Random rnd) {               
+    public void shuffle(Random rnd) {
         for (int i = this.getSize() - 1; i > 0; i--)
         {
             int index = rnd.nextInt(i + 1);
             // Simple swap
-            double[] tmp = X[i];
-            X[i] = X[index];
-            X[index] = tmp;
-
-            tmp = Y[i];
-            Y[i] = Y[index];
-            Y[index] = tmp;
+            int tmp = this.index[i];
+            this.index[i] = this.index[index];
+            this.index[index] = tmp;
         }
         this.currIndex = 0;
     }
@@ -128,23 +486,101 @@ public class Dataset {
      * @return a Pair<DoubleMatrix> object <code>data</code>, where <code>data.first</code> is the feature values (X) of all instances, and the  <code>data.second</code> is the labels (Y).
      */
     public Pair<DoubleMatrix> getAllData(){
-        return new Pair<DoubleMatrix>(new DoubleMatrix(this.X), new DoubleMatrix(this.Y));
+        return getMiniBatch(0, this.getSize(), null);
+    }
+
+    /**
+     * Get the instances [start, end) as a minibatch, without moving the minibatch iteration.
+     * @param start index of the first instance
+     * @param end index after the last instance
+     * @param buf a pair of matrices to copy the instances into, reused if they have the right
+     *            shape (may be null)
+     * @return buf, or a new pair if buf could not be reused
+     */
+    public Pair<DoubleMatrix> getMiniBatch(int start, int end, Pair<DoubleMatrix> buf) {
+        int n = end - start;
+        if (buf == null || buf.first.rows != n || buf.first.columns != this.getInputDims()
+                || buf.second.columns != this.getOutDims()) {
+            buf = new Pair<DoubleMatrix>(new DoubleMatrix(n, this.getInputDims()),
+                    new DoubleMatrix(n, this.getOutDims()));
+        }
+        gather(start, buf.first, buf.second, this.transform);
+        return buf;
+    }
+
+    /**
+     * Copy the instances at positions [start, start + bX.rows) of the current ordering
+     * into the column-major matrices bX and bY.
+     * @param t applied to the feature values on the fly (may be null)
+     */
+    void gather(int start, DoubleMatrix bX, DoubleMatrix bY, Standardizer t) {
+        int n = bX.rows;
+        int[] cols = this.columns;
+        for (int i = 0; i < n; i++) {
+            int row = this.index[start + i];
+            int r = row * this.xStride;
+            if (cols == null && t == null) {
+                for (int j = 0, k = i; j < this.xDims; j++, k += n)
+                    bX.data[k] = this.X[r + j];
+            } else if (cols == null) {
+                for (int j = 0, k = i; j < this.xDims; j++, k += n)
+                    bX.data[k] = t.apply(j, this.X[r + j]);
+            } else {
+                // only the selected features are read
+                for (int j = 0, k = i; j < this.xDims; j++, k += n) {
+                    double v = this.X[r + cols[j]];
+                    bX.data[k] = t == null ? v : t.apply(j, v);
+                }
+            }
+            gatherY(i, row, bY);
+        }
+    }
+
+    /**
+     * Copy the outputs of stored instance row into row i of the column-major matrix bY.
+     */
+    void gatherY(int i, int row, DoubleMatrix bY) {
+        if (this.labels != null) {
+            bY.data[i] = this.labels[row];
+        } else {
+            for (int j = 0, k = i, r = row * this.yDims; j < this.yDims; j++, k += bY.rows)
+                bY.data[k] = this.Y[r + j];
+        }
     }
 
     /**
-     * Get all feature values (X)
+     * Get all feature values (X), copied in the current ordering (and standardised if a
+     * transform is set)
      * @return a matrix
      */
     public double[][] getX(){
-        return this.X;
+        double[][] X = new double[this.size][];
+        for (int i = 0; i < this.size; i++) {
+            int r = this.index[i] * this.xStride;
+            X[i] = new double[this.xDims];
+            for (int j = 0; j < this.xDims; j++) {
+                double v = this.X[r + column(j)];
+                X[i][j] = this.transform == null ? v : this.transform.apply(j, v);
+            }
+        }
+        return X;
     }
 
     /**
-     * Get all labels (Y)
+     * Get all labels (Y), copied in the current ordering
      * @return a matrix
      */
     public double[][] getY(){
-        return this.Y;
+        double[][] Y = new double[this.size][];
+        for (int i = 0; i < this.size; i++) {
+            int row = this.index[i];
+            if (this.labels != null) {
+                Y[i] = new double[] {this.labels[row]};
+            } else {
+                Y[i] = Arrays.copyOfRange(this.Y, row * this.yDims, (row + 1) * this.yDims);
+            }
+        }
+        return Y;
     }
     
     /**
@@ -156,10 +592,31 @@ public class Dataset {
 
     /**
      * Get a minibatch of size batchsize
+     * <p>
+     * NOTE: the returned matrices are reused by the next call, copy them to keep a minibatch.
      * @param batchsize 
      * @return a pair of X (feature values) and Y (labels)
      */
     public Pair<DoubleMatrix> getNextMiniBatch(int batchsize) {
+        boolean full = this.getSize() - this.currIndex >= batchsize;
+        Pair<DoubleMatrix> batch = nextMiniBatch(batchsize, full ? this.batchBuf : this.tailBuf);
+        if (batch == null)
+            return null;
+        if (full)
+            this.batchBuf = batch;
+        else
+            this.tailBuf = batch;
+        return batch;
+    }
+
+    /**
+     * Get the next minibatch of size batchsize, copied into the given buffer
+     * @param batchsize 
+     * @param buf a pair of matrices to copy the instances into, reused if they have the right
+     *            shape (may be null)
+     * @return buf, or a new pair if buf could not be reused, or null at the end of the dataset
+     */
+    public Pair<DoubleMatrix> nextMiniBatch(int batchsize, Pair<DoubleMatrix> buf) {
     	if (this.currIndex >= this.getSize()) {
             this.currIndex = 0;
             return null;
@@ -168,18 +625,7 @@ public class Dataset {
         int start = this.currIndex;
         int end = Math.min(start + batchsize, this.getSize());
         this.currIndex = end;
-      
-        double[][] bX = new double[end - start][];
-        double[][] bY = new double[end - start][];
-        for (int i = start; i < end; i++) {
-            bX[i - start] = X[i];
-            bY[i - start] = Y[i];
-        }        
-
-        return new Pair<DoubleMatrix>(
-                new DoubleMatrix(bX),
-                new DoubleMatrix(bY)
-        );
+        return getMiniBatch(start, end, buf);
     }
 
 }
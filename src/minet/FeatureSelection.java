@@ -0,0 +1,196 @@
+// File: FeatureSelection.java
+// FeatureSelection class
+package minet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Feature selection by training a model on subsets of the features: bounded exhaustive
+ * search and greedy backward elimination.
+ * <p>
+ * A subset is a bitmask (bit j set if feature j is kept). The subsets of one step
+ * (of one size for the exhaustive search, the children of the current subset for
+ * backward elimination) are trained concurrently (see {@link HyperparameterSearch}).
+ * The random generator of a subset is derived from the seed and the subset only, so
+ * its score does not depend on which other subsets are evaluated, or in which order.
+ * <p>
+ * Scores can be cached in a {@link ResultStore} keyed by the subset, so that subsets
+ * already evaluated (e.g. before a restart) are not trained again.
+ */
+public class FeatureSelection {
+
+    /**
+     * Trains and scores a model on some of the features.
+     */
+    public interface Evaluator {
+        /**
+         * @param features the indices of the features kept, in increasing order
+         * @param rnd the random generator of the subset, for weight initialisation and shuffling
+         * @return the score of the model (e.g. its accuracy), higher is better
+         */
+        double run(int[] features, Random rnd) throws Exception;
+    }
+
+    int nFeatures;
+    Evaluator evaluator;
+    ResultStore store;
+    String keyPrefix;
+    long seed;
+    int nThreads;
+
+    int trained = 0; // the number of subsets trained (not found in the store)
+
+    /**
+     * @param nFeatures the number of features (at most 63)
+     * @param evaluator trains and scores a model on a subset
+     * @param store the cache of the scores (may be null)
+     * @param keyPrefix prefixed to the keys of the store, to tell apart the results of
+     *                  different experiments (e.g. settings and seed) in the same store
+     * @param seed the seed the subsets' random generators are derived from
+     * @param nThreads the number of subsets trained concurrently
+     */
+    public FeatureSelection(int nFeatures, Evaluator evaluator, ResultStore store, String keyPrefix, long seed,
+            int nThreads) {
+        if (nFeatures < 1 || nFeatures > 63)
+            throw new IllegalArgumentException("between 1 and 63 features are supported, got " + nFeatures);
+        this.nFeatures = nFeatures;
+        this.evaluator = evaluator;
+        this.store = store;
+        this.keyPrefix = keyPrefix == null ? "" : keyPrefix;
+        this.seed = seed;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * @return the subset of all features
+     */
+    public long all() {
+        return (1L << this.nFeatures) - 1;
+    }
+
+    /**
+     * @return the indices of the features of a subset, in increasing order
+     */
+    public static int[] features(long mask) {
+        int[] features = new int[Long.bitCount(mask)];
+        for (int j = 0, k = 0; k < features.length; j++) {
+            if ((mask & (1L << j)) != 0)
+                features[k++] = j;
+        }
+        return features;
+    }
+
+    /**
+     * @return the subset of the given features
+     */
+    public static long mask(int[] features) {
+        long mask = 0;
+        for (int j : features)
+            mask |= 1L << j;
+        return mask;
+    }
+
+    /**
+     * The key of a subset in the store: one character per feature, '1' if it is kept.
+     */
+    public String key(long mask) {
+        return key(this.keyPrefix, this.nFeatures, mask);
+    }
+
+    /**
+     * The key of a subset in the store of a feature selection with the given key prefix
+     * and number of features (see {@link #key(long)}).
+     */
+    public static String key(String keyPrefix, int nFeatures, long mask) {
+        StringBuilder sb = new StringBuilder(keyPrefix == null ? "" : keyPrefix);
+        for (int j = 0; j < nFeatures; j++)
+            sb.append((mask & (1L << j)) != 0 ? '1' : '0');
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of subsets trained so far (those found in the store are not counted)
+     */
+    public int getTrained() {
+        return this.trained;
+    }
+
+    /**
+     * Score subsets, training (concurrently) those that are not in the store.
+     * @return the score of each subset, in the given order
+     */
+    public Map<Long, Double> evaluate(List<Long> masks) throws Exception {
+        Map<Long, Double> scores = new LinkedHashMap<Long, Double>();
+        List<Long> todo = new ArrayList<Long>();
+        for (long mask : masks) {
+            Double cached = this.store == null ? null : this.store.get(key(mask));
+            scores.put(mask, cached);
+            if (cached == null && !todo.contains(mask))
+                todo.add(mask);
+        }
+        // the generator passed to the trainer depends on the position in todo, each
+        // subset gets its own instead
+        HyperparameterSearch.run(todo, (k, mask, unused) -> this.evaluator.run(features(mask),
+                new Random(HyperparameterSearch.trialSeed(this.seed, Long.hashCode(mask)))),
+                (k, mask, score) -> {
+                    this.trained++;
+                    scores.put(mask, score);
+                    if (this.store != null)
+                        this.store.put(key(mask), score);
+                }, this.seed, this.nThreads);
+        return scores;
+    }
+
+    /**
+     * Bounded exhaustive search: score every subset with at least minSize features, from
+     * the largest subsets to the smallest.
+     * @return the score of each subset
+     */
+    public Map<Long, Double> exhaustive(int minSize) throws Exception {
+        Map<Long, Double> scores = new LinkedHashMap<Long, Double>();
+        for (int size = this.nFeatures; size >= Math.max(1, minSize); size--) {
+            // the subsets of this size, in increasing order (Gosper's hack)
+            List<Long> level = new ArrayList<Long>();
+            for (long mask = (1L << size) - 1; mask > 0 && mask <= this.all(); ) {
+                level.add(mask);
+                long c = mask & -mask;
+                long r = mask + c;
+                mask = (((r ^ mask) >>> 2) / c) | r;
+            }
+            scores.putAll(evaluate(level));
+        }
+        return scores;
+    }
+
+    /**
+     * Greedy backward elimination: starting from all features, score every subset with one
+     * feature less than the current one, and continue from the best, down to minSize
+     * features.
+     * @return the score of each subset on the path, from all features to minSize features
+     */
+    public Map<Long, Double> backward(int minSize) throws Exception {
+        Map<Long, Double> path = new LinkedHashMap<Long, Double>();
+        long current = this.all();
+        path.putAll(evaluate(List.of(current)));
+        while (Long.bitCount(current) > Math.max(1, minSize)) {
+            List<Long> children = new ArrayList<Long>();
+            for (int j : features(current))
+                children.add(current & ~(1L << j));
+            long best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (Map.Entry<Long, Double> e : evaluate(children).entrySet()) {
+                if (e.getValue() > bestScore) {
+                    bestScore = e.getValue();
+                    best = e.getKey();
+                }
+            }
+            current = best;
+            path.put(current, bestScore);
+        }
+        return path;
+    }
+}
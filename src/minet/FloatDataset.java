@@ -0,0 +1,177 @@
+// File: FloatDataset.java
+// FloatDataset class
+package minet;
+
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+import org.jblas.FloatMatrix;
+
+import java.util.Random;
+
+/**
+ * Single-precision counterpart of {@link Dataset}: instances are stored as
+ * floats, which halves the memory footprint, and minibatches are returned as
+ * {@link FloatMatrix}. As in {@link Dataset}, the values are kept in flat row-major
+ * arrays, shuffling permutes an index array, and minibatches are gathered into
+ * reused matrices.
+ */
+public class FloatDataset {
+
+    int currIndex;
+    int size, xDims, yDims;
+    float[] X;      // X[i * xDims + j] is feature j of instance i
+    float[] Y;      // Y[i * yDims + j] is output j of instance i
+    int[] index;    // index[p] is the instance at position p of the current ordering
+
+    // minibatch buffers of getNextMiniBatch: full-size minibatches, and the last one of an epoch
+    Pair<FloatMatrix> batchBuf, tailBuf;
+
+    public FloatDataset(float[][] X, float[][] Y) {
+        this(X.length, X.length == 0 ? 0 : X[0].length, Y.length == 0 ? 0 : Y[0].length);
+        for (int i = 0; i < this.size; i++) {
+            System.arraycopy(X[i], 0, this.X, i * this.xDims, this.xDims);
+            System.arraycopy(Y[i], 0, this.Y, i * this.yDims, this.yDims);
+        }
+    }
+
+    FloatDataset(int size, int xDims, int yDims) {
+        this.size = size;
+        this.xDims = xDims;
+        this.yDims = yDims;
+        this.X = new float[size * xDims];
+        this.Y = new float[size * yDims];
+        this.index = new int[size];
+        for (int i = 0; i < size; i++)
+            this.index[i] = i;
+        this.currIndex = 0;
+    }
+
+    /**
+     * Convert a (double-precision) dataset, keeping the ordering of its instances (and
+     * applying its transform, if any). The instances are converted a chunk at a time, so
+     * no double-precision copy of the whole dataset is made.
+     * @param data a dataset
+     */
+    public FloatDataset(Dataset data) {
+        this(data.getSize(), data.getInputDims(), data.getOutDims());
+        int CHUNK = 1024;
+        Pair<DoubleMatrix> buf = null;
+        for (int start = 0; start < this.size; start += CHUNK) {
+            int n = Math.min(CHUNK, this.size - start);
+            buf = data.getMiniBatch(start, start + n, buf);
+            // the minibatch is column-major, our arrays are row-major
+            for (int j = 0; j < this.xDims; j++) {
+                for (int i = 0; i < n; i++)
+                    this.X[(start + i) * this.xDims + j] = (float) buf.first.data[j * n + i];
+            }
+            for (int j = 0; j < this.yDims; j++) {
+                for (int i = 0; i < n; i++)
+                    this.Y[(start + i) * this.yDims + j] = (float) buf.second.data[j * n + i];
+            }
+        }
+    }
+
+    /**
+     * Must be called before each epoch to reset the minibatch iteration.
+     */
+    public void reset() {
+        this.currIndex = 0;
+    }
+
+    /**
+     * Get the number of the instances stored.
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of input features
+     */
+    public int getInputDims() {
+        return this.xDims;
+    }
+
+    /**
+     * Get the number of the output variables (see {@link Dataset#getOutDims()})
+     */
+    public int getOutDims() {
+        return this.yDims;
+    }
+
+    /**
+     * Shuffle the ordering of instances in the dataset, in the same way as
+     * {@link Dataset#shuffle(Random)} does for the same random generator.
+     * @param rnd a random generator
+     */
+    public void shuffle(Random rnd) {
+        for (int i = this.getSize() - 1; i > 0; i--)
+        {
+            int index = rnd.nextInt(i + 1);
+            // Simple swap
+            int tmp = this.index[i];
+            this.index[i] = this.index[index];
+            this.index[index] = tmp;
+        }
+        this.currIndex = 0;
+    }
+
+    /**
+     * Get all instances (feature values and labels) at once.
+     * @return a Pair<FloatMatrix> object, see {@link Dataset#getAllData()}
+     */
+    public Pair<FloatMatrix> getAllData(){
+        return getMiniBatch(0, this.getSize(), null);
+    }
+
+    /**
+     * Get the instances [start, end) as a minibatch, without moving the minibatch iteration.
+     * @param buf a pair of matrices to copy the instances into, reused if they have the right
+     *            shape (may be null)
+     * @return buf, or a new pair if buf could not be reused
+     */
+    public Pair<FloatMatrix> getMiniBatch(int start, int end, Pair<FloatMatrix> buf) {
+        int n = end - start;
+        if (buf == null || buf.first.rows != n || buf.first.columns != this.xDims
+                || buf.second.columns != this.yDims) {
+            buf = new Pair<FloatMatrix>(new FloatMatrix(n, this.xDims), new FloatMatrix(n, this.yDims));
+        }
+        float[] bX = buf.first.data;
+        float[] bY = buf.second.data;
+        for (int i = 0; i < n; i++) {
+            int row = this.index[start + i];
+            for (int j = 0; j < this.xDims; j++)
+                bX[j * n + i] = this.X[row * this.xDims + j];
+            for (int j = 0; j < this.yDims; j++)
+                bY[j * n + i] = this.Y[row * this.yDims + j];
+        }
+        return buf;
+    }
+
+    /**
+     * Get a minibatch of size batchsize
+     * <p>
+     * NOTE: the returned matrices are reused by the next call, copy them to keep a minibatch.
+     * @param batchsize
+     * @return a pair of X (feature values) and Y (labels)
+     */
+    public Pair<FloatMatrix> getNextMiniBatch(int batchsize) {
+        if (this.currIndex >= this.getSize()) {
+            this.currIndex = 0;
+            return null;
+        }
+
+        int start = this.currIndex;
+        int end = Math.min(start + batchsize, this.getSize());
+        this.currIndex = end;
+
+        boolean full = end - start == batchsize;
+        Pair<FloatMatrix> batch = getMiniBatch(start, end, full ? this.batchBuf : this.tailBuf);
+        if (full)
+            this.batchBuf = batch;
+        else
+            this.tailBuf = batch;
+        return batch;
+    }
+
+}
@@ -6,6 +6,7 @@ import minet.layer.*;
 import minet.loss.CrossEntropy;
 import minet.loss.Loss;
 import minet.loss.MeanSquaredError;
+import minet.loss.SoftmaxCrossEntropy;
 import org.jblas.DoubleMatrix;
 
 import java.util.LinkedList;
@@ -138,6 +139,80 @@ public class GradientChecker {
     }
 
 
+    /**
+     * Create a classification test with the linear layers in workspace mode.
+     */
+    public static void test3() {
+        DoubleMatrix X = new DoubleMatrix(
+                new double[][] {
+                        {.1f, .1f, .1f, .6f, .1f},
+                        {.5f, .1f, .2f, .1f, .1f},
+                        {.1f, .2f, .2f, .1f, .4f}});
+        DoubleMatrix Y = new DoubleMatrix(new double[] {2., 0., 1.});
+        Linear[] linears = new Linear[] {
+                new Linear(5, 10, new Linear.WeightInitUniform(-1, 1)),
+                new Linear(10, 6, new Linear.WeightInitUniform(-1, 1))};
+        for (Linear l : linears)
+            l.setWorkspace(true);
+        Sequential net = new Sequential(new Layer[] {
+                linears[0],
+                new Tanh(),
+                linears[1],
+                new Softmax()});
+        CrossEntropy loss = new CrossEntropy();
+
+        System.out.println(net);
+        System.out.println(loss);
+        checkGradient(net, loss, X, Y);
+    }
+
+    /**
+     * Create a classification test with in-place activation layers.
+     */
+    public static void test4() {
+        DoubleMatrix X = new DoubleMatrix(
+                new double[][] {
+                        {.1f, .1f, .1f, .6f, .1f},
+                        {.5f, .1f, .2f, .1f, .1f},
+                        {.1f, .2f, .2f, .1f, .4f}});
+        DoubleMatrix Y = new DoubleMatrix(new double[] {2., 0., 1.});
+        Sequential net = new Sequential(new Layer[] {
+                new Linear(5, 10, new Linear.WeightInitUniform(-1, 1)),
+                new Sigmoid(true),
+                new Linear(10, 20, new Linear.WeightInitUniform(-1, 1)),
+                new ReLU(true),
+                new Linear(20, 8, new Linear.WeightInitUniform(-1, 1)),
+                new Tanh(true),
+                new Linear(8, 6, new Linear.WeightInitUniform(-1, 1)),
+                new Softmax(true)});
+        CrossEntropy loss = new CrossEntropy();
+
+        System.out.println(net);
+        System.out.println(loss);
+        checkGradient(net, loss, X, Y);
+    }
+
+    /**
+     * Create a classification test with the softmax fused into the loss.
+     */
+    public static void test5() {
+        DoubleMatrix X = new DoubleMatrix(
+                new double[][] {
+                        {.1f, .1f, .1f, .6f, .1f},
+                        {.5f, .1f, .2f, .1f, .1f},
+                        {.1f, .2f, .2f, .1f, .4f}});
+        DoubleMatrix Y = new DoubleMatrix(new double[] {2., 0., 1.});
+        Sequential net = new Sequential(new Layer[] {
+                new Linear(5, 10, new Linear.WeightInitUniform(-1, 1)),
+                new ReLU(),
+                new Linear(10, 6, new Linear.WeightInitUniform(-1, 1))});
+        SoftmaxCrossEntropy loss = new SoftmaxCrossEntropy();
+
+        System.out.println(net);
+        System.out.println(loss);
+        checkGradient(net, loss, X, Y);
+    }
+
     public static void main(String[] args) {
         System.out.println("--- Test 1 ---");
         test1();
@@ -145,6 +220,18 @@ public class GradientChecker {
         System.out.println();
         System.out.println("--- Test 2 ---");
         test2();
+
+        System.out.println();
+        System.out.println("--- Test 3 ---");
+        test3();
+
+        System.out.println();
+        System.out.println("--- Test 4 ---");
+        test4();
+
+        System.out.println();
+        System.out.println("--- Test 5 ---");
+        test5();
     }
 
 }
@@ -0,0 +1,140 @@
+// File: Hogwild.java
+// Hogwild class
+package minet;
+
+import minet.layer.Layer;
+import minet.loss.Loss;
+import minet.optim.Optimizer;
+import minet.optim.SGD;
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lock-free asynchronous SGD ("Hogwild!", see
+ * <a href="https://arxiv.org/abs/1106.5730">paper</a>).
+ * <p>
+ * Each worker thread owns a replica of the model (see {@link Layer#replicate()}),
+ * i.e. its own activation caches and gradients, and an SGD optimizer over the
+ * replica. Workers pull minibatches from a shared dataset cursor and apply their
+ * updates to the shared weights without any locking, so updates from different
+ * workers may interleave.
+ */
+public class Hogwild {
+
+    Worker[] workers;
+    ExecutorService pool;
+
+    // shared state of the current epoch
+    Dataset data;
+    int batchsize;
+    int cursor;
+
+    /**
+     * A worker thread training on minibatches from the shared cursor.
+     */
+    class Worker implements Callable<double[]> {
+        Layer replica;
+        Loss loss;
+        Optimizer optimizer;
+        Pair<DoubleMatrix> buf;
+
+        Worker(Layer model, Loss loss, double learningRate) {
+            this.replica = model.replicate();
+            this.loss = loss.replicate();
+            this.optimizer = new SGD(this.replica, learningRate);
+        }
+
+        /**
+         * @return {total loss, number of instances} over the minibatches processed by this worker
+         */
+        @Override
+        public double[] call() {
+            double totalLoss = 0;
+            double n = 0;
+            while (true) {
+                Pair<DoubleMatrix> batch = nextMiniBatch(this.buf);
+                if (batch == null)
+                    break;
+                this.buf = batch;
+                this.optimizer.resetGradients();
+                totalLoss += this.loss.forward(batch.second, this.replica.forward(batch.first));
+                this.replica.backward(this.loss.backward());
+                this.optimizer.updateWeights();
+                n += batch.first.rows;
+            }
+            return new double[] {totalLoss, n};
+        }
+    }
+
+    /**
+     * @param model the model to train, its weights are updated in place
+     * @param loss a loss function, replicated for each worker
+     * @param learningRate the learning rate of each worker's SGD
+     * @param nWorkers the number of worker threads
+     */
+    public Hogwild(Layer model, Loss loss, double learningRate, int nWorkers) {
+        this.workers = new Worker[nWorkers];
+        for (int i = 0; i < nWorkers; i++)
+            this.workers[i] = new Worker(model, loss, learningRate);
+        this.pool = Executors.newFixedThreadPool(nWorkers, r -> {
+            Thread t = new Thread(r, "minet-hogwild");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Take the next minibatch from the shared cursor, null once the epoch is over.
+     * Only the cursor is locked, the instances are gathered into the worker's buffer
+     * concurrently with the other workers.
+     * @param buf the worker's minibatch buffer (may be null)
+     */
+    Pair<DoubleMatrix> nextMiniBatch(Pair<DoubleMatrix> buf) {
+        int start, end;
+        synchronized (this) {
+            if (this.cursor >= this.data.getSize())
+                return null;
+            start = this.cursor;
+            end = Math.min(start + this.batchsize, this.data.getSize());
+            this.cursor = end;
+        }
+        return this.data.getMiniBatch(start, end, buf);
+    }
+
+    /**
+     * Run one epoch over the (already shuffled) dataset.
+     * @param data the training dataset
+     * @param batchsize size of each minibatch
+     * @return {total loss, number of instances processed}
+     */
+    public double[] runEpoch(Dataset data, int batchsize) throws Exception {
+        this.data = data;
+        this.batchsize = batchsize;
+        this.cursor = 0;
+
+        List<Worker> tasks = new ArrayList<Worker>();
+        for (Worker w : this.workers)
+            tasks.add(w);
+        double[] total = new double[2];
+        for (Future<double[]> f : this.pool.invokeAll(tasks)) {
+            double[] r = f.get();
+            total[0] += r[0];
+            total[1] += r[1];
+        }
+        return total;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+}
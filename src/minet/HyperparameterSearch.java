@@ -0,0 +1,207 @@
+// File: HyperparameterSearch.java
+// HyperparameterSearch class
+package minet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+
+/**
+ * Runs the trials of a hyperparameter search (one training per configuration)
+ * concurrently on a bounded thread pool, either over a fixed list of configurations or
+ * over configurations proposed by a {@link Sampler} under a budget.
+ * <p>
+ * Each trial gets its own random generator, seeded from the master seed and the trial
+ * number only, so a trial's result does not depend on the number of threads or on
+ * which trials run alongside it. The trainer must build its own model for each trial
+ * and give each its own view of the datasets it shuffles (e.g. with
+ * {@link Dataset#subset(int, int)}).
+ * <p>
+ * Results are reported on the calling thread as the trials finish, so they can be
+ * written out while the search is still running.
+ */
+public class HyperparameterSearch {
+
+    /**
+     * Trains and scores one configuration.
+     */
+    public interface Trainer<C> {
+        /**
+         * @param trial the trial number
+         * @param config the configuration to train
+         * @param rnd the random generator of the trial, for weight initialisation and shuffling
+         * @return the score of the trained model (e.g. its accuracy), higher is better
+         */
+        double run(int trial, C config, Random rnd) throws Exception;
+    }
+
+    /**
+     * Receives the result of each trial, in the order the trials finish.
+     */
+    public interface Listener<C> {
+        void finished(int trial, C config, double score) throws Exception;
+    }
+
+    /**
+     * Proposes the configurations of an adaptive search, from the results of the trials
+     * so far (see {@link RandomSampler} and {@link TPESampler}).
+     */
+    public interface Sampler<C> {
+        /**
+         * @param rnd the random generator of the search
+         * @return the configuration of the next trial
+         */
+        C sample(Random rnd);
+
+        /**
+         * Record the score of a trial.
+         */
+        void observe(C config, double score);
+    }
+
+    /**
+     * The seed of the random generator of a trial.
+     */
+    public static long trialSeed(long seed, int trial) {
+        return new Random(seed + 0xC2B2AE3D27D4EB4FL * (trial + 1)).nextLong();
+    }
+
+    /**
+     * Run one trial per configuration, nThreads trials at a time.
+     * @param configs the configurations to try, trial i trains configs.get(i)
+     * @param trainer trains and scores a configuration
+     * @param listener receives each result as soon as its trial finishes (may be null)
+     * @param seed the master seed the trials' random generators are derived from
+     * @param nThreads the number of trials run concurrently
+     * @return the score of each trial
+     */
+    public static <C> double[] run(List<C> configs, Trainer<C> trainer, Listener<C> listener, long seed,
+            int nThreads) throws Exception {
+        return run(configs, trainer, listener, seed, nThreads, null);
+    }
+
+    /**
+     * Run one trial per configuration, nThreads trials at a time, except the trials to skip
+     * (e.g. those whose results were saved by an interrupted run). The trials keep their
+     * numbers, and so their random generators, whichever are skipped.
+     * @param skip the trials not to run (may be null), their score is NaN
+     * @see #run(List, Trainer, Listener, long, int)
+     */
+    public static <C> double[] run(List<C> configs, Trainer<C> trainer, Listener<C> listener, long seed,
+            int nThreads, IntPredicate skip) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, configs.size())), r -> {
+            Thread t = new Thread(r, "minet-trial");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CompletionService<Integer> done = new ExecutorCompletionService<Integer>(pool);
+            double[] scores = new double[configs.size()];
+            int submitted = 0;
+            for (int i = 0; i < configs.size(); i++) {
+                int trial = i;
+                if (skip != null && skip.test(trial)) {
+                    scores[trial] = Double.NaN;
+                    continue;
+                }
+                done.submit(() -> {
+                    scores[trial] = trainer.run(trial, configs.get(trial), new Random(trialSeed(seed, trial)));
+                    return trial;
+                });
+                submitted++;
+            }
+            for (int k = 0; k < submitted; k++) {
+                Future<Integer> f = done.take();
+                int trial;
+                try {
+                    trial = f.get();
+                } catch (ExecutionException e) {
+                    // give up on the remaining trials
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+                if (listener != null)
+                    listener.finished(trial, configs.get(trial), scores[trial]);
+            }
+            return scores;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run trials proposed by a sampler, nThreads trials at a time, until a number of trials
+     * or an amount of time is reached. Each new trial is sampled (on the calling thread)
+     * when a thread is free, from the results of all trials finished so far.
+     * @param sampler proposes the configurations, and is told their scores
+     * @param trainer trains and scores a configuration
+     * @param listener receives each result as soon as its trial finishes (may be null)
+     * @param seed the master seed the sampling and the trials' random generators are derived from
+     * @param nThreads the number of trials run concurrently
+     * @param maxTrials the maximum number of trials
+     * @param maxMillis no trial is started after this many milliseconds (0: no limit), the
+     *                  trials running then are finished
+     * @return the score of each trial that was run
+     */
+    public static <C> double[] run(Sampler<C> sampler, Trainer<C> trainer, Listener<C> listener, long seed,
+            int nThreads, int maxTrials, long maxMillis) throws Exception {
+        long deadline = maxMillis > 0 ? System.currentTimeMillis() + maxMillis : Long.MAX_VALUE;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, maxTrials)), r -> {
+            Thread t = new Thread(r, "minet-trial");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CompletionService<Double> done = new ExecutorCompletionService<Double>(pool);
+            Map<Future<Double>, Integer> running = new HashMap<Future<Double>, Integer>();
+            List<C> configs = new ArrayList<C>();
+            List<Double> scores = new ArrayList<Double>();
+            Random rnd = new Random(seed);
+            while (true) {
+                while (running.size() < nThreads && configs.size() < maxTrials
+                        && System.currentTimeMillis() < deadline) {
+                    int trial = configs.size();
+                    C config = sampler.sample(rnd);
+                    configs.add(config);
+                    scores.add(Double.NaN);
+                    running.put(done.submit(() -> trainer.run(trial, config, new Random(trialSeed(seed, trial)))),
+                            trial);
+                }
+                if (running.isEmpty())
+                    break;
+
+                Future<Double> f = done.take();
+                int trial = running.remove(f);
+                double score;
+                try {
+                    score = f.get();
+                } catch (ExecutionException e) {
+                    // give up on the remaining trials
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+                scores.set(trial, score);
+                sampler.observe(configs.get(trial), score);
+                if (listener != null)
+                    listener.finished(trial, configs.get(trial), score);
+            }
+            double[] result = new double[scores.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = scores.get(i);
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
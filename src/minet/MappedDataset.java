@@ -0,0 +1,207 @@
+// File: MappedDataset.java
+// MappedDataset class
+package minet;
+
+import org.jblas.DoubleMatrix;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A dataset stored in the minet binary format and memory-mapped through NIO,
+ * so that loading it neither parses nor copies it into the heap. Only the
+ * instance ordering (one int per instance) lives in the heap.
+ * <p>
+ * The binary format is columnar and little-endian:
+ * <pre>
+ *   bytes  0..3   magic "MNTB"
+ *   bytes  4..7   format version (1)
+ *   bytes  8..11  number of instances n
+ *   bytes 12..15  x_dims
+ *   bytes 16..19  y_dims
+ *   bytes 20..31  padding
+ *   then x_dims columns of X, then y_dims columns of Y, each as n doubles
+ * </pre>
+ * Use {@link #convertTxt(String, String)} to convert a file in the text format of
+ * {@link Dataset#loadTxt(String)}.
+ */
+public class MappedDataset extends Dataset {
+
+    static final int MAGIC = 0x42544e4d; // "MNTB" read as a little-endian int
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+
+    // a column larger than 2^SEG_BITS doubles is mapped in several segments
+    static final int SEG_BITS = 27;
+    static final int SEG_MASK = (1 << SEG_BITS) - 1;
+
+    DoubleBuffer[][] xCols; // xCols[j][s] is segment s of column j of X
+    DoubleBuffer[][] yCols;
+
+    MappedDataset(String path) throws IOException {
+        this(path, readHeader(path));
+    }
+
+    MappedDataset(String path, int[] header) throws IOException {
+        super(header[0], header[1], header[2]);
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            this.xCols = new DoubleBuffer[this.xDims][];
+            this.yCols = new DoubleBuffer[this.yDims][];
+            for (int j = 0; j < this.xDims; j++)
+                this.xCols[j] = mapColumn(channel, j);
+            for (int j = 0; j < this.yDims; j++)
+                this.yCols[j] = mapColumn(channel, this.xDims + j);
+        }
+        // the mappings stay valid after the channel is closed
+    }
+
+    /**
+     * @return {number of instances, x_dims, y_dims}
+     */
+    static int[] readHeader(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            file.readFully(header.array());
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException(path + " is not a minet binary dataset (version " + VERSION + ")");
+            return new int[] {header.getInt(8), header.getInt(12), header.getInt(16)};
+        }
+    }
+
+    DoubleBuffer[] mapColumn(FileChannel channel, int column) throws IOException {
+        long offset = HEADER_BYTES + (long) column * this.size * 8;
+        int nSegs = (int) (((long) this.size + SEG_MASK) >>> SEG_BITS);
+        DoubleBuffer[] segs = new DoubleBuffer[Math.max(nSegs, 1)];
+        for (int s = 0; s < segs.length; s++) {
+            long len = Math.min(1L << SEG_BITS, this.size - ((long) s << SEG_BITS));
+            segs[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset + ((long) s << (SEG_BITS + 3)), len * 8)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        return segs;
+    }
+
+    /**
+     * Convert a dataset in the text format (see {@link Dataset#loadTxt(String)}) to the
+     * binary format, streaming through the text file with bounded memory.
+     * @param txtPath the text file
+     * @param binPath the binary file to write
+     * @throws IOException
+     */
+    public static void convertTxt(String txtPath, String binPath) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(txtPath));
+             RandomAccessFile file = new RandomAccessFile(binPath, "rw");
+             FileChannel channel = file.getChannel()) {
+            String[] ss = br.readLine().split(" ");
+            int size = Integer.valueOf(ss[0]);
+            int xDims = Integer.valueOf(ss[1]);
+            int yDims = Integer.valueOf(ss[2]);
+            int dims = xDims + yDims;
+
+            file.setLength(HEADER_BYTES + (long) size * dims * 8);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(xDims).putInt(yDims).rewind();
+            channel.write(header, 0);
+
+            // rows are read in blocks, each block is written column by column
+            int blockRows = Math.max(1, Math.min(size, (1 << 20) / dims));
+            ByteBuffer[] cols = new ByteBuffer[dims];
+            for (int j = 0; j < dims; j++)
+                cols[j] = ByteBuffer.allocate(blockRows * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int start = 0; start < size; start += blockRows) {
+                int end = Math.min(size, start + blockRows);
+                for (int i = start; i < end; i++) {
+                    ss = br.readLine().split(" ; ");
+                    String[] sx = ss[0].split(" ");
+                    String[] sy = ss[1].split(" ");
+                    for (int j = 0; j < xDims; j++)
+                        cols[j].putDouble(Double.valueOf(sx[j]));
+                    for (int j = 0; j < yDims; j++)
+                        cols[xDims + j].putDouble(Double.valueOf(sy[j]));
+                }
+                for (int j = 0; j < dims; j++) {
+                    cols[j].flip();
+                    long offset = HEADER_BYTES + ((long) j * size + start) * 8;
+                    while (cols[j].hasRemaining())
+                        offset += channel.write(cols[j], offset);
+                    cols[j].clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Usage: <code>java minet.MappedDataset &lt;txt_file&gt; &lt;bin_file&gt;</code>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java minet.MappedDataset <txt_file> <bin_file>");
+            return;
+        }
+        convertTxt(args[0], args[1]);
+    }
+
+    double getX(int row, int column) {
+        return this.xCols[column][row >>> SEG_BITS].get(row & SEG_MASK);
+    }
+
+    double getY(int row, int column) {
+        return this.yCols[column][row >>> SEG_BITS].get(row & SEG_MASK);
+    }
+
+    @Override
+    int label(int row) {
+        return (int) getY(row, 0);
+    }
+
+    @Override
+    void gather(int start, DoubleMatrix bX, DoubleMatrix bY, Standardizer t) {
+        int n = bX.rows;
+        for (int i = 0; i < n; i++) {
+            int row = this.index[start + i];
+            for (int j = 0; j < this.xDims; j++) {
+                double v = getX(row, column(j));
+                bX.data[j * n + i] = t == null ? v : t.apply(j, v);
+            }
+            for (int j = 0; j < this.yDims; j++)
+                bY.data[j * n + i] = getY(row, j);
+        }
+    }
+
+    /**
+     * Get all feature values (X), copied into the heap in the current ordering (and
+     * standardised if a transform is set).
+     */
+    @Override
+    public double[][] getX() {
+        double[][] X = new double[this.size][this.xDims];
+        for (int i = 0; i < this.size; i++) {
+            int row = this.index[i];
+            for (int j = 0; j < this.xDims; j++) {
+                double v = getX(row, column(j));
+                X[i][j] = this.transform == null ? v : this.transform.apply(j, v);
+            }
+        }
+        return X;
+    }
+
+    /**
+     * Get all labels (Y), copied into the heap in the current ordering.
+     */
+    @Override
+    public double[][] getY() {
+        double[][] Y = new double[this.size][this.yDims];
+        for (int i = 0; i < this.size; i++) {
+            int row = this.index[i];
+            for (int j = 0; j < this.yDims; j++)
+                Y[i][j] = getY(row, j);
+        }
+        return Y;
+    }
+}
@@ -0,0 +1,510 @@
+// File: ModelBatch.java
+// ModelBatch class
+package minet;
+
+import minet.layer.Backend;
+import minet.layer.Backends;
+import minet.layer.Layer;
+import minet.layer.Linear;
+import minet.layer.ReLU;
+import minet.layer.Sequential;
+import minet.layer.Sigmoid;
+import minet.layer.Softmax;
+import minet.layer.Tanh;
+import minet.loss.SoftmaxCrossEntropy;
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several independent networks of the same structure (e.g. built with different random
+ * generators, to be trained with different learning rates) trained together as one wide
+ * network, so that each minibatch costs a few large matrix products instead of many
+ * small ones.
+ * <p>
+ * The weights of the models' {@link Linear} layers are stacked side by side: layer l
+ * holds an [in x M*out] matrix whose column block k is the weight matrix of the k-th
+ * model still in the batch. The activations are stacked the same way, an [n x M*h]
+ * matrix whose column block k (contiguous, since the data are column-major) belongs to
+ * that model. The first layer, whose input is shared by all models, is then a single
+ * product with the stacked weights; the following ones are block diagonal and computed
+ * block by block (a batched product). Element-wise activations apply to the whole
+ * stacked matrix at once.
+ * <p>
+ * Each model has its own loss ({@link SoftmaxCrossEntropy}, the models must output
+ * logits) and its own learning rate, so model m follows exactly the trajectory it would
+ * follow if it were trained alone with plain SGD on the same minibatches, up to
+ * rounding. A model taken out of the batch by {@link #stop(int)} gets its weights back
+ * and no longer costs anything; the others are copied back by {@link #unfuse()}.
+ */
+public class ModelBatch {
+
+    Sequential[] models;
+    int M;                   // the number of models still in the batch
+    int[] ids;               // ids[k] is the index (in models) of the model of column block k
+
+    // per layer of the models: the stacked weights of Linear layers (null for activations)
+    DoubleMatrix[] W, b, gW, gb;
+    int[] in, out;           // the dimensions of each model's Linear layers
+    Layer[][] activations;   // per layer, one instance shared by all models (element-wise
+                             // activations) or one per model (softmax), null for Linear layers
+
+    // training buffers, reallocated when the minibatch size or the number of models changes
+    DoubleMatrix[] X;        // the input of each Linear layer in the current forward pass
+    DoubleMatrix[] Z;        // the output of each Linear layer (the activations work in place over it)
+    DoubleMatrix[] gZ;       // the gradient of the input of each Linear layer but the first one
+    DoubleMatrix[][] blocks; // per softmax activation, each model's block of it
+    DoubleMatrix gBlock;     // one model's block of a gradient, for softmax activations
+    SoftmaxCrossEntropy[] losses;
+    DoubleMatrix[] logits;   // one model's block of the output
+    DoubleMatrix gOut;       // the gradient of the stacked output
+
+    // evaluation buffers, so that evaluating in chunks of another size keeps the training ones
+    DoubleMatrix[] evalZ;
+    DoubleMatrix evalBlock;
+
+    /**
+     * Stack the weights of models of the same structure. The models are left untouched
+     * until {@link #stop(int)} or {@link #unfuse()}.
+     * @param models networks alternating Linear layers and activations (ReLU, Sigmoid, Tanh
+     *               or Softmax), all with the same layers and dimensions, and ending with a
+     *               Linear layer that outputs logits
+     */
+    public ModelBatch(Sequential[] models) {
+        if (models.length == 0)
+            throw new IllegalArgumentException("a model batch needs at least one model");
+        this.models = models;
+        this.M = models.length;
+        this.ids = new int[M];
+        for (int m = 0; m < M; m++)
+            this.ids[m] = m;
+        Layer[] first = models[0].getLayers();
+        int L = first.length;
+        if (!(first[0] instanceof Linear) || !(first[L - 1] instanceof Linear))
+            throw new IllegalArgumentException("the models must start with a Linear layer and output logits");
+
+        this.W = new DoubleMatrix[L];
+        this.b = new DoubleMatrix[L];
+        this.gW = new DoubleMatrix[L];
+        this.gb = new DoubleMatrix[L];
+        this.in = new int[L];
+        this.out = new int[L];
+        this.activations = new Layer[L][];
+        this.X = new DoubleMatrix[L];
+        this.Z = new DoubleMatrix[L];
+        this.gZ = new DoubleMatrix[L];
+        this.evalZ = new DoubleMatrix[L];
+        this.blocks = new DoubleMatrix[L][];
+        for (int l = 0; l < L; l++) {
+            for (Sequential model : models) {
+                Layer[] layers = model.getLayers();
+                if (layers.length != L || layers[l].getClass() != first[l].getClass())
+                    throw new IllegalArgumentException("the models must have the same layers: " + models[0] + " vs " + model);
+            }
+            if (first[l] instanceof Linear) {
+                DoubleMatrix W0 = weights(models[0], l)[0];
+                int indims = W0.rows;
+                int outdims = W0.columns;
+                this.in[l] = indims;
+                this.out[l] = outdims;
+                this.W[l] = new DoubleMatrix(indims, M * outdims);
+                this.b[l] = new DoubleMatrix(M * outdims);
+                this.gW[l] = new DoubleMatrix(indims, M * outdims);
+                this.gb[l] = new DoubleMatrix(M * outdims);
+                for (int m = 0; m < M; m++) {
+                    DoubleMatrix[] Wb = weights(models[m], l);
+                    if (Wb[0].rows != indims || Wb[0].columns != outdims)
+                        throw new IllegalArgumentException("the models must have the same dimensions: " + models[0] + " vs " + models[m]);
+                    System.arraycopy(Wb[0].data, 0, this.W[l].data, m * indims * outdims, indims * outdims);
+                    System.arraycopy(Wb[1].data, 0, this.b[l].data, m * outdims, outdims);
+                }
+            } else if (first[l] instanceof Softmax) {
+                // normalised per model, i.e. per block
+                this.activations[l] = new Layer[M];
+                this.blocks[l] = new DoubleMatrix[M];
+                for (int m = 0; m < M; m++)
+                    this.activations[l][m] = new Softmax(true);
+            } else if (first[l] instanceof ReLU || first[l] instanceof Sigmoid || first[l] instanceof Tanh) {
+                Layer act = first[l] instanceof ReLU ? new ReLU(true)
+                        : first[l] instanceof Sigmoid ? new Sigmoid(true) : new Tanh(true);
+                this.activations[l] = new Layer[] { act };
+            } else {
+                throw new IllegalArgumentException("unsupported layer in a model batch: " + first[l]);
+            }
+        }
+
+        this.losses = new SoftmaxCrossEntropy[M];
+        this.logits = new DoubleMatrix[M];
+        for (int m = 0; m < M; m++)
+            this.losses[m] = new SoftmaxCrossEntropy();
+    }
+
+    /**
+     * @return the weight matrix and the bias vector of the Linear layer l of a model
+     */
+    static DoubleMatrix[] weights(Sequential model, int l) {
+        List<DoubleMatrix> weights = model.getLayers()[l].getAllWeights(new ArrayList<DoubleMatrix>());
+        return new DoubleMatrix[] { weights.get(0), weights.get(1) };
+    }
+
+    /**
+     * @return the number of models, including the stopped ones
+     */
+    public int size() {
+        return this.models.length;
+    }
+
+    /**
+     * @return the number of models still in the batch
+     */
+    public int getRunning() {
+        return this.M;
+    }
+
+    /**
+     * @return the number of outputs of each model
+     */
+    public int getOutputDims() {
+        return this.out[this.out.length - 1];
+    }
+
+    /**
+     * Forward pass of all the models still in the batch.
+     * <p>
+     * NOTE: X and the stacked activations are kept (not copied) for the backward pass,
+     * and the returned matrix is overwritten by the next call.
+     * @param X a [minibatch_size x input_dims] matrix, the input of every model
+     * @return a [minibatch_size x M*output_dims] matrix, column block k holds the logits
+     *         of the k-th model still in the batch
+     */
+    public DoubleMatrix forward(DoubleMatrix X) {
+        return forward(X, true);
+    }
+
+    /**
+     * Forward pass into the training buffers (keeping what the backward pass needs), or
+     * into the evaluation buffers.
+     */
+    DoubleMatrix forward(DoubleMatrix X, boolean training) {
+        DoubleMatrix[] Z = training ? this.Z : this.evalZ;
+        int n = X.rows;
+        DoubleMatrix A = X;
+        for (int l = 0; l < this.W.length; l++) {
+            if (this.W[l] == null) {
+                A = training ? activate(l, A) : predict(l, A);
+                continue;
+            }
+            int indims = this.in[l];
+            int outdims = this.out[l];
+            if (training)
+                this.X[l] = A;
+            if (Z[l] == null || Z[l].rows != n || Z[l].columns != M * outdims)
+                Z[l] = new DoubleMatrix(n, M * outdims);
+            double[] z = Z[l].data;
+            if (l == 0) {
+                // the input is shared: one product with all the models' weights side by side
+                Backends.forGemm(n, M * outdims, indims).gemm('N', 'N', n, M * outdims, indims, 1.0,
+                        A.data, 0, n, this.W[l].data, 0, indims, 0.0, z, 0, n);
+            } else {
+                // block diagonal: block k of the output only depends on block k of the input
+                Backend backend = Backends.forGemm(n, outdims, indims);
+                for (int k = 0; k < M; k++)
+                    backend.gemm('N', 'N', n, outdims, indims, 1.0, A.data, k * indims * n, n,
+                            this.W[l].data, k * indims * outdims, indims, 0.0, z, k * outdims * n, n);
+            }
+            Backends.forElementwise(Z[l].length).addRowVector(z, n, M * outdims, this.b[l].data);
+            A = Z[l];
+        }
+        return A;
+    }
+
+    /**
+     * In place activation of the stacked output of layer l - 1.
+     */
+    DoubleMatrix activate(int l, DoubleMatrix A) {
+        Layer[] acts = this.activations[l];
+        if (acts.length == 1)
+            return acts[0].forward(A);
+        int size = A.rows * (A.columns / M);
+        for (int k = 0; k < M; k++) {
+            // the softmax of model k keeps its block for the backward pass
+            DoubleMatrix block = this.blocks[l][k];
+            if (block == null || block.rows != A.rows)
+                block = this.blocks[l][k] = new DoubleMatrix(A.rows, A.columns / M);
+            System.arraycopy(A.data, k * size, block.data, 0, size);
+            acts[k].forward(block);
+            System.arraycopy(block.data, 0, A.data, k * size, size);
+        }
+        return A;
+    }
+
+    /**
+     * In place activation of the stacked output of layer l - 1, keeping nothing for a
+     * backward pass.
+     */
+    DoubleMatrix predict(int l, DoubleMatrix A) {
+        Layer[] acts = this.activations[l];
+        if (acts.length == 1)
+            return acts[0].predict(A, true, null);
+        int size = A.rows * (A.columns / M);
+        if (this.evalBlock == null || this.evalBlock.rows != A.rows || this.evalBlock.columns != A.columns / M)
+            this.evalBlock = new DoubleMatrix(A.rows, A.columns / M);
+        DoubleMatrix block = this.evalBlock;
+        for (int k = 0; k < M; k++) {
+            System.arraycopy(A.data, k * size, block.data, 0, size);
+            acts[k].predict(block, true, null);
+            System.arraycopy(block.data, 0, A.data, k * size, size);
+        }
+        return A;
+    }
+
+    /**
+     * In place backward of the activation of layer l.
+     */
+    DoubleMatrix deactivate(int l, DoubleMatrix gA) {
+        Layer[] acts = this.activations[l];
+        if (acts.length == 1)
+            return acts[0].backward(gA);
+        int size = gA.rows * (gA.columns / M);
+        if (this.gBlock == null || this.gBlock.rows != gA.rows || this.gBlock.columns != gA.columns / M)
+            this.gBlock = new DoubleMatrix(gA.rows, gA.columns / M);
+        DoubleMatrix g = this.gBlock;
+        for (int k = 0; k < M; k++) {
+            System.arraycopy(gA.data, k * size, g.data, 0, size);
+            acts[k].backward(g);
+            System.arraycopy(g.data, 0, gA.data, k * size, size);
+        }
+        return gA;
+    }
+
+    /**
+     * Compute the loss of each model on the output of the last {@link #forward}.
+     * @param Y a [minibatch_size x 1] matrix of labels
+     * @param losses receives the loss of each model still in the batch, at its index
+     */
+    public void loss(DoubleMatrix Y, double[] losses) {
+        DoubleMatrix out = this.Z[this.Z.length - 1];
+        int n = out.rows;
+        int c = getOutputDims();
+        if (this.gOut == null || this.gOut.rows != n || this.gOut.columns != M * c)
+            this.gOut = new DoubleMatrix(n, M * c);
+        for (int k = 0; k < M; k++) {
+            if (this.logits[k] == null || this.logits[k].rows != n)
+                this.logits[k] = new DoubleMatrix(n, c);
+            System.arraycopy(out.data, k * c * n, this.logits[k].data, 0, c * n);
+            losses[this.ids[k]] = this.losses[k].forward(Y, this.logits[k]);
+            System.arraycopy(this.losses[k].backward().data, 0, this.gOut.data, k * c * n, c * n);
+        }
+    }
+
+    /**
+     * Backward pass of all the models from the gradients of their losses (see
+     * {@link #loss}), accumulating the gradients of the weights.
+     */
+    public void backward() {
+        DoubleMatrix G = this.gOut;
+        int n = G.rows;
+        for (int l = this.W.length - 1; l >= 0; l--) {
+            if (this.W[l] == null) {
+                G = deactivate(l, G);
+                continue;
+            }
+            int indims = this.in[l];
+            int outdims = this.out[l];
+            DoubleMatrix A = this.X[l];
+
+            if (l == 0) {
+                // gW += X^T * gY, for all the models at once
+                Backends.forGemm(indims, M * outdims, n).gemm('T', 'N', indims, M * outdims, n, 1.0,
+                        A.data, 0, n, G.data, 0, n, 1.0, this.gW[l].data, 0, indims);
+            } else {
+                Backend backend = Backends.forGemm(indims, outdims, n);
+                for (int k = 0; k < M; k++)
+                    backend.gemm('T', 'N', indims, outdims, n, 1.0, A.data, k * indims * n, n,
+                            G.data, k * outdims * n, n, 1.0, this.gW[l].data, k * indims * outdims, indims);
+            }
+            Backends.forElementwise(G.length).addColumnSums(G.data, n, M * outdims, this.gb[l].data);
+            if (l == 0)
+                break;
+
+            // gX = gY * W^T, block by block
+            if (this.gZ[l] == null || this.gZ[l].rows != n || this.gZ[l].columns != M * indims)
+                this.gZ[l] = new DoubleMatrix(n, M * indims);
+            Backend backend = Backends.forGemm(n, indims, outdims);
+            for (int k = 0; k < M; k++)
+                backend.gemm('N', 'T', n, indims, outdims, 1.0, G.data, k * outdims * n, n,
+                        this.W[l].data, k * indims * outdims, indims, 0.0, this.gZ[l].data, k * indims * n, n);
+            G = this.gZ[l];
+        }
+    }
+
+    /**
+     * Reset the gradients of the weights of all the models.
+     */
+    public void resetGradients() {
+        for (int l = 0; l < this.W.length; l++) {
+            if (this.W[l] != null) {
+                this.gW[l].fill(0);
+                this.gb[l].fill(0);
+            }
+        }
+    }
+
+    /**
+     * SGD update of each model with its own learning rate, {@literal w = w - lr * g}
+     * @param learningRates the learning rate of each model (indexed as the models given to
+     *                      the constructor), the models with a learning rate of 0 are not
+     *                      updated
+     */
+    public void updateWeights(double[] learningRates) {
+        for (int l = 0; l < this.W.length; l++) {
+            if (this.W[l] == null)
+                continue;
+            int size = this.in[l] * this.out[l];
+            int outdims = this.out[l];
+            for (int k = 0; k < M; k++) {
+                double lr = learningRates[this.ids[k]];
+                if (lr == 0)
+                    continue;
+                // in the JVM: a native call would copy the whole stacked arrays for one block
+                axpy(-lr, this.gW[l].data, this.W[l].data, k * size, size);
+                axpy(-lr, this.gb[l].data, this.b[l].data, k * outdims, outdims);
+            }
+        }
+    }
+
+    /**
+     * {@literal y[i] += alpha * x[i]} for i in [offset, offset + n)
+     */
+    static void axpy(double alpha, double[] x, double[] y, int offset, int n) {
+        for (int i = offset; i < offset + n; i++)
+            y[i] += alpha * x[i];
+    }
+
+    /**
+     * One training step of all the models still in the batch on a minibatch: forward,
+     * losses, backward and update.
+     * @param X a [minibatch_size x input_dims] matrix
+     * @param Y a [minibatch_size x 1] matrix of labels
+     * @param learningRates the learning rate of each model (0 to leave a model as it is)
+     * @param losses receives the loss of each model still in the batch
+     */
+    public void step(DoubleMatrix X, DoubleMatrix Y, double[] learningRates, double[] losses) {
+        if (M == 0)
+            return;
+        resetGradients();
+        forward(X);
+        loss(Y, losses);
+        backward();
+        updateWeights(learningRates);
+    }
+
+    /**
+     * Count the correct predictions of each model still in the batch on a minibatch,
+     * leaving the buffers of the training step untouched.
+     * @param X a [minibatch_size x input_dims] matrix
+     * @param Y a [minibatch_size x 1] matrix of labels
+     * @param correct the count of each model still in the batch is incremented
+     */
+    public void countCorrect(DoubleMatrix X, DoubleMatrix Y, long[] correct) {
+        if (M == 0)
+            return;
+        DoubleMatrix out = forward(X, false);
+        int n = out.rows;
+        int c = getOutputDims();
+        double[] y = out.data;
+        for (int k = 0; k < M; k++) {
+            int offset = k * c * n;
+            for (int i = 0; i < n; i++) {
+                int best = 0;
+                for (int j = 1; j < c; j++) {
+                    if (y[offset + j * n + i] > y[offset + best * n + i])
+                        best = j;
+                }
+                if (best == (int) Y.data[i])
+                    correct[this.ids[k]]++;
+            }
+        }
+    }
+
+    /**
+     * Take a model out of the batch: its current weights are copied back into it, and
+     * the following steps no longer compute it. Nothing happens if it is already out.
+     * @param m the index of the model, in the array given to the constructor
+     */
+    public void stop(int m) {
+        int k = 0;
+        while (k < M && this.ids[k] != m)
+            k++;
+        if (k == M)
+            return;
+        copyBack(k);
+
+        for (int l = 0; l < this.W.length; l++) {
+            if (this.W[l] != null) {
+                int indims = this.in[l];
+                int outdims = this.out[l];
+                this.W[l] = new DoubleMatrix(indims, (M - 1) * outdims, dropBlock(this.W[l].data, k, indims * outdims));
+                this.b[l] = new DoubleMatrix((M - 1) * outdims, 1, dropBlock(this.b[l].data, k, outdims));
+                this.gW[l] = new DoubleMatrix(indims, (M - 1) * outdims);
+                this.gb[l] = new DoubleMatrix((M - 1) * outdims);
+            } else if (this.activations[l].length > 1) {
+                this.activations[l] = drop(this.activations[l], new Layer[M - 1], k);
+                this.blocks[l] = drop(this.blocks[l], new DoubleMatrix[M - 1], k);
+            }
+        }
+        this.losses = drop(this.losses, new SoftmaxCrossEntropy[M - 1], k);
+        this.logits = drop(this.logits, new DoubleMatrix[M - 1], k);
+        int[] ids = new int[M - 1];
+        System.arraycopy(this.ids, 0, ids, 0, k);
+        System.arraycopy(this.ids, k + 1, ids, k, M - 1 - k);
+        this.ids = ids;
+        M--;
+    }
+
+    /**
+     * @return a copy of data without the block [k * size, (k + 1) * size)
+     */
+    static double[] dropBlock(double[] data, int k, int size) {
+        double[] kept = new double[data.length - size];
+        System.arraycopy(data, 0, kept, 0, k * size);
+        System.arraycopy(data, (k + 1) * size, kept, k * size, kept.length - k * size);
+        return kept;
+    }
+
+    /**
+     * @return kept, filled with the elements of all but the element k
+     */
+    static <T> T[] drop(T[] all, T[] kept, int k) {
+        System.arraycopy(all, 0, kept, 0, k);
+        System.arraycopy(all, k + 1, kept, k, kept.length - k);
+        return kept;
+    }
+
+    /**
+     * Copy the weights of column block k back into its model.
+     */
+    void copyBack(int k) {
+        Sequential model = this.models[this.ids[k]];
+        for (int l = 0; l < this.W.length; l++) {
+            if (this.W[l] == null)
+                continue;
+            int size = this.in[l] * this.out[l];
+            DoubleMatrix[] Wb = weights(model, l);
+            System.arraycopy(this.W[l].data, k * size, Wb[0].data, 0, size);
+            System.arraycopy(this.b[l].data, k * this.out[l], Wb[1].data, 0, this.out[l]);
+        }
+    }
+
+    /**
+     * Copy the current weights of the models still in the batch back into them (the
+     * stopped ones already have theirs).
+     * @return the models given to the constructor
+     */
+    public Sequential[] unfuse() {
+        for (int k = 0; k < M; k++)
+            copyBack(k);
+        return this.models;
+    }
+}
@@ -0,0 +1,27 @@
+// File: RandomSampler.java
+// RandomSampler class
+package minet;
+
+import java.util.Random;
+
+/**
+ * Random search: every point is drawn independently and uniformly from the search
+ * space (in log scale for log parameters), whatever the results so far.
+ */
+public class RandomSampler implements HyperparameterSearch.Sampler<double[]> {
+
+    SearchSpace space;
+
+    public RandomSampler(SearchSpace space) {
+        this.space = space;
+    }
+
+    @Override
+    public double[] sample(Random rnd) {
+        return this.space.sample(rnd);
+    }
+
+    @Override
+    public void observe(double[] config, double score) {
+    }
+}
@@ -0,0 +1,163 @@
+// File: ResultStore.java
+// ResultStore class
+package minet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An on-disk map from keys (e.g. the feature subset of a trial) to scores, so that the
+ * results of an experiment survive a restart and are not computed again.
+ * <p>
+ * The file is a text file (e.g. a csv file, after an optional header line) with one
+ * <code>key,score</code> line per result, only ever appended to: it is a journal of the
+ * results. Each result is forced to disk before {@link #put} returns, so a result
+ * reported as stored survives a crash of the process or of the machine. When the store
+ * is opened, the results already in the file are loaded and an incomplete last line
+ * (left by a crash while writing it) is cut off. The key must not contain a line break;
+ * it may contain commas, the score is after the last one.
+ * <p>
+ * A store can record what its results are of (e.g. the dataset and the seed of an
+ * experiment) in a first line <code># identity</code>, and then refuses to open a file
+ * holding the results of something else.
+ */
+public class ResultStore implements AutoCloseable {
+
+    RandomAccessFile file;
+    FileChannel channel;
+    Map<String, Double> results = new LinkedHashMap<String, Double>();
+
+    /**
+     * Open (or create) a store.
+     * @param path the file of the store
+     * @throws IOException
+     */
+    public ResultStore(String path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * Open (or create) a store whose file starts with a header line (e.g. the column names
+     * of a csv file).
+     * @param path the file of the store
+     * @param header the first line of the file, written if the file is new (may be null)
+     * @throws IOException
+     */
+    public ResultStore(String path, String header) throws IOException {
+        this(path, header, null);
+    }
+
+    /**
+     * Open (or create) a store of the results of an identified experiment, whose file
+     * starts with the line <code># identity</code>, then the header line.
+     * @param path the file of the store
+     * @param header the line after the identity, written if the file is new (may be null)
+     * @param identity what the results are of, written if the file is new (may be null)
+     * @throws IOException if the file holds the results of another experiment
+     */
+    public ResultStore(String path, String header, String identity) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = this.file.getChannel();
+        byte[] bytes = new byte[(int) this.file.length()];
+        this.file.readFully(bytes);
+
+        String[] head = identity == null ? new String[] {header} : new String[] {"# " + identity, header};
+        int nHead = head[head.length - 1] == null ? head.length - 1 : head.length;
+        int end = 0; // the end of the last complete line
+        int lineNo = 0;
+        for (int p = 0, eol; p < bytes.length; p = eol + 1) {
+            eol = indexOf(bytes, p, (byte) '\n');
+            if (eol < 0)
+                break;
+            String line = new String(bytes, p, eol - p, StandardCharsets.UTF_8);
+            if (lineNo < nHead) {
+                if (!line.equals(head[lineNo])) {
+                    this.file.close();
+                    if (lineNo == 0 && identity != null)
+                        throw new IOException(path + ": holds the results of \"" + line.replaceFirst("^# ", "")
+                                + "\", not of \"" + identity + "\" (delete it to start afresh)");
+                    throw new IOException(path + ": expected the header \"" + head[lineNo] + "\", found \"" + line
+                            + "\"");
+                }
+                lineNo++;
+                end = eol + 1;
+                continue;
+            }
+            int comma = line.lastIndexOf(',');
+            try {
+                if (comma < 0)
+                    throw new NumberFormatException();
+                this.results.put(line.substring(0, comma), Double.parseDouble(line.substring(comma + 1)));
+            } catch (NumberFormatException e) {
+                throw new IOException(path + ": malformed result line: " + line);
+            }
+            end = eol + 1;
+        }
+        this.file.setLength(end);
+        this.channel.position(end);
+        // the lines of the head not (completely) written yet
+        for (int i = lineNo; i < nHead; i++)
+            append(head[i] + "\n");
+    }
+
+    static int indexOf(byte[] bytes, int from, byte b) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the score stored for key, or null if there is none
+     */
+    public synchronized Double get(String key) {
+        return this.results.get(key);
+    }
+
+    public synchronized boolean contains(String key) {
+        return this.results.containsKey(key);
+    }
+
+    /**
+     * Store the score of a key, appending it to the file, and return once it is on disk.
+     */
+    public synchronized void put(String key, double score) throws IOException {
+        if (key.indexOf('\n') >= 0)
+            throw new IllegalArgumentException("a key must not contain a line break: " + key);
+        append(key + "," + score + "\n");
+        this.results.put(key, score);
+    }
+
+    /**
+     * Append a line to the file and force it to disk.
+     */
+    void append(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining())
+            this.channel.write(bytes);
+        this.channel.force(false);
+    }
+
+    /**
+     * @return all stored results, in the order they were stored
+     */
+    public synchronized Map<String, Double> getAll() {
+        return new LinkedHashMap<String, Double>(this.results);
+    }
+
+    public synchronized int size() {
+        return this.results.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+        this.file.close();
+    }
+}
@@ -0,0 +1,163 @@
+// File: SearchSpace.java
+// SearchSpace class
+package minet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The space of a hyperparameter search: named integer, real and categorical
+ * parameters. A point of the space is a <code>double[]</code> holding, for each
+ * parameter in the order they were added, its value (integer and real parameters) or
+ * the index of its value (categorical parameters).
+ */
+public class SearchSpace {
+
+    static final int INT = 0;
+    static final int REAL = 1;
+    static final int CHOICE = 2;
+
+    List<String> names = new ArrayList<String>();
+    List<Integer> kinds = new ArrayList<Integer>();
+    List<double[]> bounds = new ArrayList<double[]>();   // {low, high}, or {0, number of values}
+    List<Boolean> logs = new ArrayList<Boolean>();       // whether sampled uniformly in log scale
+    List<String[]> values = new ArrayList<String[]>();   // the values of categorical parameters
+
+    /**
+     * Add an integer parameter taking values in [low, high].
+     * @param log whether the values are sampled uniformly in log scale (low must be positive)
+     */
+    public SearchSpace addInt(String name, int low, int high, boolean log) {
+        return add(name, INT, low, high, log, null);
+    }
+
+    /**
+     * Add a real parameter taking values in [low, high].
+     * @param log whether the values are sampled uniformly in log scale (low must be positive)
+     */
+    public SearchSpace addReal(String name, double low, double high, boolean log) {
+        return add(name, REAL, low, high, log, null);
+    }
+
+    /**
+     * Add a categorical parameter.
+     */
+    public SearchSpace addChoice(String name, String... choices) {
+        return add(name, CHOICE, 0, choices.length, false, choices);
+    }
+
+    SearchSpace add(String name, int kind, double low, double high, boolean log, String[] choices) {
+        if (this.names.contains(name))
+            throw new IllegalArgumentException("duplicate parameter " + name);
+        if (high < low || (log && low <= 0))
+            throw new IllegalArgumentException("invalid range [" + low + ", " + high + "] for " + name);
+        this.names.add(name);
+        this.kinds.add(kind);
+        this.bounds.add(new double[] {low, high});
+        this.logs.add(log);
+        this.values.add(choices);
+        return this;
+    }
+
+    /**
+     * @return the number of parameters
+     */
+    public int getDims() {
+        return this.names.size();
+    }
+
+    public String getName(int d) {
+        return this.names.get(d);
+    }
+
+    /**
+     * Draw a point uniformly (in log scale for log parameters).
+     */
+    public double[] sample(Random rnd) {
+        double[] point = new double[getDims()];
+        for (int d = 0; d < point.length; d++)
+            point[d] = fromUnit(d, rnd.nextDouble());
+        return point;
+    }
+
+    /**
+     * Map u in [0, 1) to a value of parameter d, uniformly (in log scale for log parameters).
+     */
+    double fromUnit(int d, double u) {
+        double[] b = this.bounds.get(d);
+        switch (this.kinds.get(d)) {
+            case CHOICE:
+                return Math.min((int) (u * b[1]), (int) b[1] - 1);
+            case INT:
+                // each integer gets the same share of [0, 1) (of its log range)
+                return Math.min(Math.floor(toValue(d, toInternal(d, b[0]) + u
+                        * (toInternal(d, b[1] + 1) - toInternal(d, b[0])))), b[1]);
+            default:
+                return toValue(d, toInternal(d, b[0]) + u * (toInternal(d, b[1]) - toInternal(d, b[0])));
+        }
+    }
+
+    /**
+     * The scale in which parameter d is searched: log for log parameters.
+     */
+    double toInternal(int d, double v) {
+        return this.logs.get(d) ? Math.log(v) : v;
+    }
+
+    double toValue(int d, double x) {
+        return this.logs.get(d) ? Math.exp(x) : x;
+    }
+
+    /**
+     * Clip (and round, for integers) a value of parameter d into its range.
+     */
+    double clip(int d, double v) {
+        double[] b = this.bounds.get(d);
+        if (this.kinds.get(d) == INT)
+            v = Math.round(v);
+        return Math.max(b[0], Math.min(b[1], v));
+    }
+
+    int index(String name) {
+        int d = this.names.indexOf(name);
+        if (d < 0)
+            throw new IllegalArgumentException("unknown parameter " + name);
+        return d;
+    }
+
+    public int getInt(double[] point, String name) {
+        return (int) point[index(name)];
+    }
+
+    public double getReal(double[] point, String name) {
+        return point[index(name)];
+    }
+
+    public String getChoice(double[] point, String name) {
+        int d = index(name);
+        return this.values.get(d)[(int) point[d]];
+    }
+
+    /**
+     * @return the point as comma-separated values, in the order of the parameters
+     */
+    public String toString(double[] point) {
+        StringBuilder sb = new StringBuilder();
+        for (int d = 0; d < point.length; d++) {
+            if (d > 0)
+                sb.append(',');
+            switch (this.kinds.get(d)) {
+                case CHOICE:
+                    sb.append(this.values.get(d)[(int) point[d]]);
+                    break;
+                case INT:
+                    sb.append((int) point[d]);
+                    break;
+                default:
+                    sb.append(point[d]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,293 @@
+// File: SparseDataset.java
+// SparseDataset class
+package minet;
+
+import minet.util.SparseMatrix;
+import org.jblas.DoubleMatrix;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A dataset whose feature values are mostly zero, stored in compressed sparse row
+ * format. Minibatches can be taken as {@link SparseMatrix} inputs (see
+ * {@link #getNextSparseMiniBatch(int)}), which a network whose first layer is a
+ * <code>Linear</code> processes in time proportional to the number of nonzeros. The
+ * dense minibatch methods inherited from {@link Dataset} still work, by filling in
+ * the zeros (standardised, if a transform is set).
+ * <p>
+ * Feature views (see {@link #select(int...)}) filter and renumber the nonzeros of each
+ * row as minibatches are assembled.
+ */
+public class SparseDataset extends Dataset {
+
+    /**
+     * A minibatch with sparse inputs.
+     */
+    public static class Batch {
+        public SparseMatrix X;
+        public DoubleMatrix Y;
+    }
+
+    int[] rowPtr;     // the nonzeros of stored instance i are at [rowPtr[i], rowPtr[i + 1])
+    int[] colIdx;
+    double[] values;
+
+    Batch batchBuf;   // reused by getNextSparseMiniBatch
+    int[] featureOf;  // featureOf[c] is the feature of a view at stored column c, -1 if not
+                      // selected (null for all the columns, in order)
+
+    /**
+     * @param size number of instances
+     * @param xDims number of input features
+     * @param yDims number of output variables
+     * @param rowPtr, colIdx, values the feature values in CSR format
+     * @param Y output values, row-major (size * yDims)
+     */
+    SparseDataset(int size, int xDims, int yDims, int[] rowPtr, int[] colIdx, double[] values, double[] Y) {
+        super(size, xDims, yDims, null, Y);
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.values = values;
+    }
+
+    /**
+     * Loading instances stored in a sparse txt file.
+     * <p>
+     * First Line: <code>[number_of_instances] [x_dims] [y_dims]</code>, as for
+     * {@link Dataset#loadTxt(String)}.
+     * <p>
+     * Each following line: [the nonzero features as <code>index:value</code> pairs separated by
+     * a space, indices from 0 and increasing] ; [<code>y_dims</code> float numbers separated by a space]
+     *
+     * @param path a string, the path of the txt file.
+     * @return a SparseDataset
+     * @throws IOException
+     */
+    public static SparseDataset loadTxt(String path) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            // first line: [number of samples] [xDims] [yDims]
+            String[] ss = br.readLine().trim().split(" ");
+            int size = Integer.valueOf(ss[0]);
+            int xDims = Integer.valueOf(ss[1]);
+            int yDims = Integer.valueOf(ss[2]);
+
+            int[] rowPtr = new int[size + 1];
+            int[] colIdx = new int[Math.max(16, size)];
+            double[] values = new double[colIdx.length];
+            double[] Y = new double[size * yDims];
+            int nnz = 0;
+            for (int i = 0; i < size; i++) {
+                String line = br.readLine();
+                if (line == null)
+                    throw new IOException(path + ": expected " + size + " instances, found " + i);
+                // each line : [index:value ...] ; [entries of Y]
+                byte[] s = line.getBytes(StandardCharsets.ISO_8859_1);
+                int sep = TxtLoader.indexOf(s, 0, s.length, (byte) ';');
+                if (sep < 0)
+                    throw new IOException(path + ": missing ';' in line " + (i + 2));
+                int prev = -1;
+                for (int p = 0; p < sep; ) {
+                    while (p < sep && s[p] == ' ')
+                        p++;
+                    if (p == sep)
+                        break;
+                    int q = p;
+                    while (q < sep && s[q] != ' ')
+                        q++;
+                    int colon = TxtLoader.indexOf(s, p, q, (byte) ':');
+                    if (colon < 0)
+                        throw new IOException(path + ": expected index:value in line " + (i + 2));
+                    int j = Integer.parseInt(new String(s, p, colon - p, StandardCharsets.ISO_8859_1));
+                    if (j <= prev || j >= xDims)
+                        throw new IOException(path + ": feature index " + j + " out of order or range in line " + (i + 2));
+                    prev = j;
+                    double v = TxtLoader.parseDouble(s, colon + 1, q);
+                    if (v != 0) {
+                        if (nnz == colIdx.length) {
+                            colIdx = Arrays.copyOf(colIdx, 2 * nnz);
+                            values = Arrays.copyOf(values, 2 * nnz);
+                        }
+                        colIdx[nnz] = j;
+                        values[nnz++] = v;
+                    }
+                    p = q;
+                }
+                int q = TxtLoader.Chunk.parseRow(s, sep + 1, s.length, Y, i * yDims, yDims, (byte) '\n');
+                if (q < s.length && line.substring(q).trim().length() > 0)
+                    throw new IOException(path + ": too many values in line " + (i + 2));
+                rowPtr[i + 1] = nnz;
+            }
+            return new SparseDataset(size, xDims, yDims, rowPtr, Arrays.copyOf(colIdx, nnz),
+                    Arrays.copyOf(values, nnz), Y);
+        }
+    }
+
+    /**
+     * The number of stored (nonzero) feature values.
+     */
+    public int nnz() {
+        return this.rowPtr[this.size];
+    }
+
+    /**
+     * Get the instances [start, end) of the current ordering as a minibatch with sparse inputs.
+     * The stored values are served as they are, so this is not available once a transform
+     * is set (see {@link #hasSparseMiniBatches()}).
+     * @param buf a minibatch to copy the instances into, its arrays are reused if large enough
+     *            (may be null)
+     * @return buf, or a new minibatch if buf was null
+     */
+    public Batch getSparseMiniBatch(int start, int end, Batch buf) {
+        if (!hasSparseMiniBatches())
+            throw new IllegalStateException("a standardised SparseDataset only has dense minibatches");
+        int n = end - start;
+        if (buf == null)
+            buf = new Batch();
+        int[] f = this.featureOf;
+        int nnz = 0;
+        for (int i = start; i < end; i++) {
+            int row = this.index[i];
+            if (f == null) {
+                nnz += this.rowPtr[row + 1] - this.rowPtr[row];
+            } else {
+                for (int k = this.rowPtr[row]; k < this.rowPtr[row + 1]; k++) {
+                    if (f[this.colIdx[k]] >= 0)
+                        nnz++;
+                }
+            }
+        }
+
+        SparseMatrix X = buf.X;
+        if (X == null || X.rowPtr.length < n + 1 || X.colIdx.length < nnz) {
+            X = new SparseMatrix(n, this.xDims, new int[n + 1], new int[nnz], new double[nnz]);
+            buf.X = X;
+        }
+        X.rows = n;
+        X.columns = this.xDims;
+        if (buf.Y == null || buf.Y.rows != n || buf.Y.columns != this.yDims)
+            buf.Y = new DoubleMatrix(n, this.yDims);
+
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int row = this.index[start + i];
+            if (f == null) {
+                int from = this.rowPtr[row], len = this.rowPtr[row + 1] - from;
+                System.arraycopy(this.colIdx, from, X.colIdx, k, len);
+                System.arraycopy(this.values, from, X.values, k, len);
+                k += len;
+            } else {
+                // in the order of the stored columns, which is not necessarily that of the
+                // features (the layers do not need sorted rows)
+                for (int p = this.rowPtr[row]; p < this.rowPtr[row + 1]; p++) {
+                    int j = f[this.colIdx[p]];
+                    if (j < 0)
+                        continue;
+                    X.colIdx[k] = j;
+                    X.values[k++] = this.values[p];
+                }
+            }
+            X.rowPtr[i + 1] = k;
+            gatherY(i, row, buf.Y);
+        }
+        return buf;
+    }
+
+    /**
+     * Whether {@link #getSparseMiniBatch} and {@link #getNextSparseMiniBatch} are available,
+     * i.e. whether no transform is set.
+     */
+    public boolean hasSparseMiniBatches() {
+        return this.transform == null;
+    }
+
+    /**
+     * Get the next minibatch of size batchsize with sparse inputs.
+     * <p>
+     * NOTE: the returned minibatch is reused by the next call.
+     * @return the minibatch, or null at the end of the dataset
+     */
+    public Batch getNextSparseMiniBatch(int batchsize) {
+        if (this.currIndex >= this.getSize()) {
+            this.currIndex = 0;
+            return null;
+        }
+
+        int start = this.currIndex;
+        int end = Math.min(start + batchsize, this.getSize());
+        this.currIndex = end;
+        this.batchBuf = getSparseMiniBatch(start, end, this.batchBuf);
+        return this.batchBuf;
+    }
+
+    @Override
+    void gather(int start, DoubleMatrix bX, DoubleMatrix bY, Standardizer t) {
+        int n = bX.rows;
+        // the zeros first, then the nonzeros over them
+        if (t == null) {
+            Arrays.fill(bX.data, 0, n * this.xDims, 0);
+        } else {
+            for (int j = 0; j < this.xDims; j++)
+                Arrays.fill(bX.data, j * n, (j + 1) * n, t.apply(j, 0));
+        }
+        int[] f = this.featureOf;
+        for (int i = 0; i < n; i++) {
+            int row = this.index[start + i];
+            for (int k = this.rowPtr[row]; k < this.rowPtr[row + 1]; k++) {
+                int j = f == null ? this.colIdx[k] : f[this.colIdx[k]];
+                if (j >= 0)
+                    bX.data[j * n + i] = t == null ? this.values[k] : t.apply(j, this.values[k]);
+            }
+            gatherY(i, row, bY);
+        }
+    }
+
+    /**
+     * Get all feature values (X), as dense rows in the current ordering (and standardised
+     * if a transform is set)
+     * @return a matrix
+     */
+    @Override
+    public double[][] getX() {
+        Standardizer t = this.transform;
+        int[] f = this.featureOf;
+        double[][] X = new double[this.size][this.xDims];
+        for (int i = 0; i < this.size; i++) {
+            if (t != null) {
+                for (int j = 0; j < this.xDims; j++)
+                    X[i][j] = t.apply(j, 0);
+            }
+            int row = this.index[i];
+            for (int k = this.rowPtr[row]; k < this.rowPtr[row + 1]; k++) {
+                int j = f == null ? this.colIdx[k] : f[this.colIdx[k]];
+                if (j >= 0)
+                    X[i][j] = t == null ? this.values[k] : t.apply(j, this.values[k]);
+            }
+        }
+        return X;
+    }
+
+    /**
+     * Get a view of this dataset exposing only some (distinct) features of it, see
+     * {@link Dataset#select(int...)}.
+     */
+    @Override
+    public Dataset select(int... features) {
+        SparseDataset view = (SparseDataset) super.select(features);
+        view.featureOf = new int[this.xStride];
+        Arrays.fill(view.featureOf, -1);
+        for (int j = 0; j < features.length; j++)
+            view.featureOf[view.column(j)] = j;
+        return view;
+    }
+
+    @Override
+    Dataset view() {
+        SparseDataset view = (SparseDataset) super.view();
+        view.batchBuf = null;
+        return view;
+    }
+}
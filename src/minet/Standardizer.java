@@ -0,0 +1,210 @@
+// File: Standardizer.java
+// Standardizer class
+package minet;
+
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Standardisation of the input features with imputation of missing values.
+ * <p>
+ * Each feature is centred on its mean and divided by its (sample) standard
+ * deviation, both computed over the non-missing entries only. A missing entry
+ * (the sentinel value, or NaN) is replaced by 0, i.e. by the mean.
+ * <p>
+ * A standardizer is fitted on a training set with {@link #fit(Dataset)} and then
+ * attached to datasets with {@link Dataset#setTransform(Standardizer)}, which applies
+ * it while assembling each minibatch. It is serializable, so it can be stored
+ * together with a model.
+ */
+public class Standardizer implements java.io.Serializable, Cloneable {
+
+    private static final long serialVersionUID = 4710326458231846312L;
+
+    /**
+     * The value marking a missing entry in the datasets of this project.
+     */
+    public static final double MISSING = 99999;
+
+    static final int CHUNK_ROWS = 8192;
+
+    double missing;
+    long[] count;    // number of non-missing entries of each feature
+    double[] mean;
+    double[] std;
+    double[] scale;  // 1 / std
+
+    Standardizer(double missing, long[] count, double[] mean, double[] m2) {
+        this.missing = missing;
+        this.count = count;
+        this.mean = mean;
+        this.std = new double[mean.length];
+        this.scale = new double[mean.length];
+        for (int j = 0; j < mean.length; j++) {
+            this.std[j] = count[j] > 1 ? Math.sqrt(m2[j] / (count[j] - 1)) : 0;
+            // a constant feature is only centred
+            this.scale[j] = this.std[j] > 0 ? 1 / this.std[j] : 1;
+        }
+    }
+
+    /**
+     * Fit a standardizer on the input features of a dataset, with {@link #MISSING} marking
+     * missing entries.
+     */
+    public static Standardizer fit(Dataset data) {
+        return fit(data, MISSING);
+    }
+
+    /**
+     * Fit a standardizer on the input features of a dataset in a single pass: chunks of
+     * instances are summarised in parallel with Welford's algorithm, and the summaries are
+     * merged pairwise (Chan et al.), so the result does not depend on the ordering.
+     * @param data a dataset, any transform attached to it is ignored
+     * @param missing the value marking missing entries
+     */
+    public static Standardizer fit(Dataset data, double missing) {
+        int dims = data.getInputDims();
+        List<Callable<double[][]>> tasks = new ArrayList<Callable<double[][]>>();
+        for (int start = 0; start < data.getSize(); start += CHUNK_ROWS) {
+            int s = start;
+            int e = Math.min(start + CHUNK_ROWS, data.getSize());
+            tasks.add(() -> summarise(data, s, e, missing));
+        }
+
+        double[] n = new double[dims], mean = new double[dims], m2 = new double[dims];
+        try {
+            for (Future<double[][]> f : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                double[][] c = f.get();
+                for (int j = 0; j < dims; j++) {
+                    double nb = c[0][j];
+                    if (nb == 0)
+                        continue;
+                    double total = n[j] + nb;
+                    double delta = c[1][j] - mean[j];
+                    mean[j] += delta * nb / total;
+                    m2[j] += c[2][j] + delta * delta * n[j] * nb / total;
+                    n[j] = total;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+
+        long[] count = new long[dims];
+        for (int j = 0; j < dims; j++)
+            count[j] = (long) n[j];
+        return new Standardizer(missing, count, mean, m2);
+    }
+
+    /**
+     * Welford's algorithm over the instances [start, end) of a dataset
+     * @return {count, mean, sum of squared deviations} of each feature
+     */
+    static double[][] summarise(Dataset data, int start, int end, double missing) {
+        int rows = end - start;
+        DoubleMatrix X = new DoubleMatrix(rows, data.getInputDims());
+        data.gather(start, X, new DoubleMatrix(rows, data.getOutDims()), null);
+
+        double[][] c = new double[3][X.columns];
+        for (int j = 0; j < X.columns; j++) {
+            long n = 0;
+            double mean = 0, m2 = 0;
+            for (int i = 0, k = j * rows; i < rows; i++, k++) {
+                double v = X.data[k];
+                if (v == missing || Double.isNaN(v))
+                    continue;
+                n++;
+                double delta = v - mean;
+                mean += delta / n;
+                m2 += delta * (v - mean);
+            }
+            c[0][j] = n;
+            c[1][j] = mean;
+            c[2][j] = m2;
+        }
+        return c;
+    }
+
+    /**
+     * Standardise value v of feature j.
+     */
+    public double apply(int j, double v) {
+        if (v == this.missing || Double.isNaN(v))
+            return 0;
+        return (v - this.mean[j]) * this.scale[j];
+    }
+
+    /**
+     * Standardise the (column-major) feature matrix of a minibatch in place.
+     */
+    public void transform(DoubleMatrix X) {
+        int n = X.rows;
+        for (int j = 0; j < X.columns; j++) {
+            double m = this.mean[j], s = this.scale[j];
+            for (int k = j * n, end = k + n; k < end; k++) {
+                double v = X.data[k];
+                X.data[k] = v == this.missing || Double.isNaN(v) ? 0 : (v - m) * s;
+            }
+        }
+    }
+
+    /**
+     * Standardise the feature matrix of a minibatch in place.
+     */
+    public void transform(Pair<DoubleMatrix> batch) {
+        transform(batch.first);
+    }
+
+    /**
+     * Get the standardizer of some of the features (see {@link Dataset#select(int...)}).
+     * @param features indices of the features to keep
+     */
+    public Standardizer select(int[] features) {
+        Standardizer s;
+        try {
+            s = (Standardizer) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        s.count = new long[features.length];
+        s.mean = new double[features.length];
+        s.std = new double[features.length];
+        s.scale = new double[features.length];
+        for (int j = 0; j < features.length; j++) {
+            s.count[j] = this.count[features[j]];
+            s.mean[j] = this.mean[features[j]];
+            s.std[j] = this.std[features[j]];
+            s.scale[j] = this.scale[features[j]];
+        }
+        return s;
+    }
+
+    public int getDims() {
+        return this.mean.length;
+    }
+
+    public double[] getMean() {
+        return this.mean;
+    }
+
+    public double[] getStd() {
+        return this.std;
+    }
+
+    /**
+     * The number of non-missing entries of each feature in the fitted dataset.
+     */
+    public long[] getCount() {
+        return this.count;
+    }
+}
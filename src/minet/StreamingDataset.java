@@ -0,0 +1,438 @@
+// File: StreamingDataset.java
+// StreamingDataset class
+package minet;
+
+import minet.util.Pair;
+import org.jblas.DoubleMatrix;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dataset in the minet binary format (see {@link MappedDataset}) that is read from
+ * disk during training, so it can be much larger than the heap.
+ * <p>
+ * The instances are cut into shards of consecutive instances. An epoch reads the
+ * shards in a shuffled order, a window of several shards at a time, and serves the
+ * instances of each window in a shuffled order. While a window is being served, a
+ * reader thread fills a second one with the next shards, so reading overlaps with
+ * training. Only the two windows live in the heap.
+ * <p>
+ * The positions of the instances are always those of the file: {@link #getMiniBatch(int,
+ * int, Pair)} (used by e.g. <code>ANN.eval</code>), {@link #subset(int[])} and the splits
+ * built on it ({@link #holdout(double)}, {@link #kFold(int)}, ...) address instances in the
+ * order of the file, and {@link #shuffle(Random)} does not change them; only
+ * {@link #getNextMiniBatch(int)} and {@link #nextMiniBatch(int, Pair)} follow the shuffled
+ * order. Shuffle the file when converting it if a split must be random.
+ * <p>
+ * Subsets and feature views ({@link #select(int...)}) share the file, and have their own
+ * windows and reader thread, allocated when their first epoch starts. A subset is read as
+ * runs of consecutive instances of the file, so it streams fastest when its positions are
+ * few ranges (as in holdout and kFold splits).
+ */
+public class StreamingDataset extends Dataset {
+
+    /**
+     * A window of instances read from disk, column by column.
+     */
+    class Window {
+        int rows;
+        double[][] cols;  // cols[j][i], j < xDims are the features, the rest the outputs
+        int[] perm;       // the order in which the rows are served
+        ByteBuffer bytes; // read buffer for one shard column
+
+        Window(int capacity) {
+            this.cols = new double[xDims + yDims][capacity];
+            this.perm = new int[capacity];
+            this.bytes = ByteBuffer.allocateDirect(shardRows * 8).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Read shards shardOrder[first], ..., shardOrder[first + count - 1] and shuffle them.
+         */
+        Window fill(int first, int count, long seed) throws IOException {
+            this.rows = 0;
+            for (int k = first; k < first + count; k++) {
+                int rowStart = shardOrder[k] * shardRows;
+                int len = Math.min(shardRows, size - rowStart);
+                for (int c = 0; c < this.cols.length; c++) {
+                    readColumn(c, rowStart, len, this.bytes);
+                    this.bytes.asDoubleBuffer().get(this.cols[c], this.rows, len);
+                }
+                this.rows += len;
+            }
+
+            Random rnd = new Random(seed);
+            for (int i = 0; i < this.rows; i++)
+                this.perm[i] = i;
+            for (int i = this.rows - 1; i > 0; i--) {
+                int index = rnd.nextInt(i + 1);
+                int tmp = this.perm[i];
+                this.perm[i] = this.perm[index];
+                this.perm[index] = tmp;
+            }
+            return this;
+        }
+    }
+
+    RandomAccessFile file;
+    FileChannel channel;
+    int fileRows;       // the number of instances in the file
+    int[] runStarts;    // run r holds the positions [runStarts[r], runStarts[r + 1]),
+    int[] runRows;      // which are the rows runRows[r], ... of the file
+    boolean owner;      // this dataset opened the file (and not a subset or view of it)
+    int shardRows;
+    int windowShards;
+    int[] shardOrder;   // the order in which shards are read in the current epoch
+    long epochSeed;     // seeds the shuffling within the windows of the current epoch
+
+    // how long the reader thread of a dataset outlives its last read
+    static final long READER_KEEP_ALIVE_SECONDS = 5;
+    ExecutorService reader;
+    Window[] windows;   // the window being served, and the one being filled (null until the first epoch)
+    Window current;
+    int pos;            // position in the current window
+    Future<Window> pending;
+    int nextShard;      // first shard (in shardOrder) of the next window to read
+    int windowCount;    // number of windows read in the current epoch
+    boolean stale;      // the epoch has ended, the next minibatch restarts it
+
+    // read buffer of gather, per thread as Standardizer.fit and ANN.eval gather chunks in parallel
+    ThreadLocal<ByteBuffer> gatherBytes = new ThreadLocal<ByteBuffer>();
+
+    /**
+     * @param path a binary dataset file
+     * @param shardRows the number of consecutive instances in a shard
+     * @param windowShards the number of shards in a window
+     * @throws IOException
+     */
+    public StreamingDataset(String path, int shardRows, int windowShards) throws IOException {
+        this(path, MappedDataset.readHeader(path), shardRows, windowShards);
+    }
+
+    /**
+     * A streaming dataset with windows of 16 shards of 65536 instances.
+     * @param path a binary dataset file
+     * @throws IOException
+     */
+    public StreamingDataset(String path) throws IOException {
+        this(path, 1 << 16, 16);
+    }
+
+    StreamingDataset(String path, int[] header, int shardRows, int windowShards) throws IOException {
+        super(header[0], header[1], header[2], false);
+        this.file = new RandomAccessFile(path, "r");
+        this.channel = this.file.getChannel();
+        this.fileRows = header[0];
+        this.runStarts = new int[] {0};
+        this.runRows = new int[] {0};
+        this.owner = true;
+        this.shardRows = shardRows;
+        this.windowShards = windowShards;
+        detach();
+    }
+
+    /**
+     * Give this dataset (a new one, or a view of another) its own shards and minibatch
+     * iteration; the windows and the reader thread are allocated by the first epoch.
+     */
+    void detach() {
+        int nShards = (int) (((long) this.size + this.shardRows - 1) / this.shardRows);
+        this.shardOrder = new int[nShards];
+        for (int i = 0; i < nShards; i++)
+            this.shardOrder[i] = i;
+        this.epochSeed = 0;
+        this.reader = null;
+        this.windows = null;
+        this.current = null;
+        this.pending = null;
+        this.gatherBytes = new ThreadLocal<ByteBuffer>();
+        this.currIndex = 0;
+        this.stale = true;
+    }
+
+    /**
+     * Read the instances at positions [start, start + len) of column c into buf, where the
+     * columns are the features of this dataset followed by its outputs.
+     */
+    void readColumn(int c, int start, int len, ByteBuffer buf) throws IOException {
+        int col = c < this.xDims ? column(c) : this.xStride + c - this.xDims;
+        long colOffset = MappedDataset.HEADER_BYTES + (long) col * this.fileRows * 8;
+        buf.clear();
+        int p = start;
+        while (p < start + len) {
+            // the longest read of consecutive rows of the file
+            int r = run(p);
+            int runEnd = r + 1 < this.runStarts.length ? this.runStarts[r + 1] : this.size;
+            int count = Math.min(runEnd, start + len) - p;
+            int first = buf.position();
+            buf.limit(first + count * 8);
+            long offset = colOffset + (long) (this.runRows[r] + p - this.runStarts[r]) * 8;
+            while (buf.hasRemaining()) {
+                if (this.channel.read(buf, offset + buf.position() - first) < 0)
+                    throw new IOException("unexpected end of file");
+            }
+            p += count;
+        }
+        buf.flip();
+    }
+
+    /**
+     * Start reading the next window into w, null if all shards have been read.
+     */
+    Future<Window> readNext(Window w) {
+        if (this.nextShard >= this.shardOrder.length)
+            return null;
+        int first = this.nextShard;
+        int count = Math.min(this.windowShards, this.shardOrder.length - first);
+        long seed = this.epochSeed + this.windowCount++;
+        this.nextShard += count;
+        return this.reader.submit(() -> w.fill(first, count, seed));
+    }
+
+    /**
+     * Restart the epoch in the current shard order.
+     */
+    void restart() {
+        awaitPending();
+        if (this.windows == null) {
+            int capacity = (int) Math.min((long) this.shardRows * this.windowShards, this.size);
+            this.windows = new Window[] {new Window(capacity), new Window(capacity)};
+            // the thread ends once idle, as views are rarely closed (e.g. folds, feature subsets)
+            ThreadPoolExecutor reader = new ThreadPoolExecutor(1, 1, READER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread t = new Thread(r, "minet-stream");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            reader.allowCoreThreadTimeOut(true);
+            this.reader = reader;
+        }
+        this.current = null;
+        this.nextShard = 0;
+        this.windowCount = 0;
+        this.pending = readNext(this.windows[0]);
+        this.currIndex = 0;
+        this.stale = false;
+    }
+
+    Window awaitPending() {
+        if (this.pending == null)
+            return null;
+        try {
+            return this.pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        } finally {
+            this.pending = null;
+        }
+    }
+
+    /**
+     * Must be called before each epoch to reset the minibatch iteration, which restarts
+     * reading the shards in the same order.
+     */
+    @Override
+    public void reset() {
+        restart();
+    }
+
+    /**
+     * Shuffle the order of the shards, and the order of the instances within each window
+     * of the next epoch.
+     * @param rnd a random generator
+     */
+    @Override
+    public void shuffle(Random rnd) {
+        for (int i = this.shardOrder.length - 1; i > 0; i--) {
+            int index = rnd.nextInt(i + 1);
+            int tmp = this.shardOrder[i];
+            this.shardOrder[i] = this.shardOrder[index];
+            this.shardOrder[index] = tmp;
+        }
+        this.epochSeed = rnd.nextLong();
+        restart();
+    }
+
+    @Override
+    public Pair<DoubleMatrix> nextMiniBatch(int batchsize, Pair<DoubleMatrix> buf) {
+        if (this.stale)
+            restart();
+        if (this.currIndex >= this.size) {
+            this.stale = true;
+            return null;
+        }
+
+        int n = Math.min(batchsize, this.size - this.currIndex);
+        if (buf == null || buf.first.rows != n || buf.first.columns != this.xDims
+                || buf.second.columns != this.yDims) {
+            buf = new Pair<DoubleMatrix>(new DoubleMatrix(n, this.xDims), new DoubleMatrix(n, this.yDims));
+        }
+        for (int i = 0; i < n; i++) {
+            if (this.current == null || this.pos == this.current.rows) {
+                Window next = awaitPending();
+                // the served window is now free, read the following one into it
+                this.pending = readNext(next == this.windows[0] ? this.windows[1] : this.windows[0]);
+                this.current = next;
+                this.pos = 0;
+            }
+            int row = this.current.perm[this.pos++];
+            for (int j = 0; j < this.xDims; j++)
+                buf.first.data[j * n + i] = this.current.cols[j][row];
+            for (int j = 0; j < this.yDims; j++)
+                buf.second.data[j * n + i] = this.current.cols[this.xDims + j][row];
+        }
+        if (this.transform != null)
+            this.transform.transform(buf.first);
+        this.currIndex += n;
+        return buf;
+    }
+
+    /**
+     * Read the instances at positions [start, start + bX.rows) (in the order of the file)
+     * directly from disk.
+     */
+    @Override
+    void gather(int start, DoubleMatrix bX, DoubleMatrix bY, Standardizer t) {
+        int n = bX.rows;
+        // a column of the file is a column of the (column-major) minibatch
+        ByteBuffer bytes = this.gatherBytes.get();
+        if (bytes == null || bytes.capacity() < n * 8) {
+            bytes = ByteBuffer.allocateDirect(n * 8).order(ByteOrder.LITTLE_ENDIAN);
+            this.gatherBytes.set(bytes);
+        }
+        try {
+            for (int j = 0; j < this.xDims + this.yDims; j++) {
+                readColumn(j, start, n, bytes);
+                if (j < this.xDims)
+                    bytes.asDoubleBuffer().get(bX.data, j * n, n);
+                else
+                    bytes.asDoubleBuffer().get(bY.data, (j - this.xDims) * n, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (t != null)
+            t.transform(bX);
+    }
+
+    /**
+     * The labels of the instances in the order of the file, read a shard at a time.
+     */
+    @Override
+    int[] positionLabels() {
+        int[] labels = new int[this.size];
+        ByteBuffer bytes = ByteBuffer.allocateDirect(this.shardRows * 8).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (int start = 0; start < this.size; start += this.shardRows) {
+                int len = Math.min(this.shardRows, this.size - start);
+                readColumn(this.xDims, start, len, bytes);
+                for (int i = 0; i < len; i++)
+                    labels[start + i] = (int) bytes.getDouble(i * 8);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return labels;
+    }
+
+    /**
+     * Get all feature values (X) in the order of the file (and standardised if a transform
+     * is set). The dataset must fit in the heap.
+     */
+    @Override
+    public double[][] getX() {
+        return getAllData().first.toArray2();
+    }
+
+    /**
+     * Get all labels (Y) in the order of the file. The dataset must fit in the heap.
+     */
+    @Override
+    public double[][] getY() {
+        return getAllData().second.toArray2();
+    }
+
+    /**
+     * Get a view of this dataset exposing only some of its features (see
+     * {@link Dataset#select(int...)}), streamed from the same file.
+     */
+    @Override
+    public Dataset select(int... features) {
+        StreamingDataset view = (StreamingDataset) super.select(features);
+        view.owner = false;
+        view.detach();
+        return view;
+    }
+
+    /**
+     * Get a view of some of the instances of this dataset, streamed from the same file.
+     * @param positions positions of the instances in the order of the file, which become
+     *                  the positions of the view
+     */
+    @Override
+    public Dataset subset(int[] positions) {
+        // positions -> rows of the file, as runs of consecutive rows
+        int nRuns = 0;
+        int[] starts = new int[positions.length];
+        int[] rows = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            int row = fileRow(positions[i]);
+            if (nRuns == 0 || row != rows[nRuns - 1] + i - starts[nRuns - 1]) {
+                starts[nRuns] = i;
+                rows[nRuns++] = row;
+            }
+        }
+        StreamingDataset view = (StreamingDataset) view();
+        view.runStarts = Arrays.copyOf(starts, nRuns);
+        view.runRows = Arrays.copyOf(rows, nRuns);
+        view.size = positions.length;
+        view.owner = false;
+        view.detach();
+        return view;
+    }
+
+    /**
+     * The row of the file holding the instance at position p.
+     */
+    int fileRow(int p) {
+        int r = run(p);
+        return this.runRows[r] + p - this.runStarts[r];
+    }
+
+    /**
+     * The run holding position p.
+     */
+    int run(int p) {
+        int r = Arrays.binarySearch(this.runStarts, p);
+        return r < 0 ? -r - 2 : r;
+    }
+
+    /**
+     * Stop the reader thread, and close the file if this dataset opened it (which ends
+     * the subsets and views of it as well).
+     */
+    public void close() throws IOException {
+        if (this.reader != null)
+            this.reader.shutdownNow();
+        if (this.owner) {
+            this.channel.close();
+            this.file.close();
+        }
+    }
+}
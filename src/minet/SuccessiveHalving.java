@@ -0,0 +1,207 @@
+// File: SuccessiveHalving.java
+// SuccessiveHalving class
+package minet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * A budget-aware scheduler for hyperparameter trials: successive halving and Hyperband
+ * (Li et al., 2018).
+ * <p>
+ * Successive halving trains many configurations for a small number of epochs, keeps
+ * the best 1/eta of them, trains those eta times longer, and so on until the maximum
+ * number of epochs is reached. Trials are resumed rather than restarted (see
+ * {@link Trial}), so a configuration that survives to the end has been trained for the
+ * maximum number of epochs exactly once. Hyperband runs successive halving several
+ * times ("brackets"), from many configurations and a small initial budget to a few
+ * configurations trained for the maximum number of epochs from the start.
+ * <p>
+ * The trials of a rung run concurrently (see {@link HyperparameterSearch}), each with
+ * its own random generator derived from the seed and the trial number.
+ */
+public class SuccessiveHalving<C> {
+
+    /**
+     * A configuration being trained, which can be resumed.
+     */
+    public interface Trial {
+        /**
+         * Continue training for up to epochs more epochs (fewer if the training has ended,
+         * e.g. by early stopping).
+         * @return the score of the configuration so far (e.g. its best validation accuracy),
+         *         higher is better
+         */
+        double train(int epochs) throws Exception;
+
+        /**
+         * @return the number of epochs trained so far
+         */
+        int getEpochs();
+    }
+
+    /**
+     * Starts the training of a configuration.
+     */
+    public interface TrialFactory<C> {
+        /**
+         * @param trial the trial number
+         * @param config the configuration to train
+         * @param rnd the random generator of the trial, for weight initialisation and shuffling
+         * @return the (untrained) trial
+         */
+        Trial create(int trial, C config, Random rnd) throws Exception;
+    }
+
+    /**
+     * Receives the score of each trial at the end of each rung.
+     */
+    public interface Listener<C> {
+        void rung(int trial, C config, int epochs, double score) throws Exception;
+    }
+
+    /**
+     * A trial and its standing.
+     */
+    public static class Result<C> {
+        public final int trial;
+        public final C config;
+        public double score = Double.NEGATIVE_INFINITY;
+        public int epochs;
+        Trial state;
+
+        Result(int trial, C config) {
+            this.trial = trial;
+            this.config = config;
+        }
+
+        /**
+         * @return the trained trial, for the results of {@link SuccessiveHalving#run} and
+         *         {@link SuccessiveHalving#hyperband} (null for eliminated trials)
+         */
+        public Trial getTrial() {
+            return this.state;
+        }
+    }
+
+    TrialFactory<C> factory;
+    int eta;
+    long seed;
+    int nThreads;
+    Listener<C> listener;
+
+    int nextTrial = 0;       // number of the next trial started
+    long epochsUsed = 0;     // total number of epochs trained
+
+    /**
+     * @param factory starts the training of a configuration
+     * @param eta the inverse of the fraction of trials kept at each rung (e.g. 3)
+     * @param seed the seed the trials' random generators are derived from
+     * @param nThreads the number of trials trained concurrently
+     */
+    public SuccessiveHalving(TrialFactory<C> factory, int eta, long seed, int nThreads) {
+        if (eta < 2)
+            throw new IllegalArgumentException("eta must be at least 2, got " + eta);
+        this.factory = factory;
+        this.eta = eta;
+        this.seed = seed;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * @param listener receives the scores at the end of each rung (may be null)
+     */
+    public void setListener(Listener<C> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of trials started so far
+     */
+    public int getTrials() {
+        return this.nextTrial;
+    }
+
+    /**
+     * @return the total number of epochs trained by all trials so far
+     */
+    public long getEpochsUsed() {
+        return this.epochsUsed;
+    }
+
+    /**
+     * Successive halving: train all configurations for minEpochs epochs, keep the best
+     * 1/eta, train them to eta times as many epochs, ... up to maxEpochs.
+     * @param configs the configurations to try
+     * @return the trials that reached the last rung, best first
+     */
+    public List<Result<C>> run(List<C> configs, int minEpochs, int maxEpochs) throws Exception {
+        List<Result<C>> arms = new ArrayList<Result<C>>();
+        for (C config : configs)
+            arms.add(new Result<C>(this.nextTrial++, config));
+
+        int budget = Math.min(minEpochs, maxEpochs);
+        while (true) {
+            trainTo(arms, budget);
+            arms.sort(Comparator.comparingDouble((Result<C> r) -> r.score).reversed());
+            if (budget >= maxEpochs || arms.size() == 1)
+                return arms;
+
+            int keep = Math.max(1, arms.size() / this.eta);
+            for (Result<C> r : arms.subList(keep, arms.size()))
+                r.state = null; // let the eliminated models go
+            arms = new ArrayList<Result<C>>(arms.subList(0, keep));
+            budget = (int) Math.min((long) budget * this.eta, maxEpochs);
+        }
+    }
+
+    /**
+     * Hyperband: one successive halving bracket for each initial budget maxEpochs / eta^s
+     * (s = sMax, ..., 0, with minEpochs &lt;= maxEpochs / eta^sMax), each from enough sampled
+     * configurations to use roughly the same number of epochs. If minEpochs exceeds
+     * maxEpochs, a single bracket trains its configurations for maxEpochs.
+     * @param sampler draws a configuration
+     * @param rnd the random generator the configurations are drawn with
+     * @return the best trial of the last rung of every bracket, best first
+     */
+    public List<Result<C>> hyperband(Function<Random, C> sampler, Random rnd, int minEpochs, int maxEpochs)
+            throws Exception {
+        int sMax = Math.max(0, (int) Math.floor(Math.log((double) maxEpochs / minEpochs) / Math.log(this.eta) + 1e-9));
+        List<Result<C>> best = new ArrayList<Result<C>>();
+        for (int s = sMax; s >= 0; s--) {
+            int n = (int) Math.ceil((double) (sMax + 1) / (s + 1) * Math.pow(this.eta, s));
+            int r = (int) Math.min(maxEpochs, Math.max(minEpochs, Math.round(maxEpochs / Math.pow(this.eta, s))));
+            List<C> configs = new ArrayList<C>();
+            for (int i = 0; i < n; i++)
+                configs.add(sampler.apply(rnd));
+            best.add(run(configs, r, maxEpochs).get(0));
+        }
+        best.sort(Comparator.comparingDouble((Result<C> res) -> res.score).reversed());
+        return best;
+    }
+
+    /**
+     * Train each trial (starting the new ones) until it has been trained for budget epochs.
+     */
+    void trainTo(List<Result<C>> arms, int budget) throws Exception {
+        int[] before = new int[arms.size()];
+        for (int i = 0; i < arms.size(); i++)
+            before[i] = arms.get(i).epochs;
+        // each trial keeps the random generator it was started with, the one passed to
+        // the trainer is not used
+        HyperparameterSearch.run(arms, (k, arm, unused) -> {
+            if (arm.state == null)
+                arm.state = this.factory.create(arm.trial, arm.config,
+                        new Random(HyperparameterSearch.trialSeed(this.seed, arm.trial)));
+            arm.score = arm.state.train(budget - arm.state.getEpochs());
+            arm.epochs = arm.state.getEpochs();
+            return arm.score;
+        }, this.listener == null ? null : (k, arm, score) -> this.listener.rung(arm.trial, arm.config,
+                arm.epochs, score), this.seed, this.nThreads);
+        for (int i = 0; i < arms.size(); i++)
+            this.epochsUsed += arms.get(i).epochs - before[i];
+    }
+}
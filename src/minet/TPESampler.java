@@ -0,0 +1,201 @@
+// File: TPESampler.java
+// TPESampler class
+package minet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tree-structured Parzen Estimator (Bergstra et al., 2011), in its usual form with
+ * independent parameters.
+ * <p>
+ * After a few random points, the points tried so far are split into the best fraction
+ * gamma ("good") and the rest ("bad"), and for each parameter two densities are
+ * estimated: l from the good points and g from the bad ones (a Gaussian per point for
+ * integer and real parameters, in log scale for log parameters, and smoothed
+ * frequencies for categorical ones). The next point is the candidate maximising
+ * l(x) / g(x) among several drawn from l.
+ */
+public class TPESampler implements HyperparameterSearch.Sampler<double[]> {
+
+    /**
+     * A Parzen estimator of one parameter.
+     */
+    class Estimator {
+        int d;
+        double lo, hi;       // the range, in the search scale
+        double[] mu, sigma;  // the Gaussians (integer and real parameters)
+        double[] mass;       // the mass of each Gaussian within the range
+        double[] p;          // the probability of each value (categorical parameters)
+
+        Estimator(int d, List<double[]> points) {
+            this.d = d;
+            double[] b = space.bounds.get(d);
+            if (space.kinds.get(d) == SearchSpace.CHOICE) {
+                // one pseudo-count per value as a prior
+                this.p = new double[(int) b[1]];
+                Arrays.fill(this.p, 1);
+                for (double[] x : points)
+                    this.p[(int) x[d]]++;
+                for (int k = 0; k < this.p.length; k++)
+                    this.p[k] /= points.size() + this.p.length;
+                return;
+            }
+
+            this.lo = space.toInternal(d, b[0]);
+            this.hi = space.toInternal(d, b[1]);
+            double range = Math.max(this.hi - this.lo, 1e-12);
+            // the points, plus a broad Gaussian over the whole range as a prior
+            double[] mus = new double[points.size() + 1];
+            for (int i = 0; i < points.size(); i++)
+                mus[i] = space.toInternal(d, points.get(i)[d]);
+            mus[points.size()] = (this.lo + this.hi) / 2;
+            Arrays.sort(mus);
+            this.mu = mus;
+            this.sigma = new double[mus.length];
+            this.mass = new double[mus.length];
+            // each Gaussian is as wide as the larger gap to its neighbours, within bounds
+            double minSigma = range / Math.min(100, mus.length + 1);
+            boolean priorSet = false;
+            for (int i = 0; i < mus.length; i++) {
+                double left = i > 0 ? mus[i] - mus[i - 1] : mus[i] - this.lo;
+                double right = i < mus.length - 1 ? mus[i + 1] - mus[i] : this.hi - mus[i];
+                this.sigma[i] = Math.max(minSigma, Math.min(range, Math.max(left, right)));
+                if (!priorSet && mus[i] == (this.lo + this.hi) / 2) {
+                    this.sigma[i] = range;
+                    priorSet = true;
+                }
+                this.mass[i] = Math.max(1e-12,
+                        phi((this.hi - mus[i]) / this.sigma[i]) - phi((this.lo - mus[i]) / this.sigma[i]));
+            }
+        }
+
+        /**
+         * Draw a value (in the natural scale, or the index of a categorical value).
+         */
+        double sample(Random rnd) {
+            if (this.p != null) {
+                double u = rnd.nextDouble();
+                int k = 0;
+                while (k < this.p.length - 1 && (u -= this.p[k]) >= 0)
+                    k++;
+                return k;
+            }
+            int i = rnd.nextInt(this.mu.length);
+            double x = this.mu[i];
+            for (int tries = 0; tries < 100; tries++) {
+                double y = this.mu[i] + this.sigma[i] * rnd.nextGaussian();
+                if (y >= this.lo && y <= this.hi) {
+                    x = y;
+                    break;
+                }
+            }
+            return space.clip(this.d, space.toValue(this.d, x));
+        }
+
+        /**
+         * The log density of a value (in the natural scale, or the index of a categorical value).
+         */
+        double logDensity(double v) {
+            if (this.p != null)
+                return Math.log(this.p[(int) v]);
+            double x = space.toInternal(this.d, v);
+            double sum = 0;
+            for (int i = 0; i < this.mu.length; i++) {
+                double z = (x - this.mu[i]) / this.sigma[i];
+                sum += Math.exp(-0.5 * z * z) / (this.sigma[i] * this.mass[i]);
+            }
+            return Math.log(sum / (this.mu.length * Math.sqrt(2 * Math.PI)) + 1e-300);
+        }
+    }
+
+    SearchSpace space;
+    int nStartup;
+    double gamma;
+    int nCandidates;
+
+    List<double[]> points = new ArrayList<double[]>();
+    List<Double> scores = new ArrayList<Double>();
+
+    /**
+     * @param space the search space
+     * @param nStartup the number of points drawn at random before the estimators are used
+     * @param gamma the fraction of the points considered good
+     * @param nCandidates the number of candidates drawn from l for each new point
+     */
+    public TPESampler(SearchSpace space, int nStartup, double gamma, int nCandidates) {
+        this.space = space;
+        this.nStartup = nStartup;
+        this.gamma = gamma;
+        this.nCandidates = nCandidates;
+    }
+
+    /**
+     * A TPE sampler with 10 random points, gamma = 0.25 and 24 candidates per point.
+     */
+    public TPESampler(SearchSpace space) {
+        this(space, 10, 0.25, 24);
+    }
+
+    @Override
+    public double[] sample(Random rnd) {
+        int n = this.points.size();
+        if (n < Math.max(this.nStartup, 2))
+            return this.space.sample(rnd);
+
+        // split the points into the best ones and the others
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(this.scores.get(b), this.scores.get(a)));
+        int nGood = Math.min(n - 1, Math.max(1, (int) Math.ceil(this.gamma * n)));
+        List<double[]> good = new ArrayList<double[]>();
+        List<double[]> bad = new ArrayList<double[]>();
+        for (int i = 0; i < n; i++)
+            (i < nGood ? good : bad).add(this.points.get(order[i]));
+
+        int dims = this.space.getDims();
+        Estimator[] l = new Estimator[dims];
+        Estimator[] g = new Estimator[dims];
+        for (int d = 0; d < dims; d++) {
+            l[d] = new Estimator(d, good);
+            g[d] = new Estimator(d, bad);
+        }
+
+        double[] best = null;
+        double bestRatio = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < this.nCandidates; c++) {
+            double[] x = new double[dims];
+            double ratio = 0; // log l(x) - log g(x)
+            for (int d = 0; d < dims; d++) {
+                x[d] = l[d].sample(rnd);
+                ratio += l[d].logDensity(x[d]) - g[d].logDensity(x[d]);
+            }
+            if (ratio > bestRatio) {
+                bestRatio = ratio;
+                best = x;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void observe(double[] config, double score) {
+        this.points.add(config);
+        this.scores.add(score);
+    }
+
+    /**
+     * The standard normal cumulative distribution function (Abramowitz and Stegun 7.1.26,
+     * absolute error below 1.5e-7).
+     */
+    static double phi(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - ((((1.061405429 * t - 1.453152027) * t + 1.421413741) * t - 0.284496736) * t
+                + 0.254829592) * t * Math.exp(-x * x);
+        return z >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+    }
+}
@@ -0,0 +1,326 @@
+// File: TxtLoader.java
+// TxtLoader class
+package minet;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A parallel loader for the txt format of {@link Dataset#loadTxt(String)}.
+ * <p>
+ * The file is cut into chunks of about {@link #CHUNK_BYTES} bytes at line boundaries.
+ * Each chunk is read with a single positional read and parsed on a thread of the
+ * common fork-join pool, straight from its bytes, without creating any String. The
+ * parsed values are bit-identical to those of <code>Double.valueOf</code>.
+ */
+public class TxtLoader {
+
+    static final int CHUNK_BYTES = 1 << 23;
+
+    // exact powers of ten, the largest k such that 10^k is exact in a double is 22
+    static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    /**
+     * Load a dataset stored in the txt format, parsing chunks of the file in parallel.
+     * @param path a string, the path of the txt file.
+     * @return a Dataset
+     * @throws IOException
+     */
+    public static Dataset load(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            long length = channel.size();
+
+            // first line: [number of samples] [xDims] [yDims]
+            byte[] head = read(channel, 0, (int) Math.min(length, 4096));
+            int eol = indexOf(head, 0, head.length, (byte) '\n');
+            if (eol < 0)
+                throw new IOException(path + ": missing header line");
+            String[] ss = new String(head, 0, eol, StandardCharsets.ISO_8859_1).trim().split(" ");
+            int size = Integer.valueOf(ss[0]);
+            int xDims = Integer.valueOf(ss[1]);
+            int yDims = Integer.valueOf(ss[2]);
+
+            // chunk boundaries, each one at the start of a line
+            List<Long> bounds = new ArrayList<>();
+            bounds.add((long) eol + 1);
+            for (long pos = eol + 1 + CHUNK_BYTES; pos < length; pos += CHUNK_BYTES) {
+                long next = nextLine(channel, pos, length);
+                if (next > bounds.get(bounds.size() - 1) && next < length)
+                    bounds.add(next);
+                pos = Math.max(pos, next);
+            }
+            bounds.add(length);
+
+            List<Callable<Chunk>> tasks = new ArrayList<>();
+            for (int c = 0; c + 1 < bounds.size(); c++) {
+                long start = bounds.get(c);
+                int len = (int) (bounds.get(c + 1) - start);
+                tasks.add(() -> new Chunk(read(channel, start, len), xDims, yDims));
+            }
+
+            double[] X = new double[size * xDims];
+            double[] Y = new double[size * yDims];
+            int n = 0;
+            try {
+                for (Future<Chunk> f : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                    Chunk chunk = f.get();
+                    int m = Math.min(chunk.rows, size - n);
+                    System.arraycopy(chunk.X, 0, X, n * xDims, m * xDims);
+                    System.arraycopy(chunk.Y, 0, Y, n * yDims, m * yDims);
+                    n += m;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw new IOException(path + ": " + e.getCause().getMessage(), e.getCause());
+                throw new IOException(e.getCause());
+            }
+            if (n < size)
+                throw new IOException(path + ": expected " + size + " instances, found " + n);
+
+            return new Dataset(size, xDims, yDims, X, Y);
+        }
+    }
+
+    static byte[] read(FileChannel channel, long position, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            int r = channel.read(buf, position + buf.position());
+            if (r < 0)
+                throw new IOException("unexpected end of file");
+        }
+        return bytes;
+    }
+
+    static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++)
+            if (bytes[i] == b)
+                return i;
+        return -1;
+    }
+
+    /**
+     * The position of the first line that starts at or after pos.
+     */
+    static long nextLine(FileChannel channel, long pos, long length) throws IOException {
+        long p = pos - 1;
+        while (p < length) {
+            byte[] window = read(channel, p, (int) Math.min(4096, length - p));
+            int i = indexOf(window, 0, window.length, (byte) '\n');
+            if (i >= 0)
+                return p + i + 1;
+            p += window.length;
+        }
+        return length;
+    }
+
+    /**
+     * The instances of one chunk of the file, row-major.
+     */
+    static class Chunk {
+        int rows;
+        double[] X, Y;
+
+        Chunk(byte[] s, int xDims, int yDims) throws IOException {
+            // a line holds at least 2 bytes per value
+            int capacity = s.length / (2 * (xDims + yDims)) + 1;
+            this.X = new double[capacity * xDims];
+            this.Y = new double[capacity * yDims];
+            int p = 0;
+            while (p < s.length) {
+                int eol = indexOf(s, p, s.length, (byte) '\n');
+                if (eol < 0)
+                    eol = s.length;
+                int end = eol;
+                if (end > p && s[end - 1] == '\r')
+                    end--;
+                if (end > p) {
+                    // each line : [entries of X] ; [entries of Y]
+                    if (this.rows == capacity) {
+                        capacity *= 2;
+                        this.X = Arrays.copyOf(this.X, capacity * xDims);
+                        this.Y = Arrays.copyOf(this.Y, capacity * yDims);
+                    }
+                    int q = parseRow(s, p, end, this.X, this.rows * xDims, xDims, (byte) ';');
+                    if (q >= end || s[q] != ';')
+                        throw new IOException("missing ';' in line: " + line(s, p, end));
+                    q = parseRow(s, q + 1, end, this.Y, this.rows * yDims, yDims, (byte) '\n');
+                    if (q < end)
+                        throw new IOException("too many values in line: " + line(s, p, end));
+                    this.rows++;
+                }
+                p = eol + 1;
+            }
+        }
+
+        /**
+         * Parse up to dims space-separated numbers from s[p..end) into v[offset..], stopping
+         * at the byte stop. Returns the position after the last number (or of stop).
+         */
+        static int parseRow(byte[] s, int p, int end, double[] v, int offset, int dims, byte stop)
+                throws IOException {
+            int j = 0;
+            while (true) {
+                while (p < end && s[p] == ' ')
+                    p++;
+                if (p >= end || s[p] == stop || j == dims)
+                    return p;
+                int q = p;
+                while (q < end && s[q] != ' ' && s[q] != stop)
+                    q++;
+                v[offset + j++] = parseDouble(s, p, q);
+                p = q;
+            }
+        }
+
+        static String line(byte[] s, int p, int end) {
+            return new String(s, p, Math.min(end - p, 200), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Parse the number in s[p..end), with the same result as <code>Double.valueOf</code>.
+     * <p>
+     * Decimals with at most 15 significant digits and a decimal exponent of magnitude at
+     * most 22 are computed with a single exact multiplication or division, which is
+     * correctly rounded (Clinger's fast path); anything else falls back to
+     * <code>Double.parseDouble</code>.
+     */
+    static double parseDouble(byte[] s, int p, int end) throws IOException {
+        int i = p;
+        boolean neg = false;
+        if (i < end && (s[i] == '-' || s[i] == '+')) {
+            neg = s[i] == '-';
+            i++;
+        }
+        long m = 0;
+        int digits = 0, exp = 0;
+        boolean any = false;
+        for (; i < end && s[i] >= '0' && s[i] <= '9'; i++, any = true) {
+            if (m == 0 && s[i] == '0')
+                continue;
+            m = m * 10 + (s[i] - '0');
+            if (++digits > 15)
+                return fallback(s, p, end);
+        }
+        if (i < end && s[i] == '.') {
+            for (i++; i < end && s[i] >= '0' && s[i] <= '9'; i++, any = true) {
+                exp--;
+                if (m == 0 && s[i] == '0')
+                    continue;
+                m = m * 10 + (s[i] - '0');
+                if (++digits > 15)
+                    return fallback(s, p, end);
+            }
+        }
+        if (!any)
+            return fallback(s, p, end);
+        if (i < end && (s[i] == 'e' || s[i] == 'E')) {
+            i++;
+            boolean eneg = false;
+            if (i < end && (s[i] == '-' || s[i] == '+')) {
+                eneg = s[i] == '-';
+                i++;
+            }
+            int e = 0, start = i;
+            for (; i < end && s[i] >= '0' && s[i] <= '9' && e < 10000; i++)
+                e = e * 10 + (s[i] - '0');
+            if (i == start)
+                return fallback(s, p, end);
+            exp += eneg ? -e : e;
+        }
+        if (i != end)
+            return fallback(s, p, end);
+
+        double d;
+        if (m == 0)
+            d = 0;
+        else if (exp >= 0 && exp < POW10.length)
+            d = m * POW10[exp];
+        else if (exp < 0 && -exp < POW10.length)
+            d = m / POW10[-exp];
+        else
+            return fallback(s, p, end);
+        return neg ? -d : d;
+    }
+
+    static double fallback(byte[] s, int p, int end) throws IOException {
+        String token = new String(s, p, end - p, StandardCharsets.ISO_8859_1);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("not a number: " + token);
+        }
+    }
+
+    /**
+     * Benchmark of this loader against the line-by-line loader on a generated file.
+     * <p>
+     * Usage: <code>java minet.TxtLoader [n_instances] [x_dims] [file]</code>,
+     * default 10000000 instances of 10 features written to a temporary file.
+     */
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int xDims = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String path = args.length > 2 ? args[2] : null;
+        java.io.File file = path == null ? java.io.File.createTempFile("minet", ".txt") : new java.io.File(path);
+        if (path == null)
+            file.deleteOnExit();
+
+        System.out.printf("writing %d instances of %d features to %s\n", size, xDims, file);
+        Random rnd = new Random(123);
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+            bw.write(size + " " + xDims + " 1\n");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                sb.setLength(0);
+                for (int j = 0; j < xDims; j++) {
+                    double v = rnd.nextInt(10) == 0 ? 99999 : Math.round(rnd.nextGaussian() * 1e4) / 1e3;
+                    sb.append(v).append(' ');
+                }
+                sb.append("; ").append(rnd.nextInt(5)).append('\n');
+                bw.write(sb.toString());
+            }
+        }
+        System.out.printf("file size: %.1f MB, %d threads\n", file.length() / 1e6,
+                ForkJoinPool.commonPool().getParallelism());
+
+        long t0 = System.nanoTime();
+        Dataset a = Dataset.loadTxtSequential(file.getPath());
+        long t1 = System.nanoTime();
+        System.out.printf("line-by-line loader: %.2f s\n", (t1 - t0) / 1e9);
+        double[][] X = a.getX(), Y = a.getY();
+        a = null;
+
+        t0 = System.nanoTime();
+        Dataset b = load(file.getPath());
+        t1 = System.nanoTime();
+        System.out.printf("parallel loader: %.2f s\n", (t1 - t0) / 1e9);
+
+        boolean same = Arrays.deepEquals(X, b.getX()) && Arrays.deepEquals(Y, b.getY());
+        System.out.println(same ? "bit-identical: yes" : "bit-identical: NO");
+    }
+}
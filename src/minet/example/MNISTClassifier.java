@@ -23,7 +23,7 @@ public class MNISTClassifier {
             if (batch == null)
                 break;
 
-            DoubleMatrix Yhat = net.forward(batch.first);
+            DoubleMatrix Yhat = net.predict(batch.first, true, null);
             int[] preds = Yhat.rowArgmaxs();
             for (int i = 0; i < preds.length; i++) {
                 if (preds[i] == (int) batch.second.data[i])
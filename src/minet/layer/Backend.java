@@ -0,0 +1,110 @@
+// File: Backend.java
+// An interface for compute backends.
+package minet.layer;
+
+/**
+ * An interface for the compute kernels used by the layers in workspace/in-place
+ * mode (see {@link Linear#setWorkspace(boolean)}) and by the single-precision layers.
+ * All matrices are given as column-major {@code double[]} arrays, as stored in
+ * {@link org.jblas.DoubleMatrix#data}, or {@code float[]} arrays for the float overloads
+ * (as stored in {@link org.jblas.FloatMatrix#data}), which follow the same contracts.
+ * <p>
+ * Use {@link Backends} to get the backend best suited to a given shape.
+ */
+public interface Backend {
+
+    /**
+     * General matrix multiplication with the same contract as BLAS dgemm:
+     * {@literal C = alpha * op(A) * op(B) + beta * C}, where op(A) is m x k, op(B) is k x n
+     * and C is m x n.
+     * @param transA 'N' if op(A) = A, 'T' if op(A) = A^T
+     * @param transB 'N' if op(B) = B, 'T' if op(B) = B^T
+     */
+    public void gemm(char transA, char transB, int m, int n, int k, double alpha,
+                     double[] a, int aIdx, int lda, double[] b, int bIdx, int ldb,
+                     double beta, double[] c, int cIdx, int ldc);
+
+    /**
+     * Add vector b to every row of the [rows x cols] matrix Y.
+     */
+    public void addRowVector(double[] y, int rows, int cols, double[] b);
+
+    /**
+     * Accumulate the column sums of the [rows x cols] matrix Y into acc.
+     */
+    public void addColumnSums(double[] y, int rows, int cols, double[] acc);
+
+    /**
+     * In place {@literal x[i] = max(0, x[i])} over the first n entries; bit i of mask is
+     * set iff x[i] > 0 before the call.
+     */
+    public void relu(double[] x, int n, long[] mask);
+
+    /**
+     * In place {@literal g[i] = 0 unless bit i of mask is set}.
+     */
+    public void reluBackward(double[] g, int n, long[] mask);
+
+    /**
+     * In place {@literal x[i] = 1 / (1 + exp(-x[i]))}.
+     */
+    public void sigmoid(double[] x, int n);
+
+    /**
+     * In place {@literal g[i] *= y[i] * (1 - y[i])}.
+     */
+    public void sigmoidBackward(double[] g, double[] y, int n);
+
+    /**
+     * In place {@literal x[i] = tanh(x[i])}.
+     */
+    public void tanh(double[] x, int n);
+
+    /**
+     * In place {@literal g[i] *= 1 - y[i] * y[i]}.
+     */
+    public void tanhBackward(double[] g, double[] y, int n);
+
+    /**
+     * In place softmax of every row of the [rows x cols] matrix X. acc must have at least
+     * 2 * rows entries: on return acc[i] is the maximum of row i of the input and
+     * acc[rows + i] is {@literal sum_j exp(x[i,j] - acc[i])}, so that the log-sum-exp of
+     * row i is {@literal acc[i] + log(acc[rows + i])}.
+     */
+    public void softmax(double[] x, int rows, int cols, double[] acc);
+
+    /**
+     * In place {@literal g[i,j] = y[i,j] * (g[i,j] - sum_k g[i,k] * y[i,k])} over the
+     * [rows x cols] matrices G and Y, with acc (at least rows entries) as scratch space.
+     */
+    public void softmaxBackward(double[] g, double[] y, int rows, int cols, double[] acc);
+
+    // single precision, see the double versions above
+
+    /**
+     * Single-precision gemm, with the same contract as BLAS sgemm.
+     */
+    public void gemm(char transA, char transB, int m, int n, int k, float alpha,
+                     float[] a, int aIdx, int lda, float[] b, int bIdx, int ldb,
+                     float beta, float[] c, int cIdx, int ldc);
+
+    public void addRowVector(float[] y, int rows, int cols, float[] b);
+
+    public void addColumnSums(float[] y, int rows, int cols, float[] acc);
+
+    public void relu(float[] x, int n, long[] mask);
+
+    public void reluBackward(float[] g, int n, long[] mask);
+
+    public void sigmoid(float[] x, int n);
+
+    public void sigmoidBackward(float[] g, float[] y, int n);
+
+    public void tanh(float[] x, int n);
+
+    public void tanhBackward(float[] g, float[] y, int n);
+
+    public void softmax(float[] x, int rows, int cols, float[] acc);
+
+    public void softmaxBackward(float[] g, float[] y, int rows, int cols, float[] acc);
+}
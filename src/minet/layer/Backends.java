@@ -0,0 +1,97 @@
+// File: Backends.java
+// Selection of compute backends
+package minet.layer;
+
+/**
+ * Selects the {@link Backend} used for a given operation.
+ * <p>
+ * By default ("auto") a matrix multiplication runs on the {@link VectorBackend}
+ * when it is small enough that the JNI crossing into jblas would dominate, and on
+ * the {@link JblasBackend} otherwise; elementwise operations and reductions run on
+ * the {@link VectorBackend} unless the arrays are only a few entries long. The choice can be forced with the system
+ * property {@code minet.backend} ("auto", "jblas" or "vector").
+ * If the {@code jdk.incubator.vector} module is not available, jblas is used throughout.
+ */
+public final class Backends {
+
+    /** the jblas backend */
+    public static final Backend JBLAS = new JblasBackend();
+
+    /** the Vector API backend, null if the jdk.incubator.vector module is not available */
+    public static final Backend VECTOR = loadVectorBackend();
+
+    /**
+     * Matrix multiplications of at most this many multiply-adds (m * n * k) stay in
+     * the JVM in "auto" mode by default, e.g. a [128 x 40] x [40 x 40] product.
+     */
+    public static final long DEFAULT_GEMM_THRESHOLD = 128L * 64 * 64;
+
+    /**
+     * Elementwise operations over fewer entries than this (a couple of vectors at most)
+     * run as plain scalar loops in "auto" mode.
+     */
+    public static final int ELEMENTWISE_THRESHOLD = 16;
+
+    // read by every layer, on every thread: volatile so that a change is seen by all of them
+    static volatile long gemmThreshold = DEFAULT_GEMM_THRESHOLD;
+    static volatile String mode = System.getProperty("minet.backend", "auto");
+
+    private Backends() {}
+
+    static Backend loadVectorBackend() {
+        try {
+            return (Backend) Class.forName("minet.layer.VectorBackend").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            // the incubator module was not added to the module graph
+            return null;
+        }
+    }
+
+    /**
+     * Force a backend for all operations.
+     * @param mode "auto", "jblas" or "vector"
+     */
+    public static void setMode(String mode) {
+        if (!mode.equals("auto") && !mode.equals("jblas") && !mode.equals("vector"))
+            throw new IllegalArgumentException("unknown backend " + mode);
+        Backends.mode = mode;
+    }
+
+    /**
+     * Set the size (in multiply-adds) up to which matrix multiplications stay in the JVM
+     * in "auto" mode, see {@link #DEFAULT_GEMM_THRESHOLD}.
+     */
+    public static void setGemmThreshold(long threshold) {
+        Backends.gemmThreshold = threshold;
+    }
+
+    public static long getGemmThreshold() {
+        return Backends.gemmThreshold;
+    }
+
+    /**
+     * Get the backend for a [m x k] x [k x n] matrix multiplication.
+     */
+    public static Backend forGemm(int m, int n, int k) {
+        String mode = Backends.mode;
+        if (VECTOR == null || mode.equals("jblas"))
+            return JBLAS;
+        if (mode.equals("vector") || (long) m * n * k <= Backends.gemmThreshold)
+            return VECTOR;
+        return JBLAS;
+    }
+
+    /**
+     * Get the backend for elementwise operations and reductions over n entries. Both
+     * backends run these in the JVM; in "auto" mode, arrays too short to fill a couple of
+     * vectors use the scalar loops of the jblas backend.
+     */
+    public static Backend forElementwise(int n) {
+        String mode = Backends.mode;
+        if (VECTOR == null || mode.equals("jblas"))
+            return JBLAS;
+        if (mode.equals("vector") || n >= ELEMENTWISE_THRESHOLD)
+            return VECTOR;
+        return JBLAS;
+    }
+}
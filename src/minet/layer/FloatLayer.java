@@ -0,0 +1,50 @@
+// File: FloatLayer.java
+// An interface for all single-precision layers.
+package minet.layer;
+
+import org.jblas.*;
+
+import java.util.List;
+
+/**
+ * An interface for all single-precision (float32) layers, the counterpart of
+ * {@link Layer} for {@link FloatMatrix}.
+ * <p>
+ * Single-precision layers always reuse their buffers across minibatches: the
+ * matrices returned by {@link #forward(FloatMatrix)} and {@link #backward(FloatMatrix)}
+ * may be overwritten by the next call, and activation layers work in place.
+ */
+public interface FloatLayer {
+
+    /**
+     * Computing the output of applying the layer to input X, i.e. Y = Layer(X).
+     * @param X a [minibatch_size x input_dims] matrix, each row is an input instance
+     * @return a [minibatch_size x output_dims] matrix, each row is the output of the corresponding instance
+     */
+    public FloatMatrix forward(FloatMatrix X);
+
+    /**
+     * Computing the gradient of the layer's parameters and the input
+     * when applying {@link forward}.
+     * @param gY a [minibatch_size x output_dims] matrix, each row is dL/dY
+     * @return a [minibatch_size x input_dims] matrix, each row is dL/dX
+     * where L is a loss function (@see {@link minet.loss.FloatLoss}).
+     */
+    public FloatMatrix backward(FloatMatrix gY);
+
+    /**
+     * Collect all the weight matrices and bias vectors of the layer.
+     * @param weights a list of matrices (updated accordingly)
+     * @return the same list.
+     */
+    public List<FloatMatrix> getAllWeights(List<FloatMatrix> weights);
+
+    /**
+     * Collect the gradients of all the weight matrices and bias vectors
+     * of the layer.
+     * @param grads a list of matrices  (updated accordingly)
+     * @return the same list.
+     */
+    public List<FloatMatrix> getAllGradients(List<FloatMatrix> grads);
+
+}
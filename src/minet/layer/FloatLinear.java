@@ -0,0 +1,125 @@
+// File: FloatLinear.java
+// Single-precision linear layer
+package minet.layer;
+
+import org.jblas.*;
+
+import java.util.List;
+
+/**
+ * A class for single-precision linear layers (Y = XW + b), see {@link Linear}.
+ */
+public class FloatLinear implements FloatLayer, java.io.Serializable {
+
+    private static final long serialVersionUID = 3316472265839105529L;
+
+    FloatMatrix W;  // weight matrix
+    FloatMatrix b;  // bias vector
+
+    // for backward
+    FloatMatrix X;   // store input X for computing backward
+    FloatMatrix gW;  // gradient of W
+    FloatMatrix gb;  // gradient of b
+
+    // buffers reused across minibatches of the same size
+    transient FloatMatrix Y;   // output buffer
+    transient FloatMatrix gX;  // gradient of the input buffer
+    transient FloatMatrix[] spare; // Y, X and gX of the other minibatch size, see Linear#fitWorkspace
+
+    /**
+     * @param indims the number of inputs
+     * @param outdims the number of outputs
+     * @param wInit a weight initializer, its (double) weights are rounded to float so that
+     *              a double and a float network built from the same seed start from the same point
+     */
+    public FloatLinear(int indims, int outdims, Linear.WeightInit wInit) {
+        this.W = wInit.generate(indims, outdims).toFloat();
+        this.b = FloatMatrix.zeros(outdims);
+        this.gW = FloatMatrix.zeros(indims, outdims);
+        this.gb = FloatMatrix.zeros(outdims);
+    }
+
+    /**
+     * Make the buffers fit a minibatch of n rows, see {@link Linear#fitWorkspace(int)}.
+     */
+    void fitWorkspace(int n) {
+        if (this.Y != null && this.Y.rows == n)
+            return;
+        if (this.spare == null)
+            this.spare = new FloatMatrix[3];
+        FloatMatrix Y = this.Y, X = this.X, gX = this.gX;
+        if (this.spare[0] != null && this.spare[0].rows == n) {
+            this.Y = this.spare[0];
+            this.X = this.spare[1];
+            this.gX = this.spare[2];
+        } else {
+            this.Y = new FloatMatrix(n, this.W.columns);
+            this.X = new FloatMatrix(n, this.W.rows);
+            this.gX = null;
+        }
+        this.spare[0] = Y;
+        this.spare[1] = X;
+        this.spare[2] = gX;
+    }
+
+    /**
+     * Forward on the backend chosen by {@link Backends} for the shapes involved, as
+     * {@link Linear#forward(DoubleMatrix)} in workspace mode.
+     */
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        fitWorkspace(X.rows);
+
+        // X is cached by copying into our own buffer, the caller may reuse it
+        this.X.copy(X);
+
+        // Y = X * W + b
+        int n = X.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+        Backends.forGemm(n, outdims, indims).gemm('N', 'N', n, outdims, indims, 1.0f,
+                X.data, 0, n, this.W.data, 0, indims, 0.0f, this.Y.data, 0, n);
+        Backends.forElementwise(this.Y.length).addRowVector(this.Y.data, n, outdims, this.b.data);
+        return this.Y;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        int n = gY.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+        if (this.gX == null || this.gX.rows != n)
+            this.gX = new FloatMatrix(n, indims);
+
+        // gW += X^T * gY
+        Backends.forGemm(indims, outdims, n).gemm('T', 'N', indims, outdims, n, 1.0f,
+                this.X.data, 0, n, gY.data, 0, n, 1.0f, this.gW.data, 0, indims);
+
+        // gb += sum_row gY
+        Backends.forElementwise(gY.length).addColumnSums(gY.data, n, outdims, this.gb.data);
+
+        // gX = gY * W^T
+        Backends.forGemm(n, indims, outdims).gemm('N', 'T', n, indims, outdims, 1.0f,
+                gY.data, 0, n, this.W.data, 0, indims, 0.0f, this.gX.data, 0, n);
+        return this.gX;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllWeights(List<FloatMatrix> weights) {
+        weights.add(this.W);
+        weights.add(this.b);
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllGradients(List<FloatMatrix> grads) {
+        grads.add(this.gW);
+        grads.add(this.gb);
+        return grads;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FloatLinear: %d in, %d out", this.W.rows, this.W.columns);
+    }
+}
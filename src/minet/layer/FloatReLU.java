@@ -0,0 +1,56 @@
+// File: FloatReLU.java
+// Single-precision ReLU layer
+package minet.layer;
+
+import org.jblas.*;
+
+import java.util.List;
+
+/**
+ * A class for single-precision ReLU layers {@literal y = x if x > 0 else 0},
+ * working in place (see {@link ReLU#ReLU(boolean)}).
+ */
+public class FloatReLU implements FloatLayer, java.io.Serializable {
+
+    private static final long serialVersionUID = -2735216452093317508L;
+
+    // for backward: bit i is set iff X[i] > 0
+    transient long[] mask;
+
+    public FloatReLU() {}
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        float[] x = X.data;
+        int n = X.length;
+        int words = (n + 63) >>> 6;
+        if (this.mask == null || this.mask.length < words)
+            this.mask = new long[words];
+
+        // Y[i] = max(0, X[i])
+        Backends.forElementwise(n).relu(x, n, this.mask);
+        return X;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        // gX[i] = gY[i] if X[i] > 0 else 0
+        Backends.forElementwise(gY.length).reluBackward(gY.data, gY.length, this.mask);
+        return gY;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllWeights(List<FloatMatrix> weights) {
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllGradients(List<FloatMatrix> grads) {
+        return grads;
+    }
+
+    @Override
+    public String toString() {
+        return "FloatReLU";
+    }
+}
@@ -0,0 +1,66 @@
+// File: FloatSequential.java
+// Single-precision sequential container
+
+package minet.layer;
+
+import org.jblas.FloatMatrix;
+
+import java.util.List;
+
+
+/**
+ * A sequential container of single-precision layers, see {@link Sequential}.
+ */
+public class FloatSequential implements FloatLayer, java.io.Serializable {
+
+    private static final long serialVersionUID = -4128330846125903741L;
+
+    FloatLayer[] layers;
+
+    public FloatSequential(FloatLayer[] layers) {
+        this.layers = layers;
+    }
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        for (int i = 0; i < layers.length; i++) {
+            X = layers[i].forward(X);
+        }
+        return X;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix dY) {
+        for (int i = layers.length-1; i >= 0; i--) {
+            dY = layers[i].backward(dY);
+        }
+        return dY;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllWeights(List<FloatMatrix> weights) {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].getAllWeights(weights);
+        }
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllGradients(List<FloatMatrix> grads) {
+        for (int i = 0; i < layers.length; i++) {
+            layers[i].getAllGradients(grads);
+        }
+        return grads;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append("(\n");
+        for (int i = 0; i < layers.length; i++) {
+            str.append("    ").append(layers[i].toString()).append("\n");
+        }
+        str.append(")");
+        return str.toString();
+    }
+}
@@ -0,0 +1,51 @@
+// File: FloatSigmoid.java
+// Single-precision sigmoid layer
+package minet.layer;
+
+import org.jblas.*;
+
+import java.util.List;
+
+/**
+ * A class for single-precision sigmoid layers {@literal y = 1 / (1 + exp(-x))},
+ * working in place (see {@link Sigmoid#Sigmoid(boolean)}).
+ */
+public class FloatSigmoid implements FloatLayer, java.io.Serializable {
+
+    private static final long serialVersionUID = 4650906181730452210L;
+
+    // for backward
+    FloatMatrix Y;
+
+    public FloatSigmoid() {}
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        // Y[i] = 1 / (1 + exp(-X[i]))
+        Backends.forElementwise(X.length).sigmoid(X.data, X.length);
+        this.Y = X;
+        return X;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        // gX = gY . (Y . (1 - Y))
+        Backends.forElementwise(gY.length).sigmoidBackward(gY.data, this.Y.data, gY.length);
+        return gY;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllWeights(List<FloatMatrix> weights) {
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllGradients(List<FloatMatrix> grads) {
+        return grads;
+    }
+
+    @Override
+    public String toString() {
+        return "FloatSigmoid";
+    }
+}
@@ -0,0 +1,62 @@
+// File: FloatSoftmax.java
+// Single-precision softmax layer
+package minet.layer;
+
+import org.jblas.*;
+
+import java.util.List;
+
+/**
+ * A class for single-precision softmax layers {@literal y[i] = exp(x[i]) / sum_j exp(x[j])},
+ * working in place (see {@link Softmax#Softmax(boolean)}).
+ */
+public class FloatSoftmax implements FloatLayer, java.io.Serializable {
+
+    private static final long serialVersionUID = 7282950416843927025L;
+
+    // for backward
+    FloatMatrix Y;
+    transient float[] rowBuf; // two values per row, reused across minibatches
+
+    public FloatSoftmax() {}
+
+    /**
+     * Get a scratch array with (at least) the given number of entries.
+     */
+    float[] rowBuffer(int rows) {
+        if (this.rowBuf == null || this.rowBuf.length < rows)
+            this.rowBuf = new float[rows];
+        return this.rowBuf;
+    }
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        // Y[i,j] = exp(X[i,j] - max_k X[i,k]) / sum_k exp(X[i,k] - max_k X[i,k])
+        Backends.forElementwise(X.length).softmax(X.data, X.rows, X.columns, rowBuffer(2 * X.rows));
+        this.Y = X;
+        return X;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        // gX[i,j] = Y[i,j] * (gY[i,j] - sum_k gY[i,k] Y[i,k])
+        Backends.forElementwise(gY.length).softmaxBackward(gY.data, this.Y.data, gY.rows, gY.columns,
+                rowBuffer(gY.rows));
+        return gY;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllWeights(List<FloatMatrix> weights) {
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllGradients(List<FloatMatrix> grads) {
+        return grads;
+    }
+
+    @Override
+    public String toString() {
+        return "FloatSoftmax";
+    }
+}
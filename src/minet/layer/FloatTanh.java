@@ -0,0 +1,51 @@
+// File: FloatTanh.java
+// Single-precision tanh layer
+package minet.layer;
+
+import org.jblas.*;
+
+import java.util.List;
+
+/**
+ * A class for single-precision tanh layers {@literal y = tanh(x)},
+ * working in place (see {@link Tanh#Tanh(boolean)}).
+ */
+public class FloatTanh implements FloatLayer, java.io.Serializable {
+
+    private static final long serialVersionUID = -1898235405610437742L;
+
+    // for backward
+    FloatMatrix Y;
+
+    public FloatTanh() {}
+
+    @Override
+    public FloatMatrix forward(FloatMatrix X) {
+        // Y[i] = tanh(X[i])
+        Backends.forElementwise(X.length).tanh(X.data, X.length);
+        this.Y = X;
+        return X;
+    }
+
+    @Override
+    public FloatMatrix backward(FloatMatrix gY) {
+        // gX = gY . (1 - Y * Y)
+        Backends.forElementwise(gY.length).tanhBackward(gY.data, this.Y.data, gY.length);
+        return gY;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllWeights(List<FloatMatrix> weights) {
+        return weights;
+    }
+
+    @Override
+    public List<FloatMatrix> getAllGradients(List<FloatMatrix> grads) {
+        return grads;
+    }
+
+    @Override
+    public String toString() {
+        return "FloatTanh";
+    }
+}
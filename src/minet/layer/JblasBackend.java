@@ -0,0 +1,243 @@
+// File: JblasBackend.java
+// jblas compute backend
+package minet.layer;
+
+import org.jblas.NativeBlas;
+
+import java.util.Arrays;
+
+/**
+ * The default backend: matrix multiplications go through jblas (native BLAS),
+ * everything else is a plain loop.
+ */
+public class JblasBackend implements Backend {
+
+    @Override
+    public void gemm(char transA, char transB, int m, int n, int k, double alpha,
+                     double[] a, int aIdx, int lda, double[] b, int bIdx, int ldb,
+                     double beta, double[] c, int cIdx, int ldc) {
+        NativeBlas.dgemm(transA, transB, m, n, k, alpha, a, aIdx, lda, b, bIdx, ldb, beta, c, cIdx, ldc);
+    }
+
+    @Override
+    public void addRowVector(double[] y, int rows, int cols, double[] b) {
+        for (int j = 0; j < cols; j++) {
+            double bj = b[j];
+            for (int i = 0, k = j * rows; i < rows; i++, k++)
+                y[k] += bj;
+        }
+    }
+
+    @Override
+    public void addColumnSums(double[] y, int rows, int cols, double[] acc) {
+        for (int j = 0; j < cols; j++) {
+            double s = 0;
+            for (int i = 0, k = j * rows; i < rows; i++, k++)
+                s += y[k];
+            acc[j] += s;
+        }
+    }
+
+    @Override
+    public void relu(double[] x, int n, long[] mask) {
+        int words = (n + 63) >>> 6;
+        for (int w = 0; w < words; w++) {
+            long bits = 0;
+            int end = Math.min(n, (w + 1) << 6);
+            for (int i = w << 6; i < end; i++) {
+                if (x[i] > 0)
+                    bits |= 1L << (i & 63);
+                else
+                    x[i] = 0;
+            }
+            mask[w] = bits;
+        }
+    }
+
+    @Override
+    public void reluBackward(double[] g, int n, long[] mask) {
+        for (int i = 0; i < n; i++) {
+            if ((mask[i >>> 6] & (1L << (i & 63))) == 0)
+                g[i] = 0;
+        }
+    }
+
+    @Override
+    public void sigmoid(double[] x, int n) {
+        for (int i = 0; i < n; i++)
+            x[i] = 1 / (1 + Math.exp(-x[i]));
+    }
+
+    @Override
+    public void sigmoidBackward(double[] g, double[] y, int n) {
+        for (int i = 0; i < n; i++)
+            g[i] *= y[i] * (1 - y[i]);
+    }
+
+    @Override
+    public void tanh(double[] x, int n) {
+        for (int i = 0; i < n; i++)
+            x[i] = Math.tanh(x[i]);
+    }
+
+    @Override
+    public void tanhBackward(double[] g, double[] y, int n) {
+        for (int i = 0; i < n; i++)
+            g[i] *= 1 - y[i] * y[i];
+    }
+
+    @Override
+    public void softmax(double[] x, int rows, int cols, double[] acc) {
+        // data are column-major, so we sweep column by column and keep
+        // one running value per row
+        int n = rows;
+        System.arraycopy(x, 0, acc, 0, n);
+        for (int j = 1; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++) {
+                if (x[k] > acc[i])
+                    acc[i] = x[k];
+            }
+        }
+        Arrays.fill(acc, n, 2 * n, 0);
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++) {
+                x[k] = Math.exp(x[k] - acc[i]);
+                acc[n + i] += x[k];
+            }
+        }
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++)
+                x[k] /= acc[n + i];
+        }
+    }
+
+    @Override
+    public void softmaxBackward(double[] g, double[] y, int rows, int cols, double[] acc) {
+        int n = rows;
+        Arrays.fill(acc, 0, n, 0);
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++)
+                acc[i] += g[k] * y[k];
+        }
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++)
+                g[k] = y[k] * (g[k] - acc[i]);
+        }
+    }
+
+    @Override
+    public void gemm(char transA, char transB, int m, int n, int k, float alpha,
+                     float[] a, int aIdx, int lda, float[] b, int bIdx, int ldb,
+                     float beta, float[] c, int cIdx, int ldc) {
+        NativeBlas.sgemm(transA, transB, m, n, k, alpha, a, aIdx, lda, b, bIdx, ldb, beta, c, cIdx, ldc);
+    }
+
+    @Override
+    public void addRowVector(float[] y, int rows, int cols, float[] b) {
+        for (int j = 0; j < cols; j++) {
+            float bj = b[j];
+            for (int i = 0, k = j * rows; i < rows; i++, k++)
+                y[k] += bj;
+        }
+    }
+
+    @Override
+    public void addColumnSums(float[] y, int rows, int cols, float[] acc) {
+        for (int j = 0; j < cols; j++) {
+            float s = 0;
+            for (int i = 0, k = j * rows; i < rows; i++, k++)
+                s += y[k];
+            acc[j] += s;
+        }
+    }
+
+    @Override
+    public void relu(float[] x, int n, long[] mask) {
+        int words = (n + 63) >>> 6;
+        for (int w = 0; w < words; w++) {
+            long bits = 0;
+            int end = Math.min(n, (w + 1) << 6);
+            for (int i = w << 6; i < end; i++) {
+                if (x[i] > 0)
+                    bits |= 1L << (i & 63);
+                else
+                    x[i] = 0;
+            }
+            mask[w] = bits;
+        }
+    }
+
+    @Override
+    public void reluBackward(float[] g, int n, long[] mask) {
+        for (int i = 0; i < n; i++) {
+            if ((mask[i >>> 6] & (1L << (i & 63))) == 0)
+                g[i] = 0;
+        }
+    }
+
+    @Override
+    public void sigmoid(float[] x, int n) {
+        for (int i = 0; i < n; i++)
+            x[i] = (float) (1 / (1 + Math.exp(-x[i])));
+    }
+
+    @Override
+    public void sigmoidBackward(float[] g, float[] y, int n) {
+        for (int i = 0; i < n; i++)
+            g[i] *= y[i] * (1 - y[i]);
+    }
+
+    @Override
+    public void tanh(float[] x, int n) {
+        for (int i = 0; i < n; i++)
+            x[i] = (float) Math.tanh(x[i]);
+    }
+
+    @Override
+    public void tanhBackward(float[] g, float[] y, int n) {
+        for (int i = 0; i < n; i++)
+            g[i] *= 1 - y[i] * y[i];
+    }
+
+    @Override
+    public void softmax(float[] x, int rows, int cols, float[] acc) {
+        int n = rows;
+        System.arraycopy(x, 0, acc, 0, n);
+        for (int j = 1; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++) {
+                if (x[k] > acc[i])
+                    acc[i] = x[k];
+            }
+        }
+        Arrays.fill(acc, n, 2 * n, 0);
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++) {
+                x[k] = (float) Math.exp(x[k] - acc[i]);
+                acc[n + i] += x[k];
+            }
+        }
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++)
+                x[k] /= acc[n + i];
+        }
+    }
+
+    @Override
+    public void softmaxBackward(float[] g, float[] y, int rows, int cols, float[] acc) {
+        int n = rows;
+        Arrays.fill(acc, 0, n, 0);
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++)
+                acc[i] += g[k] * y[k];
+        }
+        for (int j = 0; j < cols; j++) {
+            for (int i = 0, k = j * n; i < n; i++, k++)
+                g[k] = y[k] * (g[k] - acc[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "jblas";
+    }
+}
@@ -20,6 +20,17 @@ public interface Layer {
      */
     public DoubleMatrix forward(DoubleMatrix X);
 
+    /**
+     * Computing Y = Layer(X) for inference: unlike {@link #forward(DoubleMatrix)},
+     * nothing is kept for backward and the layer's fields are never modified,
+     * so predict can be called concurrently from several threads on the same model.
+     * @param X a [minibatch_size x input_dims] matrix, each row is an input instance
+     * @param overwrite if true, the layer may write its output over X
+     * @param buf a buffer for the output, used if it has the right shape (may be null)
+     * @return a [minibatch_size x output_dims] matrix, which is X, buf or a new matrix
+     */
+    public DoubleMatrix predict(DoubleMatrix X, boolean overwrite, DoubleMatrix buf);
+
     /**
      * Computing the gradient of the layer's parameters and the input
      * when applying {@link forward}.
@@ -44,4 +55,12 @@ public interface Layer {
      */
     public List<DoubleMatrix> getAllGradients(List<DoubleMatrix> grads);
 
+    /**
+     * Create a replica of the layer that shares its weight matrices and bias vectors
+     * but has its own gradients and backward state, so that the original and the
+     * replica can run forward/backward on different threads.
+     * @return the replica
+     */
+    public Layer replicate();
+
 }
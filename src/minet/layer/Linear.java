@@ -4,6 +4,8 @@ package minet.layer;
 
 import org.jblas.*;
 
+import minet.util.SparseMatrix;
+
 import java.util.List;
 
 /**
@@ -23,6 +25,16 @@ public class Linear implements Layer, java.io.Serializable {
     DoubleMatrix gW;  // gradient of W
     DoubleMatrix gb;  // gradient of b
 
+    // workspace mode: buffers reused across minibatches of the same size
+    boolean workspace = false;
+    transient DoubleMatrix Y;   // output buffer
+    transient DoubleMatrix gX;  // gradient of the input buffer
+    // Y, X and gX of the other minibatch size (e.g. the last, shorter minibatch of an epoch)
+    transient DoubleMatrix[] spare;
+
+    // the last input, if it was sparse (see forward(SparseMatrix))
+    transient SparseMatrix sX;
+
     /**
      * An interface for weight initialization.
      *
@@ -83,13 +95,27 @@ public class Linear implements Layer, java.io.Serializable {
      * @author Phong Le
      */
     public static class WeightInitXavier implements  WeightInit {
+        java.util.Random rnd;
 
         public WeightInitXavier() { }
 
+        /**
+         * @param rnd the random generator to draw the weights from, instead of jblas' global
+         *            one (e.g. so that models built concurrently are reproducible); may be null
+         */
+        public WeightInitXavier(java.util.Random rnd) {
+            this.rnd = rnd;
+        }
+
         @Override
         public DoubleMatrix generate(int indims, int outdims) {
             double a = (double) (Math.sqrt(6) / Math.sqrt(indims + outdims));
-            return DoubleMatrix.rand(indims, outdims).mul(2 * a).add(-a);
+            if (this.rnd == null)
+                return DoubleMatrix.rand(indims, outdims).mul(2 * a).add(-a);
+            DoubleMatrix W = new DoubleMatrix(indims, outdims);
+            for (int i = 0; i < W.length; i++)
+                W.data[i] = this.rnd.nextDouble() * 2 * a - a;
+            return W;
         }
     }
 
@@ -106,8 +132,33 @@ public class Linear implements Layer, java.io.Serializable {
         this.b = b;
     }
 
+    /**
+     * Turn the workspace mode on or off. In workspace mode the layer keeps
+     * preallocated output, input-cache and gradient buffers sized to the
+     * minibatch, so that a training step with a fixed batch size does not
+     * allocate on the heap. Buffers for two sizes are kept, so that the shorter
+     * last minibatch of each epoch does not reallocate them either.
+     * <p>
+     * NOTE: in this mode the matrices returned by {@link #forward(DoubleMatrix)} and
+     * {@link #backward(DoubleMatrix)} are owned by the layer and are overwritten by
+     * the next call.
+     * @param workspace true to reuse buffers across minibatches
+     */
+    public void setWorkspace(boolean workspace) {
+        this.workspace = workspace;
+        if (!workspace) {
+            this.Y = null;
+            this.gX = null;
+            this.spare = null;
+        }
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
+        this.sX = null;
+        if (this.workspace)
+            return forwardWorkspace(X);
+
         // Y = X * W + b
         DoubleMatrix Y = X.mmul(this.W).addiRowVector(this.b);
         this.X = X.dup();
@@ -116,6 +167,11 @@ public class Linear implements Layer, java.io.Serializable {
 
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
+        if (this.sX != null)
+            return backwardSparse(gY);
+        if (this.workspace)
+            return backwardWorkspace(gY);
+
         // gW = X^T * gY
         this.gW.addi(this.X.transpose().mmul(gY));
 
@@ -126,6 +182,200 @@ public class Linear implements Layer, java.io.Serializable {
         return gY.mmul(this.W.transpose());
     }
 
+    @Override
+    public DoubleMatrix predict(DoubleMatrix X, boolean overwrite, DoubleMatrix buf) {
+        int n = X.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+        DoubleMatrix Y = buf;
+        if (Y == null || Y == X || Y.rows != n || Y.columns != outdims)
+            Y = new DoubleMatrix(n, outdims);
+
+        // Y = X * W + b
+        Backends.forGemm(n, outdims, indims).gemm('N', 'N', n, outdims, indims, 1.0,
+                X.data, 0, n, this.W.data, 0, indims, 0.0, Y.data, 0, n);
+        Backends.forElementwise(Y.length).addRowVector(Y.data, n, outdims, this.b.data);
+        return Y;
+    }
+
+    /**
+     * Forward on a sparse input, in time proportional to the number of nonzeros of X
+     * (times the number of outputs) rather than to its number of columns. The layer
+     * must then be the first one of the network: {@link #backward(DoubleMatrix)}
+     * accumulates the gradients of W and b but returns no gradient for X (null).
+     * <p>
+     * NOTE: X is kept (not copied) for backward, so it must not be modified before.
+     * @param X a sparse [n x indims] matrix
+     * @return an [n x outdims] matrix
+     */
+    public DoubleMatrix forward(SparseMatrix X) {
+        if (this.workspace)
+            fitWorkspace(X.rows);
+        DoubleMatrix Y = this.workspace ? this.Y : new DoubleMatrix(X.rows, this.W.columns);
+        sparseProduct(X, Y);
+        this.sX = X;
+        return Y;
+    }
+
+    /**
+     * Stateless version of {@link #forward(SparseMatrix)} (see {@link #predict}).
+     */
+    public DoubleMatrix predict(SparseMatrix X, DoubleMatrix buf) {
+        DoubleMatrix Y = buf;
+        if (Y == null || Y.rows != X.rows || Y.columns != this.W.columns)
+            Y = new DoubleMatrix(X.rows, this.W.columns);
+        sparseProduct(X, Y);
+        return Y;
+    }
+
+    /**
+     * Y = X * W + b for a sparse X. Each column of Y (and W) is computed in turn,
+     * gathering the rows of W at the nonzero columns of X.
+     */
+    void sparseProduct(SparseMatrix X, DoubleMatrix Y) {
+        int n = X.rows;
+        int indims = this.W.rows;
+        for (int o = 0; o < this.W.columns; o++) {
+            int w = o * indims;
+            double bo = this.b.data[o];
+            for (int i = 0; i < n; i++) {
+                double sum = bo;
+                for (int k = X.rowPtr[i]; k < X.rowPtr[i + 1]; k++)
+                    sum += X.values[k] * this.W.data[w + X.colIdx[k]];
+                Y.data[o * n + i] = sum;
+            }
+        }
+    }
+
+    /**
+     * Backward after {@link #forward(SparseMatrix)}: gW += X^T * gY is scattered into
+     * the rows of gW at the nonzero columns of X.
+     */
+    DoubleMatrix backwardSparse(DoubleMatrix gY) {
+        SparseMatrix X = this.sX;
+        int n = gY.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+        for (int o = 0; o < outdims; o++) {
+            int w = o * indims;
+            for (int i = 0; i < n; i++) {
+                double g = gY.data[o * n + i];
+                if (g == 0)
+                    continue;
+                for (int k = X.rowPtr[i]; k < X.rowPtr[i + 1]; k++)
+                    this.gW.data[w + X.colIdx[k]] += X.values[k] * g;
+            }
+        }
+
+        // gb += sum_row gY
+        Backends.forElementwise(gY.length).addColumnSums(gY.data, n, outdims, this.gb.data);
+        return null;
+    }
+
+    /**
+     * Make the workspace buffers fit a minibatch of n rows: the current ones if they do,
+     * else those of the previous size (swapped with the current ones), else new ones.
+     * Alternating between two sizes, as the full minibatches and the last one of each
+     * epoch do, therefore allocates nothing once both sizes have been seen.
+     */
+    void fitWorkspace(int n) {
+        if (this.Y != null && this.Y.rows == n)
+            return;
+        if (this.spare == null)
+            this.spare = new DoubleMatrix[3];
+        DoubleMatrix Y = this.Y, X = this.X, gX = this.gX;
+        if (this.spare[0] != null && this.spare[0].rows == n) {
+            this.Y = this.spare[0];
+            this.X = this.spare[1];
+            this.gX = this.spare[2];
+        } else {
+            // X and gX are allocated when first needed
+            this.Y = new DoubleMatrix(n, this.W.columns);
+            this.X = null;
+            this.gX = null;
+        }
+        this.spare[0] = Y;
+        this.spare[1] = X;
+        this.spare[2] = gX;
+    }
+
+    /**
+     * Allocation-free version of {@link #forward(DoubleMatrix)}, buffers are only
+     * allocated for a minibatch size not seen before (see {@link #fitWorkspace}). The
+     * kernels run on the backend chosen by {@link Backends} for the shapes involved.
+     */
+    DoubleMatrix forwardWorkspace(DoubleMatrix X) {
+        fitWorkspace(X.rows);
+        // checked on its own, as a sparse forward allocates Y but keeps no dense X
+        if (this.X == null || this.X.rows != X.rows)
+            this.X = new DoubleMatrix(X.rows, X.columns);
+
+        // X is cached by copying into our own buffer, the caller may reuse it
+        this.X.copy(X);
+
+        // Y = X * W + b
+        int n = X.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+        Backends.forGemm(n, outdims, indims).gemm('N', 'N', n, outdims, indims, 1.0,
+                X.data, 0, n, this.W.data, 0, indims, 0.0, this.Y.data, 0, n);
+        Backends.forElementwise(this.Y.length).addRowVector(this.Y.data, n, outdims, this.b.data);
+        return this.Y;
+    }
+
+    /**
+     * Allocation-free version of {@link #backward(DoubleMatrix)}, the transposes
+     * are passed to gemm as flags instead of being materialised.
+     */
+    DoubleMatrix backwardWorkspace(DoubleMatrix gY) {
+        int n = gY.rows;
+        int indims = this.W.rows;
+        int outdims = this.W.columns;
+        if (this.gX == null || this.gX.rows != n)
+            this.gX = new DoubleMatrix(n, indims);
+
+        // gW += X^T * gY
+        Backends.forGemm(indims, outdims, n).gemm('T', 'N', indims, outdims, n, 1.0,
+                this.X.data, 0, n, gY.data, 0, n, 1.0, this.gW.data, 0, indims);
+
+        // gb += sum_row gY
+        Backends.forElementwise(gY.length).addColumnSums(gY.data, n, outdims, this.gb.data);
+
+        // gX = gY * W^T
+        Backends.forGemm(n, indims, outdims).gemm('N', 'T', n, indims, outdims, 1.0,
+                gY.data, 0, n, this.W.data, 0, indims, 0.0, this.gX.data, 0, n);
+        return this.gX;
+    }
+
+    /**
+     * Initialise this layer from the trained layer of a related network, whose dimensions
+     * may differ (warm start). Row i of W (the weights of input i) is copied from row
+     * rows[i] of the source, for the outputs the source has: the inputs without a
+     * source row (e.g. new features, or new hidden units of the previous layer) get zero
+     * weights, so that they do not change the outputs until they are trained, and the
+     * outputs without a source column (new hidden units) keep their initial weights.
+     * @param source the trained layer
+     * @param rows the source row of each row of W, -1 for none (null: the same row, if
+     *             the source has it)
+     */
+    void warmStart(Linear source, int[] rows) {
+        int indims = this.W.rows;
+        int outdims = Math.min(this.W.columns, source.W.columns);
+        for (int i = 0; i < indims; i++) {
+            int r = rows != null ? rows[i] : i < source.W.rows ? i : -1;
+            if (r >= source.W.rows)
+                throw new IllegalArgumentException("no input " + r + " in " + source);
+            for (int j = 0; j < this.W.columns; j++) {
+                if (r < 0)
+                    this.W.put(i, j, 0);
+                else if (j < outdims)
+                    this.W.put(i, j, source.W.get(r, j));
+            }
+        }
+        for (int j = 0; j < outdims; j++)
+            this.b.put(j, source.b.get(j));
+    }
+
     @Override
     public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
         weights.add(this.W);
@@ -140,6 +390,15 @@ public class Linear implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public Layer replicate() {
+        Linear l = new Linear(this.W, this.b);
+        l.gW = DoubleMatrix.zeros(this.W.rows, this.W.columns);
+        l.gb = DoubleMatrix.zeros(this.b.rows, this.b.columns);
+        l.setWorkspace(this.workspace);
+        return l;
+    }
+
     @Override
     public String toString() {
         return String.format("Linear: %d in, %d out", this.W.rows, this.W.columns);
@@ -16,11 +16,26 @@ public class ReLU implements Layer, java.io.Serializable {
 	private static final long serialVersionUID = 6243622144246414861L;
 	// for backward
     DoubleMatrix X; 
+
+    // in-place mode: the input is overwritten and only a bitmask of X > 0 is kept
+    boolean inPlace = false;
+    transient long[] mask;
     
     public ReLU() {}
 
+    /**
+     * @param inPlace if true, forward overwrites its input and backward overwrites
+     *                its gradient, so neither must be used by the caller afterwards
+     */
+    public ReLU(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
+        if (this.inPlace)
+            return forwardInPlace(X);
+
         this.X = X.dup();
 
         // Y[i,j] = max(0, X[i,j])
@@ -36,6 +51,9 @@ public class ReLU implements Layer, java.io.Serializable {
 
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
+        if (this.inPlace)
+            return backwardInPlace(gY);
+
         // gX[i,j] = 0 if X[i,j] <= 0 0 else gY[i,j]
         DoubleMatrix gX = gY.dup();
         for (int i = 0; i < gX.rows; i++) {
@@ -48,6 +66,35 @@ public class ReLU implements Layer, java.io.Serializable {
         return gX;
     }
 
+    @Override
+    public DoubleMatrix predict(DoubleMatrix X, boolean overwrite, DoubleMatrix buf) {
+        DoubleMatrix Y = Sigmoid.predictTarget(X, overwrite, buf);
+        double[] y = Y.data;
+        for (int i = 0; i < Y.length; i++) {
+            if (y[i] <= 0)
+                y[i] = 0;
+        }
+        return Y;
+    }
+
+    DoubleMatrix forwardInPlace(DoubleMatrix X) {
+        double[] x = X.data;
+        int n = X.length;
+        int words = (n + 63) >>> 6;
+        if (this.mask == null || this.mask.length < words)
+            this.mask = new long[words];
+
+        // Y[i] = max(0, X[i]), bit i of the mask records X[i] > 0
+        Backends.forElementwise(n).relu(x, n, this.mask);
+        return X;
+    }
+
+    DoubleMatrix backwardInPlace(DoubleMatrix gY) {
+        // gX[i] = gY[i] if X[i] > 0 else 0
+        Backends.forElementwise(gY.length).reluBackward(gY.data, gY.length, this.mask);
+        return gY;
+    }
+
     @Override
     public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
         return weights;
@@ -58,6 +105,11 @@ public class ReLU implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public Layer replicate() {
+        return new ReLU(this.inPlace);
+    }
+
     @Override
     public String toString() {
         return "ReLU";
@@ -3,6 +3,7 @@
 
 package minet.layer;
 
+import minet.util.SparseMatrix;
 import org.jblas.DoubleMatrix;
 
 import java.util.List;
@@ -21,10 +22,20 @@ public class Sequential implements Layer, java.io.Serializable {
 	
 	Layer[] layers;         
 
+    // per-thread output buffers for predict, one per layer
+    transient volatile ThreadLocal<DoubleMatrix[]> predictBuffers;
+
     public Sequential(Layer[] layers) {
         this.layers = layers;
     }
 
+    /**
+     * @return the layers of the network, in order (not copied)
+     */
+    public Layer[] getLayers() {
+        return this.layers;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
     	//System.out.print("\n");
@@ -36,6 +47,79 @@ public class Sequential implements Layer, java.io.Serializable {
         return X;
     }
 
+    /**
+     * Forward on a sparse input, which the first layer (a {@link Linear}) multiplies
+     * directly (see {@link Linear#forward(SparseMatrix)}).
+     */
+    public DoubleMatrix forward(SparseMatrix X) {
+        DoubleMatrix Y = firstLinear().forward(X);
+        for (int i = 1; i < layers.length; i++) {
+            Y = layers[i].forward(Y);
+        }
+        return Y;
+    }
+
+    /**
+     * Stateless forward on a sparse input (see {@link #forward(SparseMatrix)} and
+     * {@link #predict(DoubleMatrix, boolean, DoubleMatrix)}).
+     */
+    public DoubleMatrix predict(SparseMatrix X) {
+        DoubleMatrix[] bufs = buffers().get();
+        DoubleMatrix Y = firstLinear().predict(X, bufs[0]);
+        bufs[0] = Y;
+        for (int i = 1; i < layers.length; i++) {
+            DoubleMatrix Z = layers[i].predict(Y, true, bufs[i]);
+            if (Z != Y)
+                bufs[i] = Z;
+            Y = Z;
+        }
+        return Y;
+    }
+
+    Linear firstLinear() {
+        if (!(layers[0] instanceof Linear))
+            throw new IllegalStateException("sparse inputs require a Linear first layer, got " + layers[0]);
+        return (Linear) layers[0];
+    }
+
+    /**
+     * Stateless forward (see {@link Layer#predict}). Each thread gets its own output
+     * buffers, reused from one call to the next, and every layer after the first
+     * one may overwrite the output of the previous layer, so activation layers work
+     * in place on their input buffer. The returned matrix is therefore overwritten
+     * by the next call to predict from the same thread, and buf is not used.
+     */
+    @Override
+    public DoubleMatrix predict(DoubleMatrix X, boolean overwrite, DoubleMatrix buf) {
+        DoubleMatrix[] bufs = buffers().get();
+        for (int i = 0; i < layers.length; i++) {
+            DoubleMatrix Y = layers[i].predict(X, overwrite, bufs[i]);
+            if (Y != X)
+                bufs[i] = Y;
+            X = Y;
+            overwrite = true; // from here on X is one of our buffers
+        }
+        return X;
+    }
+
+    /**
+     * Get the per-thread predict buffers (initialised lazily, they are not serialized).
+     */
+    ThreadLocal<DoubleMatrix[]> buffers() {
+        ThreadLocal<DoubleMatrix[]> b = this.predictBuffers;
+        if (b == null) {
+            synchronized (this) {
+                b = this.predictBuffers;
+                if (b == null) {
+                    final int n = this.layers.length;
+                    b = ThreadLocal.withInitial(() -> new DoubleMatrix[n]);
+                    this.predictBuffers = b;
+                }
+            }
+        }
+        return b;
+    }
+
     @Override
     public DoubleMatrix backward(DoubleMatrix dY) {
         for (int i = layers.length-1; i >= 0; i--) {
@@ -44,6 +128,31 @@ public class Sequential implements Layer, java.io.Serializable {
         return dY;
     }
 
+    /**
+     * Initialise this network from a trained network with the same layers but possibly
+     * different dimensions (warm start), e.g. one trained without some features or with
+     * fewer hidden units: the weights the two networks share are copied, the weights of
+     * new inputs and hidden units are set as described in
+     * {@link Linear#warmStart(Linear, int[])}, and those the source has but this network
+     * has not (removed features or hidden units) are dropped.
+     * @param source the trained network
+     * @param inputs the input of the source that feeds each input of this network, -1
+     *               for a new input (null: the same inputs)
+     */
+    public void warmStart(Sequential source, int[] inputs) {
+        if (source.layers.length != this.layers.length)
+            throw new IllegalArgumentException("the networks must have the same layers: " + source + " vs " + this);
+        boolean first = true;
+        for (int i = 0; i < this.layers.length; i++) {
+            if (source.layers[i].getClass() != this.layers[i].getClass())
+                throw new IllegalArgumentException("the networks must have the same layers: " + source + " vs " + this);
+            if (this.layers[i] instanceof Linear) {
+                ((Linear) this.layers[i]).warmStart((Linear) source.layers[i], first ? inputs : null);
+                first = false;
+            }
+        }
+    }
+
     @Override
     public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
         for (int i = 0; i < layers.length; i++) {
@@ -60,6 +169,15 @@ public class Sequential implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public Layer replicate() {
+        Layer[] replicas = new Layer[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            replicas[i] = layers[i].replicate();
+        }
+        return new Sequential(replicas);
+    }
+
     @Override
     public String toString() {
         StringBuilder str = new StringBuilder();
@@ -18,19 +18,61 @@ public class Sigmoid implements Layer, java.io.Serializable {
 	
 	// for backward
     DoubleMatrix Y;
+
+    // in-place mode: Y is the (overwritten) input buffer itself
+    boolean inPlace = false;
     
     public Sigmoid() {}
 
+    /**
+     * @param inPlace if true, forward overwrites its input and backward overwrites
+     *                its gradient, so neither must be used by the caller afterwards
+     */
+    public Sigmoid(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
+        if (this.inPlace) {
+            Backends.forElementwise(X.length).sigmoid(X.data, X.length);
+            this.Y = X;
+            return X;
+        }
+
         // Y[i] = 1 / (1 + exp(-X[i]))
         DoubleMatrix Y = MatrixFunctions.expi(X.mul(-1)).addi(1).rdivi(1);
         this.Y = Y.dup();
         return Y;
     }
 
+    @Override
+    public DoubleMatrix predict(DoubleMatrix X, boolean overwrite, DoubleMatrix buf) {
+        DoubleMatrix Y = predictTarget(X, overwrite, buf);
+        Backends.forElementwise(Y.length).sigmoid(Y.data, Y.length);
+        return Y;
+    }
+
+    /**
+     * Get the matrix predict writes into: X itself, buf or a new matrix, in this order
+     * of preference; X is copied into it.
+     */
+    static DoubleMatrix predictTarget(DoubleMatrix X, boolean overwrite, DoubleMatrix buf) {
+        if (overwrite)
+            return X;
+        if (buf == null || buf == X || buf.rows != X.rows || buf.columns != X.columns)
+            buf = new DoubleMatrix(X.rows, X.columns);
+        buf.copy(X);
+        return buf;
+    }
+
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
+        if (this.inPlace) {
+            Backends.forElementwise(gY.length).sigmoidBackward(gY.data, this.Y.data, gY.length);
+            return gY;
+        }
+
         // gX = gY . (Y . (1 - Y))
         return gY.mul(this.Y.mul(this.Y.rsub(1)));
     }
@@ -45,6 +87,11 @@ public class Sigmoid implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public Layer replicate() {
+        return new Sigmoid(this.inPlace);
+    }
+
     @Override
     public String toString() {
         return "Sigmoid";
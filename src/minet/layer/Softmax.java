@@ -19,11 +19,26 @@ public class Softmax implements Layer, java.io.Serializable {
 	
 	// for backward
     DoubleMatrix Y;
+
+    // in-place mode: Y is the (overwritten) input buffer itself
+    boolean inPlace = false;
+    transient double[] rowBuf; // two values per row, reused across minibatches
     
     public Softmax() {}
 
+    /**
+     * @param inPlace if true, forward overwrites its input and backward overwrites
+     *                its gradient, so neither must be used by the caller afterwards
+     */
+    public Softmax(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
+        if (this.inPlace)
+            return forwardInPlace(X);
+
         // Y[:,j] = exp(Y[:,j]) / sum_k exp(Y[:,k])
         DoubleMatrix maxVal = X.rowMaxs();
         DoubleMatrix Y = MatrixFunctions.expi(X.subColumnVector(maxVal));
@@ -33,12 +48,62 @@ public class Softmax implements Layer, java.io.Serializable {
         return Y;
     }
 
+    @Override
+    public DoubleMatrix predict(DoubleMatrix X, boolean overwrite, DoubleMatrix buf) {
+        DoubleMatrix Y = Sigmoid.predictTarget(X, overwrite, buf);
+
+        // row by row (strided), so that no scratch space is shared between threads
+        int n = Y.rows;
+        double[] y = Y.data;
+        for (int i = 0; i < n; i++) {
+            double max = y[i];
+            for (int k = i + n; k < Y.length; k += n) {
+                if (y[k] > max)
+                    max = y[k];
+            }
+            double norm = 0;
+            for (int k = i; k < Y.length; k += n) {
+                y[k] = Math.exp(y[k] - max);
+                norm += y[k];
+            }
+            for (int k = i; k < Y.length; k += n)
+                y[k] /= norm;
+        }
+        return Y;
+    }
+
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
+        if (this.inPlace)
+            return backwardInPlace(gY);
+
         // gX[:,j] = Y[:,j] * (gY[:,j] - sum_i gY[:,i] Y[:,i])
         return gY.subColumnVector(this.Y.mul(gY).rowSums()).muli(this.Y);
     }
 
+    /**
+     * Get a scratch array with (at least) the given number of entries.
+     */
+    double[] rowBuffer(int rows) {
+        if (this.rowBuf == null || this.rowBuf.length < rows)
+            this.rowBuf = new double[rows];
+        return this.rowBuf;
+    }
+
+    DoubleMatrix forwardInPlace(DoubleMatrix X) {
+        // Y[i,j] = exp(X[i,j] - max_k X[i,k]) / sum_k exp(X[i,k] - max_k X[i,k])
+        Backends.forElementwise(X.length).softmax(X.data, X.rows, X.columns, rowBuffer(2 * X.rows));
+        this.Y = X;
+        return X;
+    }
+
+    DoubleMatrix backwardInPlace(DoubleMatrix gY) {
+        // gX[i,j] = Y[i,j] * (gY[i,j] - sum_k gY[i,k] Y[i,k])
+        Backends.forElementwise(gY.length).softmaxBackward(gY.data, this.Y.data, gY.rows, gY.columns,
+                rowBuffer(gY.rows));
+        return gY;
+    }
+
     @Override
     public List<DoubleMatrix> getAllWeights(List<DoubleMatrix> weights) {
         return weights;
@@ -49,6 +114,11 @@ public class Softmax implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public Layer replicate() {
+        return new Softmax(this.inPlace);
+    }
+
     @Override
     public String toString() {
         return "Softmax";
@@ -16,19 +16,48 @@ public class Tanh implements Layer, java.io.Serializable {
 	private static final long serialVersionUID = -7444093094282163781L;
 	// for backward
     DoubleMatrix Y;
+
+    // in-place mode: Y is the (overwritten) input buffer itself
+    boolean inPlace = false;
     
     public Tanh() {}
 
+    /**
+     * @param inPlace if true, forward overwrites its input and backward overwrites
+     *                its gradient, so neither must be used by the caller afterwards
+     */
+    public Tanh(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
     @Override
     public DoubleMatrix forward(DoubleMatrix X) {
+        if (this.inPlace) {
+            Backends.forElementwise(X.length).tanh(X.data, X.length);
+            this.Y = X;
+            return X;
+        }
+
         // Y[i] = tanh(X[i])
         DoubleMatrix Y = MatrixFunctions.tanh(X);
         this.Y = Y.dup();
         return Y;
     }
 
+    @Override
+    public DoubleMatrix predict(DoubleMatrix X, boolean overwrite, DoubleMatrix buf) {
+        DoubleMatrix Y = Sigmoid.predictTarget(X, overwrite, buf);
+        Backends.forElementwise(Y.length).tanh(Y.data, Y.length);
+        return Y;
+    }
+
     @Override
     public DoubleMatrix backward(DoubleMatrix gY) {
+        if (this.inPlace) {
+            Backends.forElementwise(gY.length).tanhBackward(gY.data, this.Y.data, gY.length);
+            return gY;
+        }
+
         // gX = gY . (1 - Y * Y)
         return gY.mul((this.Y.mul(this.Y)).rsub(1));
     }
@@ -43,6 +72,11 @@ public class Tanh implements Layer, java.io.Serializable {
         return grads;
     }
 
+    @Override
+    public Layer replicate() {
+        return new Tanh(this.inPlace);
+    }
+
     @Override
     public String toString() {
         return "Tanh";
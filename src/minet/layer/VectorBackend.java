@@ -0,0 +1,582 @@
+// File: VectorBackend.java
+// Pure-Java SIMD compute backend
+package minet.layer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A pure-Java backend built on the (incubating) Vector API. For the small
+ * layers of our networks this avoids the JNI crossing of every jblas call.
+ * <p>
+ * Requires {@code --add-modules jdk.incubator.vector} at compile and run time;
+ * {@link Backends} falls back to {@link JblasBackend} when the module is missing.
+ */
+public class VectorBackend implements Backend {
+
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    static final int L = SPECIES.length();
+    static final VectorSpecies<Float> FSPECIES = FloatVector.SPECIES_PREFERRED;
+    static final int FL = FSPECIES.length();
+
+    @Override
+    public void gemm(char transA, char transB, int m, int n, int k, double alpha,
+                     double[] a, int aIdx, int lda, double[] b, int bIdx, int ldb,
+                     double beta, double[] c, int cIdx, int ldc) {
+        // C = beta * C
+        for (int j = 0; j < n; j++) {
+            int cj = cIdx + j * ldc;
+            if (beta == 0) {
+                for (int i = 0; i < m; i++)
+                    c[cj + i] = 0;
+            } else if (beta != 1) {
+                for (int i = 0; i < m; i++)
+                    c[cj + i] *= beta;
+            }
+        }
+
+        if (transA == 'N') {
+            // C[:,j] += sum_p A[:,p] * alpha * op(B)[p,j], i.e. axpy over contiguous columns of A
+            int strideP = transB == 'N' ? 1 : ldb;  // step between op(B)[p,j] and op(B)[p+1,j]
+            int strideJ = transB == 'N' ? ldb : 1;  // step between op(B)[p,j] and op(B)[p,j+1]
+            for (int j = 0; j < n; j++) {
+                int cj = cIdx + j * ldc;
+                int bj = bIdx + j * strideJ;
+                int p = 0;
+                for (; p + 3 < k; p += 4) {
+                    axpy4(m, c, cj, a, aIdx + p * lda, lda,
+                            alpha * b[bj + p * strideP], alpha * b[bj + (p + 1) * strideP],
+                            alpha * b[bj + (p + 2) * strideP], alpha * b[bj + (p + 3) * strideP]);
+                }
+                for (; p < k; p++)
+                    axpy(m, alpha * b[bj + p * strideP], a, aIdx + p * lda, c, cj);
+            }
+        } else if (transB == 'N') {
+            // C[i,j] += alpha * dot(A[:,i], B[:,j]), both contiguous
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < m; i++)
+                    c[cIdx + i + j * ldc] += alpha * dot(k, a, aIdx + i * lda, b, bIdx + j * ldb);
+            }
+        } else {
+            // C[i,j] += alpha * sum_p A[p,i] * B[j,p], not used by our layers
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < m; i++) {
+                    double s = 0;
+                    for (int p = 0; p < k; p++)
+                        s += a[aIdx + p + i * lda] * b[bIdx + j + p * ldb];
+                    c[cIdx + i + j * ldc] += alpha * s;
+                }
+            }
+        }
+    }
+
+    /**
+     * y[yOff:yOff+n] += s * x[xOff:xOff+n]
+     */
+    static void axpy(int n, double s, double[] x, int xOff, double[] y, int yOff) {
+        DoubleVector vs = DoubleVector.broadcast(SPECIES, s);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOff + i);
+            DoubleVector.fromArray(SPECIES, x, xOff + i).fma(vs, vy).intoArray(y, yOff + i);
+        }
+        for (; i < n; i++)
+            y[yOff + i] += s * x[xOff + i];
+    }
+
+    /**
+     * y[yOff:yOff+n] += s0 * x[:,0] + s1 * x[:,1] + s2 * x[:,2] + s3 * x[:,3], where
+     * column q of x starts at xOff + q * ldx. Loads and stores y once for four columns.
+     */
+    static void axpy4(int n, double[] y, int yOff, double[] x, int xOff, int ldx,
+                      double s0, double s1, double s2, double s3) {
+        DoubleVector v0 = DoubleVector.broadcast(SPECIES, s0);
+        DoubleVector v1 = DoubleVector.broadcast(SPECIES, s1);
+        DoubleVector v2 = DoubleVector.broadcast(SPECIES, s2);
+        DoubleVector v3 = DoubleVector.broadcast(SPECIES, s3);
+        int x0 = xOff, x1 = xOff + ldx, x2 = xOff + 2 * ldx, x3 = xOff + 3 * ldx;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOff + i);
+            vy = DoubleVector.fromArray(SPECIES, x, x0 + i).fma(v0, vy);
+            vy = DoubleVector.fromArray(SPECIES, x, x1 + i).fma(v1, vy);
+            vy = DoubleVector.fromArray(SPECIES, x, x2 + i).fma(v2, vy);
+            vy = DoubleVector.fromArray(SPECIES, x, x3 + i).fma(v3, vy);
+            vy.intoArray(y, yOff + i);
+        }
+        for (; i < n; i++)
+            y[yOff + i] += s0 * x[x0 + i] + s1 * x[x1 + i] + s2 * x[x2 + i] + s3 * x[x3 + i];
+    }
+
+    /**
+     * sum_i x[xOff+i] * y[yOff+i] for i < n
+     */
+    static double dot(int n, double[] x, int xOff, double[] y, int yOff) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            acc = DoubleVector.fromArray(SPECIES, x, xOff + i)
+                    .fma(DoubleVector.fromArray(SPECIES, y, yOff + i), acc);
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++)
+            s += x[xOff + i] * y[yOff + i];
+        return s;
+    }
+
+    @Override
+    public void addRowVector(double[] y, int rows, int cols, double[] b) {
+        for (int j = 0; j < cols; j++) {
+            DoubleVector vb = DoubleVector.broadcast(SPECIES, b[j]);
+            int off = j * rows;
+            int i = 0;
+            for (int bound = SPECIES.loopBound(rows); i < bound; i += L)
+                DoubleVector.fromArray(SPECIES, y, off + i).add(vb).intoArray(y, off + i);
+            for (; i < rows; i++)
+                y[off + i] += b[j];
+        }
+    }
+
+    @Override
+    public void addColumnSums(double[] y, int rows, int cols, double[] acc) {
+        for (int j = 0; j < cols; j++) {
+            DoubleVector vs = DoubleVector.zero(SPECIES);
+            int off = j * rows;
+            int i = 0;
+            for (int bound = SPECIES.loopBound(rows); i < bound; i += L)
+                vs = vs.add(DoubleVector.fromArray(SPECIES, y, off + i));
+            double s = vs.reduceLanes(VectorOperators.ADD);
+            for (; i < rows; i++)
+                s += y[off + i];
+            acc[j] += s;
+        }
+    }
+
+    @Override
+    public void relu(double[] x, int n, long[] mask) {
+        // lanes never straddle a 64-bit mask word since L is a power of two <= 64
+        int words = (n + 63) >>> 6;
+        for (int w = 0; w < words; w++)
+            mask[w] = 0;
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+            VectorMask<Double> pos = v.compare(VectorOperators.GT, 0);
+            zero.blend(v, pos).intoArray(x, i);
+            mask[i >>> 6] |= pos.toLong() << (i & 63);
+        }
+        for (; i < n; i++) {
+            if (x[i] > 0)
+                mask[i >>> 6] |= 1L << (i & 63);
+            else
+                x[i] = 0;
+        }
+    }
+
+    @Override
+    public void reluBackward(double[] g, int n, long[] mask) {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            VectorMask<Double> pos = VectorMask.fromLong(SPECIES, mask[i >>> 6] >>> (i & 63));
+            zero.blend(DoubleVector.fromArray(SPECIES, g, i), pos).intoArray(g, i);
+        }
+        for (; i < n; i++) {
+            if ((mask[i >>> 6] & (1L << (i & 63))) == 0)
+                g[i] = 0;
+        }
+    }
+
+    @Override
+    public void sigmoid(double[] x, int n) {
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+            one.div(v.neg().lanewise(VectorOperators.EXP).add(1)).intoArray(x, i);
+        }
+        for (; i < n; i++)
+            x[i] = 1 / (1 + Math.exp(-x[i]));
+    }
+
+    @Override
+    public void sigmoidBackward(double[] g, double[] y, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+            DoubleVector.fromArray(SPECIES, g, i).mul(vy.mul(vy.neg().add(1))).intoArray(g, i);
+        }
+        for (; i < n; i++)
+            g[i] *= y[i] * (1 - y[i]);
+    }
+
+    @Override
+    public void tanh(double[] x, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L)
+            DoubleVector.fromArray(SPECIES, x, i).lanewise(VectorOperators.TANH).intoArray(x, i);
+        for (; i < n; i++)
+            x[i] = Math.tanh(x[i]);
+    }
+
+    @Override
+    public void tanhBackward(double[] g, double[] y, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+            DoubleVector.fromArray(SPECIES, g, i).mul(vy.mul(vy).neg().add(1)).intoArray(g, i);
+        }
+        for (; i < n; i++)
+            g[i] *= 1 - y[i] * y[i];
+    }
+
+    @Override
+    public void softmax(double[] x, int rows, int cols, double[] acc) {
+        // column by column, each column being a contiguous run of rows
+        int n = rows;
+        System.arraycopy(x, 0, acc, 0, n);
+        for (int j = 1; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+                DoubleVector.fromArray(SPECIES, acc, i)
+                        .max(DoubleVector.fromArray(SPECIES, x, off + i)).intoArray(acc, i);
+            }
+            for (; i < n; i++)
+                acc[i] = Math.max(acc[i], x[off + i]);
+        }
+        for (int i = 0; i < n; i++)
+            acc[n + i] = 0;
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+                DoubleVector e = DoubleVector.fromArray(SPECIES, x, off + i)
+                        .sub(DoubleVector.fromArray(SPECIES, acc, i)).lanewise(VectorOperators.EXP);
+                e.intoArray(x, off + i);
+                e.add(DoubleVector.fromArray(SPECIES, acc, n + i)).intoArray(acc, n + i);
+            }
+            for (; i < n; i++) {
+                x[off + i] = Math.exp(x[off + i] - acc[i]);
+                acc[n + i] += x[off + i];
+            }
+        }
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+                DoubleVector.fromArray(SPECIES, x, off + i)
+                        .div(DoubleVector.fromArray(SPECIES, acc, n + i)).intoArray(x, off + i);
+            }
+            for (; i < n; i++)
+                x[off + i] /= acc[n + i];
+        }
+    }
+
+    @Override
+    public void softmaxBackward(double[] g, double[] y, int rows, int cols, double[] acc) {
+        int n = rows;
+        for (int i = 0; i < n; i++)
+            acc[i] = 0;
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+                DoubleVector.fromArray(SPECIES, g, off + i)
+                        .fma(DoubleVector.fromArray(SPECIES, y, off + i), DoubleVector.fromArray(SPECIES, acc, i))
+                        .intoArray(acc, i);
+            }
+            for (; i < n; i++)
+                acc[i] += g[off + i] * y[off + i];
+        }
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = SPECIES.loopBound(n); i < bound; i += L) {
+                DoubleVector.fromArray(SPECIES, g, off + i).sub(DoubleVector.fromArray(SPECIES, acc, i))
+                        .mul(DoubleVector.fromArray(SPECIES, y, off + i)).intoArray(g, off + i);
+            }
+            for (; i < n; i++)
+                g[off + i] = y[off + i] * (g[off + i] - acc[i]);
+        }
+    }
+
+    // single precision: the same kernels over FloatVector
+
+    @Override
+    public void gemm(char transA, char transB, int m, int n, int k, float alpha,
+                     float[] a, int aIdx, int lda, float[] b, int bIdx, int ldb,
+                     float beta, float[] c, int cIdx, int ldc) {
+        // C = beta * C
+        for (int j = 0; j < n; j++) {
+            int cj = cIdx + j * ldc;
+            if (beta == 0) {
+                for (int i = 0; i < m; i++)
+                    c[cj + i] = 0;
+            } else if (beta != 1) {
+                for (int i = 0; i < m; i++)
+                    c[cj + i] *= beta;
+            }
+        }
+
+        if (transA == 'N') {
+            int strideP = transB == 'N' ? 1 : ldb;
+            int strideJ = transB == 'N' ? ldb : 1;
+            for (int j = 0; j < n; j++) {
+                int cj = cIdx + j * ldc;
+                int bj = bIdx + j * strideJ;
+                int p = 0;
+                for (; p + 3 < k; p += 4) {
+                    axpy4(m, c, cj, a, aIdx + p * lda, lda,
+                            alpha * b[bj + p * strideP], alpha * b[bj + (p + 1) * strideP],
+                            alpha * b[bj + (p + 2) * strideP], alpha * b[bj + (p + 3) * strideP]);
+                }
+                for (; p < k; p++)
+                    axpy(m, alpha * b[bj + p * strideP], a, aIdx + p * lda, c, cj);
+            }
+        } else if (transB == 'N') {
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < m; i++)
+                    c[cIdx + i + j * ldc] += alpha * dot(k, a, aIdx + i * lda, b, bIdx + j * ldb);
+            }
+        } else {
+            for (int j = 0; j < n; j++) {
+                for (int i = 0; i < m; i++) {
+                    float s = 0;
+                    for (int p = 0; p < k; p++)
+                        s += a[aIdx + p + i * lda] * b[bIdx + j + p * ldb];
+                    c[cIdx + i + j * ldc] += alpha * s;
+                }
+            }
+        }
+    }
+
+    static void axpy(int n, float s, float[] x, int xOff, float[] y, int yOff) {
+        FloatVector vs = FloatVector.broadcast(FSPECIES, s);
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            FloatVector vy = FloatVector.fromArray(FSPECIES, y, yOff + i);
+            FloatVector.fromArray(FSPECIES, x, xOff + i).fma(vs, vy).intoArray(y, yOff + i);
+        }
+        for (; i < n; i++)
+            y[yOff + i] += s * x[xOff + i];
+    }
+
+    static void axpy4(int n, float[] y, int yOff, float[] x, int xOff, int ldx,
+                      float s0, float s1, float s2, float s3) {
+        FloatVector v0 = FloatVector.broadcast(FSPECIES, s0);
+        FloatVector v1 = FloatVector.broadcast(FSPECIES, s1);
+        FloatVector v2 = FloatVector.broadcast(FSPECIES, s2);
+        FloatVector v3 = FloatVector.broadcast(FSPECIES, s3);
+        int x0 = xOff, x1 = xOff + ldx, x2 = xOff + 2 * ldx, x3 = xOff + 3 * ldx;
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            FloatVector vy = FloatVector.fromArray(FSPECIES, y, yOff + i);
+            vy = FloatVector.fromArray(FSPECIES, x, x0 + i).fma(v0, vy);
+            vy = FloatVector.fromArray(FSPECIES, x, x1 + i).fma(v1, vy);
+            vy = FloatVector.fromArray(FSPECIES, x, x2 + i).fma(v2, vy);
+            vy = FloatVector.fromArray(FSPECIES, x, x3 + i).fma(v3, vy);
+            vy.intoArray(y, yOff + i);
+        }
+        for (; i < n; i++)
+            y[yOff + i] += s0 * x[x0 + i] + s1 * x[x1 + i] + s2 * x[x2 + i] + s3 * x[x3 + i];
+    }
+
+    static float dot(int n, float[] x, int xOff, float[] y, int yOff) {
+        FloatVector acc = FloatVector.zero(FSPECIES);
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            acc = FloatVector.fromArray(FSPECIES, x, xOff + i)
+                    .fma(FloatVector.fromArray(FSPECIES, y, yOff + i), acc);
+        }
+        float s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++)
+            s += x[xOff + i] * y[yOff + i];
+        return s;
+    }
+
+    @Override
+    public void addRowVector(float[] y, int rows, int cols, float[] b) {
+        for (int j = 0; j < cols; j++) {
+            FloatVector vb = FloatVector.broadcast(FSPECIES, b[j]);
+            int off = j * rows;
+            int i = 0;
+            for (int bound = FSPECIES.loopBound(rows); i < bound; i += FL)
+                FloatVector.fromArray(FSPECIES, y, off + i).add(vb).intoArray(y, off + i);
+            for (; i < rows; i++)
+                y[off + i] += b[j];
+        }
+    }
+
+    @Override
+    public void addColumnSums(float[] y, int rows, int cols, float[] acc) {
+        for (int j = 0; j < cols; j++) {
+            FloatVector vs = FloatVector.zero(FSPECIES);
+            int off = j * rows;
+            int i = 0;
+            for (int bound = FSPECIES.loopBound(rows); i < bound; i += FL)
+                vs = vs.add(FloatVector.fromArray(FSPECIES, y, off + i));
+            float s = vs.reduceLanes(VectorOperators.ADD);
+            for (; i < rows; i++)
+                s += y[off + i];
+            acc[j] += s;
+        }
+    }
+
+    @Override
+    public void relu(float[] x, int n, long[] mask) {
+        int words = (n + 63) >>> 6;
+        for (int w = 0; w < words; w++)
+            mask[w] = 0;
+        FloatVector zero = FloatVector.zero(FSPECIES);
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            FloatVector v = FloatVector.fromArray(FSPECIES, x, i);
+            VectorMask<Float> pos = v.compare(VectorOperators.GT, 0);
+            zero.blend(v, pos).intoArray(x, i);
+            mask[i >>> 6] |= pos.toLong() << (i & 63);
+        }
+        for (; i < n; i++) {
+            if (x[i] > 0)
+                mask[i >>> 6] |= 1L << (i & 63);
+            else
+                x[i] = 0;
+        }
+    }
+
+    @Override
+    public void reluBackward(float[] g, int n, long[] mask) {
+        FloatVector zero = FloatVector.zero(FSPECIES);
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            VectorMask<Float> pos = VectorMask.fromLong(FSPECIES, mask[i >>> 6] >>> (i & 63));
+            zero.blend(FloatVector.fromArray(FSPECIES, g, i), pos).intoArray(g, i);
+        }
+        for (; i < n; i++) {
+            if ((mask[i >>> 6] & (1L << (i & 63))) == 0)
+                g[i] = 0;
+        }
+    }
+
+    @Override
+    public void sigmoid(float[] x, int n) {
+        FloatVector one = FloatVector.broadcast(FSPECIES, 1);
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            FloatVector v = FloatVector.fromArray(FSPECIES, x, i);
+            one.div(v.neg().lanewise(VectorOperators.EXP).add(1)).intoArray(x, i);
+        }
+        for (; i < n; i++)
+            x[i] = (float) (1 / (1 + Math.exp(-x[i])));
+    }
+
+    @Override
+    public void sigmoidBackward(float[] g, float[] y, int n) {
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            FloatVector vy = FloatVector.fromArray(FSPECIES, y, i);
+            FloatVector.fromArray(FSPECIES, g, i).mul(vy.mul(vy.neg().add(1))).intoArray(g, i);
+        }
+        for (; i < n; i++)
+            g[i] *= y[i] * (1 - y[i]);
+    }
+
+    @Override
+    public void tanh(float[] x, int n) {
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL)
+            FloatVector.fromArray(FSPECIES, x, i).lanewise(VectorOperators.TANH).intoArray(x, i);
+        for (; i < n; i++)
+            x[i] = (float) Math.tanh(x[i]);
+    }
+
+    @Override
+    public void tanhBackward(float[] g, float[] y, int n) {
+        int i = 0;
+        for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+            FloatVector vy = FloatVector.fromArray(FSPECIES, y, i);
+            FloatVector.fromArray(FSPECIES, g, i).mul(vy.mul(vy).neg().add(1)).intoArray(g, i);
+        }
+        for (; i < n; i++)
+            g[i] *= 1 - y[i] * y[i];
+    }
+
+    @Override
+    public void softmax(float[] x, int rows, int cols, float[] acc) {
+        int n = rows;
+        System.arraycopy(x, 0, acc, 0, n);
+        for (int j = 1; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+                FloatVector.fromArray(FSPECIES, acc, i)
+                        .max(FloatVector.fromArray(FSPECIES, x, off + i)).intoArray(acc, i);
+            }
+            for (; i < n; i++)
+                acc[i] = Math.max(acc[i], x[off + i]);
+        }
+        for (int i = 0; i < n; i++)
+            acc[n + i] = 0;
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+                FloatVector e = FloatVector.fromArray(FSPECIES, x, off + i)
+                        .sub(FloatVector.fromArray(FSPECIES, acc, i)).lanewise(VectorOperators.EXP);
+                e.intoArray(x, off + i);
+                e.add(FloatVector.fromArray(FSPECIES, acc, n + i)).intoArray(acc, n + i);
+            }
+            for (; i < n; i++) {
+                x[off + i] = (float) Math.exp(x[off + i] - acc[i]);
+                acc[n + i] += x[off + i];
+            }
+        }
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+                FloatVector.fromArray(FSPECIES, x, off + i)
+                        .div(FloatVector.fromArray(FSPECIES, acc, n + i)).intoArray(x, off + i);
+            }
+            for (; i < n; i++)
+                x[off + i] /= acc[n + i];
+        }
+    }
+
+    @Override
+    public void softmaxBackward(float[] g, float[] y, int rows, int cols, float[] acc) {
+        int n = rows;
+        for (int i = 0; i < n; i++)
+            acc[i] = 0;
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+                FloatVector.fromArray(FSPECIES, g, off + i)
+                        .fma(FloatVector.fromArray(FSPECIES, y, off + i), FloatVector.fromArray(FSPECIES, acc, i))
+                        .intoArray(acc, i);
+            }
+            for (; i < n; i++)
+                acc[i] += g[off + i] * y[off + i];
+        }
+        for (int j = 0; j < cols; j++) {
+            int off = j * n;
+            int i = 0;
+            for (int bound = FSPECIES.loopBound(n); i < bound; i += FL) {
+                FloatVector.fromArray(FSPECIES, g, off + i).sub(FloatVector.fromArray(FSPECIES, acc, i))
+                        .mul(FloatVector.fromArray(FSPECIES, y, off + i)).intoArray(g, off + i);
+            }
+            for (; i < n; i++)
+                g[off + i] = y[off + i] * (g[off + i] - acc[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "vector(" + SPECIES + ", " + FSPECIES + ")";
+    }
+}
@@ -51,6 +51,11 @@ public class CrossEntropy implements Loss {
         return dY.divi(dY.rows);
     }
 
+    @Override
+    public Loss replicate() {
+        return new CrossEntropy();
+    }
+
     @Override
     public String toString() {
         return "CrossEntropyLoss";
@@ -0,0 +1,27 @@
+// File: FloatLoss.java
+// An interface for all single-precision loss functions.
+
+package minet.loss;
+
+import org.jblas.*;
+
+/**
+ * An interface for all single-precision loss functions, the counterpart of
+ * {@link Loss} for {@link FloatMatrix}.
+ */
+public interface FloatLoss {
+
+    /**
+     * Compute a loss value given groud-truth Y and estimate Yhat
+     * @param Y a minibatch_size-row matrix, each row is the ground-truth of an instance
+     * @param Yhat a minibatch_size-row matrix, each row an estimate of an instance
+     * @return a double
+     */
+    public double forward(FloatMatrix Y, FloatMatrix Yhat);
+
+    /**
+     * Compute dL/dYhat
+     * @return a minibatch_size-row matrix
+     */
+    public FloatMatrix backward();
+}
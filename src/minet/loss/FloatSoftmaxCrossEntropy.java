@@ -0,0 +1,93 @@
+// File: FloatSoftmaxCrossEntropy.java
+// FloatSoftmaxCrossEntropy class
+package minet.loss;
+
+import minet.layer.Backends;
+import org.jblas.FloatMatrix;
+
+/**
+ * A class for computing cross entropy loss directly from single-precision
+ * logits, see {@link SoftmaxCrossEntropy}.
+ */
+public class FloatSoftmaxCrossEntropy implements FloatLoss {
+    int[] labels;
+    int n;           // number of instances in the current minibatch
+    FloatMatrix P;   // softmax(logits), reused across minibatches
+    FloatMatrix dX;  // gradient buffer, reused across minibatches
+    FloatMatrix spareP, spareDX; // P and dX of the other minibatch size (e.g. the last one of an epoch)
+    float[] rowBuf;  // two values per row, reused across minibatches
+
+    public FloatSoftmaxCrossEntropy() {
+    }
+
+    /**
+     * Compute a loss value given groud-truth Y and logits
+     * 
+     * @param Y      a [minibatch_size x 1] matrix, each row is the ground-truth label
+     *               of an instance
+     * @param logits a [minibatch_size x d] matrix, each row contains the unnormalised
+     *               scores over the category set
+     * @return a double (accumulated in double precision)
+     */
+    @Override
+    public double forward(FloatMatrix Y, FloatMatrix logits) {
+        int n = logits.rows;
+        int c = logits.columns;
+        float[] x = logits.data;
+        if (this.P == null || this.P.rows != n || this.P.columns != c) {
+            // swap with the buffers of the previous size, see SoftmaxCrossEntropy
+            FloatMatrix P = this.P, dX = this.dX;
+            if (this.spareP != null && this.spareP.rows == n && this.spareP.columns == c) {
+                this.P = this.spareP;
+                this.dX = this.spareDX;
+            } else {
+                this.P = new FloatMatrix(n, c);
+                this.dX = new FloatMatrix(n, c);
+            }
+            this.spareP = P;
+            this.spareDX = dX;
+        }
+        if (this.labels == null || this.labels.length < n) {
+            this.labels = new int[n];
+            this.rowBuf = new float[2 * n];
+        }
+        this.n = n;
+        for (int i = 0; i < n; i++) {
+            this.labels[i] = (int) Y.data[i];
+        }
+
+        // P = softmax(logits), leaving the row maxima in acc[0:n] and the row sums of
+        // exp(x[i,j] - max_i) in acc[n:2n]
+        float[] p = this.P.data;
+        float[] acc = this.rowBuf;
+        System.arraycopy(x, 0, p, 0, n * c);
+        Backends.forElementwise(n * c).softmax(p, n, c, acc);
+
+        // loss = sum_i log(sum_j exp(x[i,j])) - x[i,label_i]
+        //      = sum_i max_i + log(sum_j exp(x[i,j] - max_i)) - x[i,label_i]
+        double lossVal = 0;
+        for (int i = 0; i < n; i++) {
+            lossVal += acc[i] + Math.log(acc[n + i]) - x[this.labels[i] * n + i];
+        }
+
+        return lossVal / (double) n;
+    }
+
+    @Override
+    public FloatMatrix backward() {
+        // dX = (P - onehot(Y)) / n
+        float[] p = this.P.data;
+        float[] d = this.dX.data;
+        float scale = 1.0f / this.n;
+        for (int k = 0; k < this.P.length; k++)
+            d[k] = p[k] * scale;
+        for (int i = 0; i < this.n; i++)
+            d[this.labels[i] * this.n + i] -= scale;
+        return this.dX;
+    }
+
+    @Override
+    public String toString() {
+        return "FloatSoftmaxCrossEntropyLoss";
+    }
+}
@@ -24,4 +24,10 @@ public interface Loss {
      * @return a minibatch_size-row matrix
      */
     public DoubleMatrix backward();
+
+    /**
+     * Create a new loss object of the same kind, with its own state.
+     * @return the new loss object
+     */
+    public Loss replicate();
 }
@@ -42,6 +42,11 @@ public class MeanSquaredError implements Loss {
         return (this.Y.sub(this.Yhat)).muli(2. / (double) this.Y.rows).muli(-1);
     }
 
+    @Override
+    public Loss replicate() {
+        return new MeanSquaredError();
+    }
+
     @Override
     public String toString() {
         return "MeanSquareErrorLoss";
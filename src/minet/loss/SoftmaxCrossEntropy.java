@@ -0,0 +1,103 @@
+// File: SoftmaxCrossEntropy.java
+// SoftmaxCrossEntropy class
+package minet.loss;
+
+import minet.layer.Backends;
+import org.jblas.DoubleMatrix;
+
+/**
+ * A class for computing cross entropy loss directly from logits, i.e. a
+ * {@link minet.layer.Softmax} layer followed by {@link CrossEntropy} fused into
+ * one step. The network must therefore NOT end with a softmax layer.
+ * <p>
+ * The loss is computed with the log-sum-exp trick and the gradient w.r.t. the
+ * logits is simply {@literal (softmax(logits) - onehot(Y)) / minibatch_size}.
+ */
+public class SoftmaxCrossEntropy implements Loss {
+    int[] labels;
+    int n;            // number of instances in the current minibatch
+    DoubleMatrix P;   // softmax(logits), reused across minibatches
+    DoubleMatrix dX;  // gradient buffer, reused across minibatches
+    DoubleMatrix spareP, spareDX; // P and dX of the other minibatch size (e.g. the last one of an epoch)
+    double[] rowBuf;  // two values per row, reused across minibatches
+
+    public SoftmaxCrossEntropy() {
+    }
+
+    /**
+     * Compute a loss value given groud-truth Y and logits
+     * 
+     * @param Y      a [minibatch_size x 1] matrix, each row is the ground-truth label
+     *               of an instance
+     * @param logits a [minibatch_size x d] matrix, each row contains the unnormalised
+     *               scores over the category set
+     * @return a double
+     */
+    @Override
+    public double forward(DoubleMatrix Y, DoubleMatrix logits) {
+        int n = logits.rows;
+        int c = logits.columns;
+        double[] x = logits.data;
+        if (this.P == null || this.P.rows != n || this.P.columns != c) {
+            // swap with the buffers of the previous size, which fit if the minibatches
+            // alternate between two sizes
+            DoubleMatrix P = this.P, dX = this.dX;
+            if (this.spareP != null && this.spareP.rows == n && this.spareP.columns == c) {
+                this.P = this.spareP;
+                this.dX = this.spareDX;
+            } else {
+                this.P = new DoubleMatrix(n, c);
+                this.dX = new DoubleMatrix(n, c);
+            }
+            this.spareP = P;
+            this.spareDX = dX;
+        }
+        if (this.labels == null || this.labels.length < n) {
+            this.labels = new int[n];
+            this.rowBuf = new double[2 * n];
+        }
+        this.n = n;
+        for (int i = 0; i < n; i++) {
+            this.labels[i] = (int) Y.data[i];
+        }
+
+        // P = softmax(logits), leaving the row maxima in acc[0:n] and the row sums of
+        // exp(x[i,j] - max_i) in acc[n:2n]
+        double[] p = this.P.data;
+        double[] acc = this.rowBuf;
+        System.arraycopy(x, 0, p, 0, n * c);
+        Backends.forElementwise(n * c).softmax(p, n, c, acc);
+
+        // loss = sum_i log(sum_j exp(x[i,j])) - x[i,label_i]
+        //      = sum_i max_i + log(sum_j exp(x[i,j] - max_i)) - x[i,label_i]
+        double lossVal = 0;
+        for (int i = 0; i < n; i++) {
+            lossVal += acc[i] + Math.log(acc[n + i]) - x[this.labels[i] * n + i];
+        }
+
+        return lossVal / (double) n;
+    }
+
+    @Override
+    public DoubleMatrix backward() {
+        // dX = (P - onehot(Y)) / n
+        double[] p = this.P.data;
+        double[] d = this.dX.data;
+        double scale = 1.0 / this.n;
+        for (int k = 0; k < this.P.length; k++)
+            d[k] = p[k] * scale;
+        for (int i = 0; i < this.n; i++)
+            d[this.labels[i] * this.n + i] -= scale;
+        return this.dX;
+    }
+
+    @Override
+    public Loss replicate() {
+        return new SoftmaxCrossEntropy();
+    }
+
+    @Override
+    public String toString() {
+        return "SoftmaxCrossEntropyLoss";
+    }
+}
@@ -0,0 +1,59 @@
+// File: FloatSGD.java
+// FloatSGD class
+package minet.optim;
+
+import minet.layer.FloatLayer;
+import org.jblas.FloatMatrix;
+import org.jblas.SimpleBlas;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+
+/**
+ * SGD (stochastic gradient descent) for single-precision networks, see {@link SGD}.
+ */
+public class FloatSGD implements Optimizer {
+    List<FloatMatrix> weights;
+    List<FloatMatrix> grads;
+    float lr;
+
+    public FloatSGD(FloatLayer net, double learningRate) {
+        this.lr = (float) learningRate;
+
+        this.weights = new LinkedList<FloatMatrix>();
+        this.grads = new LinkedList<FloatMatrix>();
+        net.getAllWeights(this.weights);
+        net.getAllGradients(this.grads);
+    }
+
+    /**
+     * Set learning rate.
+     * @param lr a double
+     */
+    public void setLearningRate(double lr) {
+        this.lr = (float) lr;
+    }
+
+    @Override
+    public void resetGradients() {
+        ListIterator<FloatMatrix> gIter = this.grads.listIterator();
+        while (gIter.hasNext()) {
+            FloatMatrix g = gIter.next();
+            g.fill(0);
+        }
+    }
+
+    @Override
+    public void updateWeights() {
+        ListIterator<FloatMatrix> wIter = this.weights.listIterator();
+        ListIterator<FloatMatrix> gIter = this.grads.listIterator();
+        while (gIter.hasNext() && wIter.hasNext()) {
+            FloatMatrix w = wIter.next();
+            FloatMatrix g = gIter.next();
+            // w = w - lr * g, computed in place
+            SimpleBlas.axpy(-this.lr, g, w);
+        }
+    }
+}
@@ -4,6 +4,7 @@ package minet.optim;
 
 import minet.layer.Layer;
 import org.jblas.DoubleMatrix;
+import org.jblas.SimpleBlas;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -52,7 +53,8 @@ public class SGD implements Optimizer {
         while (gIter.hasNext() && wIter.hasNext()) {
             DoubleMatrix w = wIter.next();
             DoubleMatrix g = gIter.next();
-            w.addi(g.mul(-this.lr));
+            // w = w - lr * g, computed in place
+            SimpleBlas.axpy(-this.lr, g, w);
         }
     }
 }
@@ -0,0 +1,40 @@
+package minet.util;
+
+import org.jblas.DoubleMatrix;
+
+/**
+ * A sparse matrix in compressed sparse row (CSR) format: the nonzero entries of row
+ * i are <code>values[k]</code> at column <code>colIdx[k]</code>, for
+ * <code>rowPtr[i] &lt;= k &lt; rowPtr[i + 1]</code>.
+ */
+public class SparseMatrix {
+    public int rows;
+    public int columns;
+    public int[] rowPtr;
+    public int[] colIdx;
+    public double[] values;
+
+    public SparseMatrix(int rows, int columns, int[] rowPtr, int[] colIdx, double[] values) {
+        this.rows = rows;
+        this.columns = columns;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.values = values;
+    }
+
+    /**
+     * The number of stored (nonzero) entries.
+     */
+    public int nnz() {
+        return this.rowPtr[this.rows];
+    }
+
+    public DoubleMatrix toDense() {
+        DoubleMatrix M = new DoubleMatrix(this.rows, this.columns);
+        for (int i = 0; i < this.rows; i++) {
+            for (int k = this.rowPtr[i]; k < this.rowPtr[i + 1]; k++)
+                M.data[this.colIdx[k] * this.rows + i] = this.values[k];
+        }
+        return M;
+    }
+}
@@ -2,4 +2,4 @@
 
 # complie all the .java files
 echo "Compiling..."
-javac -cp lib/*:minet:. minet/*.java minet/*/*.java *.java
\ No newline at end of file
+javac --add-modules jdk.incubator.vector -cp lib/*:minet:. minet/*.java minet/*/*.java *.java
\ No newline at end of file